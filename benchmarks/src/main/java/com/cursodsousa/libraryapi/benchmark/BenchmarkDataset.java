@@ -0,0 +1,94 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.service.BookService;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Popula o H2 dos benchmarks. Os tamanhos vêm dos @Param de cada benchmark, por exemplo
+ * {@code -Djmh.args="BookService -p books=1000000"}.
+ *
+ * Livros têm isbn igual ao número sequencial (1..n) e título com duas palavras de {@link #WORDS} mais o número.
+ */
+public final class BenchmarkDataset {
+
+    static final String[] WORDS = { "aventuras", "memorias", "historia", "java", "spring", "dom", "casmurro",
+            "viagem", "cidade", "tempo", "guerra", "paz", "sertao", "veredas", "vidas", "secas" };
+
+    private static final int CHUNK = 1000;
+
+    private BenchmarkDataset() {
+    }
+
+    public static void seedBooks(BookService service, int count) {
+        List<Book> books = new ArrayList<>(CHUNK);
+        for (int i = 1; i <= count; i++) {
+            books.add(book(i));
+            if (books.size() == CHUNK || i == count) {
+                service.saveAll(books);
+                books = new ArrayList<>(CHUNK);
+            }
+        }
+    }
+
+    /**
+     * Empréstimos não devolvidos para os primeiros {@code loans} livros, um por livro.
+     * Uma fração {@code lateRatio} deles tem data de dez dias atrás; os demais são de hoje.
+     */
+    public static void seedLoans(JdbcTemplate jdbcTemplate, int loans, double lateRatio) {
+        List<Object[]> rows = new ArrayList<>(CHUNK);
+        int lateEvery = lateRatio <= 0 ? Integer.MAX_VALUE : (int) Math.round(1 / lateRatio);
+        Date today = Date.valueOf(LocalDate.now());
+        Date late = Date.valueOf(LocalDate.now().minusDays(10));
+        List<Long> bookIds = jdbcTemplate.queryForList("select id from book order by id", Long.class);
+        if (loans > bookIds.size()) {
+            throw new IllegalArgumentException("Only one open loan per book: " + loans + " loans for " + bookIds.size() + " books");
+        }
+        for (int i = 0; i < loans; i++) {
+            Long bookId = bookIds.get(i);
+            rows.add(new Object[]{ "Customer " + i, "customer" + i + "@email.com", bookId,
+                    i % lateEvery == 0 ? late : today, false, bookId });
+            if (rows.size() == CHUNK || i == loans - 1) {
+                jdbcTemplate.batchUpdate("insert into loan (customer, customer_email, id_book, loan_date, returned, active_book_id) "
+                        + "values (?, ?, ?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+        jdbcTemplate.update("update book set active_loan_id = (select l.id from loan l where l.active_book_id = book.id)");
+    }
+
+    /**
+     * Histórico de {@code loans} empréstimos já devolvidos, distribuídos em rodízio pelos livros existentes
+     * e por {@code customers} clientes ("Customer 0".."Customer n-1"), com datas nos últimos 1000 dias.
+     * Devolvidos não ocupam o livro, então cabem quantos empréstimos forem pedidos.
+     */
+    public static void seedLoanHistory(JdbcTemplate jdbcTemplate, int loans, int customers) {
+        List<Object[]> rows = new ArrayList<>(CHUNK);
+        List<Long> bookIds = jdbcTemplate.queryForList("select id from book order by id", Long.class);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < loans; i++) {
+            int customer = (int) ((i * 7919L) % customers);
+            rows.add(new Object[]{ "Customer " + customer, "customer" + customer + "@email.com",
+                    bookIds.get(i % bookIds.size()), Date.valueOf(today.minusDays(i % 1000)), true });
+            if (rows.size() == CHUNK || i == loans - 1) {
+                jdbcTemplate.batchUpdate("insert into loan (customer, customer_email, id_book, loan_date, returned) "
+                        + "values (?, ?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+    }
+
+    static Book book(long number) {
+        String title = WORDS[(int) (number % WORDS.length)] + " " + WORDS[(int) (number / WORDS.length % WORDS.length)];
+        return Book.builder()
+                .isbn(String.valueOf(number))
+                .title(title + " " + number)
+                .author("Author " + number % 1000)
+                .build();
+    }
+}
@@ -0,0 +1,73 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Livros inseridos por segundo: um save por livro (caminho do POST /api/books) contra o saveAll em lote.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BookImportBenchmark.BOOKS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookImportBenchmark {
+
+    static final int BOOKS = 1000;
+
+    private ConfigurableApplicationContext context;
+    private BookService service;
+    private long isbnSequence;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = LibraryApiContext.start();
+        service = context.getBean(BookService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void oneByOne() {
+        for (Book book : newBooks()) {
+            service.save(book);
+        }
+    }
+
+    @Benchmark
+    public Object bulk() {
+        return service.saveAll(newBooks());
+    }
+
+    private List<Book> newBooks() {
+        List<Book> books = new ArrayList<>(BOOKS);
+        for (int i = 0; i < BOOKS; i++) {
+            long isbn = ++isbnSequence;
+            books.add(Book.builder().isbn(String.valueOf(isbn)).title("Title " + isbn).author("Author " + isbn).build());
+        }
+        return books;
+    }
+}
@@ -0,0 +1,83 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latência de BookService.save, find e getBookByIsbn sobre um acervo de {@code books} livros.
+ * {@code cache=none} desliga o cache de livros para medir a consulta em si.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookServiceBenchmark {
+
+    @Param({"10000"})
+    int books;
+
+    @Param({"caffeine", "none"})
+    String cache;
+
+    private ConfigurableApplicationContext context;
+    private BookService service;
+    private long nextIsbn;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = LibraryApiContext.start("spring.cache.type=" + cache);
+        service = context.getBean(BookService.class);
+        BenchmarkDataset.seedBooks(service, books);
+        nextIsbn = books;
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Book save() {
+        return service.save(BenchmarkDataset.book(++nextIsbn));
+    }
+
+    // título e autor vão para o índice de busca em memória
+    @Benchmark
+    public Object findByTitle() {
+        String word = BenchmarkDataset.WORDS[ThreadLocalRandom.current().nextInt(BenchmarkDataset.WORDS.length)];
+        return service.find(Book.builder().title(word).build(), PageRequest.of(0, 20));
+    }
+
+    // ordenação explícita obriga a consulta com like no banco
+    @Benchmark
+    public Object findByTitleSorted() {
+        String word = BenchmarkDataset.WORDS[ThreadLocalRandom.current().nextInt(BenchmarkDataset.WORDS.length)];
+        return service.find(Book.builder().title(word).build(), PageRequest.of(0, 20, Sort.by("id")));
+    }
+
+    @Benchmark
+    public Object getBookByIsbn() {
+        return service.getBookByIsbn(String.valueOf(1 + ThreadLocalRandom.current().nextInt(books)));
+    }
+}
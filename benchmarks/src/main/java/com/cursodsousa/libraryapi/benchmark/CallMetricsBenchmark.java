@@ -0,0 +1,84 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Custo do CallMetricsAspect: as mesmas chamadas com {@code metrics=true} e {@code false}. getBookByIsbn acerta
+ * o cache (só o service é medido e a chamada quase não faz trabalho, o pior caso relativo) e getAvailability
+ * passa pelo service e pelo repositório até uma consulta por chave primária. scrape mede a geração do texto de
+ * /actuator/prometheus com os histogramas de todos os métodos já chamados.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallMetricsBenchmark {
+
+    @Param({"10000"})
+    int books;
+
+    @Param({"true", "false"})
+    boolean metrics;
+
+    private ConfigurableApplicationContext context;
+    private BookService service;
+    private LoanService loanService;
+    private PrometheusMeterRegistry prometheus;
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = LibraryApiContext.start("application.metrics.calls.enabled=" + metrics);
+        service = context.getBean(BookService.class);
+        loanService = context.getBean(LoanService.class);
+        prometheus = context.getBean(PrometheusMeterRegistry.class);
+        BenchmarkDataset.seedBooks(service, books);
+        firstId = service.getBookByIsbn("1").map(Book::getId).orElseThrow(IllegalStateException::new);
+        for (int i = 1; i <= books; i++) {
+            service.getBookByIsbn(String.valueOf(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Book> getBookByIsbnCached() {
+        return service.getBookByIsbn(String.valueOf(1 + ThreadLocalRandom.current().nextInt(books)));
+    }
+
+    @Benchmark
+    public Object getAvailability() {
+        return loanService.getAvailability(firstId + ThreadLocalRandom.current().nextInt(books));
+    }
+
+    @Benchmark
+    public String scrape() {
+        return prometheus.scrape();
+    }
+}
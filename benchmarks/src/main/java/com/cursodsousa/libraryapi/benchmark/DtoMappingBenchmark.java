@@ -0,0 +1,88 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.BookMapperImpl;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapperImpl;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tempo para converter uma página de entidades em DTOs, como fazem os controllers:
+ * ModelMapper (reflexão a cada chamada) contra os mappers gerados pelo MapStruct.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DtoMappingBenchmark {
+
+    @Param({"20", "100", "1000"})
+    int pageSize;
+
+    private final ModelMapper modelMapper = new ModelMapper();
+    private final BookMapper bookMapper = new BookMapperImpl();
+    private final LoanMapper loanMapper = new LoanMapperImpl(bookMapper);
+
+    private List<Book> books;
+    private List<Loan> loans;
+
+    @Setup
+    public void createPage() {
+        books = new ArrayList<>(pageSize);
+        loans = new ArrayList<>(pageSize);
+        for (long i = 1; i <= pageSize; i++) {
+            Book book = Book.builder().id(i).isbn(String.valueOf(i)).title("Title " + i).author("Author " + i).build();
+            books.add(book);
+            loans.add(Loan.builder().id(i).book(book).customer("Customer " + i).customerEmail(i + "@email.com")
+                    .loanDate(LocalDate.now()).returned(false).build());
+        }
+    }
+
+    @Benchmark
+    public List<BookDTO> booksWithModelMapper() {
+        return books.stream().map(book -> modelMapper.map(book, BookDTO.class)).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<BookDTO> booksWithMapStruct() {
+        return books.stream().map(bookMapper::toDTO).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<LoanDTO> loansWithModelMapper() {
+        return loans.stream().map(loan -> {
+            BookDTO bookDTO = modelMapper.map(loan.getBook(), BookDTO.class);
+            LoanDTO loanDTO = modelMapper.map(loan, LoanDTO.class);
+            loanDTO.setBook(bookDTO);
+            return loanDTO;
+        }).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<LoanDTO> loansWithMapStruct() {
+        return loans.stream().map(loanMapper::toDTO).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,81 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.service.index.DueDateIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Custo do índice de vencimentos com {@code loans} empréstimos abertos (1 e 10 milhões), espalhados pelos
+ * últimos dias do prazo: empréstimo seguido de devolução, a verificação periódica sem nada vencido e a
+ * virada do dia, quando vence a fatia de um dia.
+ *
+ * A memória usada é escrita no início de cada rodada; para 10 milhões são ~448 MiB de heap, então rode com
+ * {@code -jvmArgs -Xmx2g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DueDateIndexBenchmark {
+
+    static final int PERIOD_DAYS = 4;
+    static final LocalDate TODAY = LocalDate.of(2020, 3, 10);
+
+    @Param({"1000000", "10000000"})
+    int loans;
+
+    private DueDateIndex index;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void load() {
+        index = new DueDateIndex(PERIOD_DAYS);
+        index.rebuild(() -> LongStream.rangeClosed(1, loans)
+                .mapToObj(id -> new Object[]{ id, TODAY.minusDays(id % PERIOD_DAYS) }));
+        nextId = loans + 1;
+        System.out.printf("%n%d open loans: %d bytes (estimate %d)%n",
+                index.size(), index.memoryFootprintBytes(), DueDateIndex.estimateFootprintBytes(loans));
+    }
+
+    @Benchmark
+    public boolean checkoutAndReturn() {
+        long id = nextId++;
+        index.put(id, TODAY);
+        return index.remove(id);
+    }
+
+    // a verificação de cada minuto: nada venceu desde a anterior
+    @Benchmark
+    public long[] tickNothingDue() {
+        return index.pollDue(TODAY);
+    }
+
+    // a virada do dia: vence um quarto dos empréstimos, que voltam ao índice para a próxima invocação
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public long[] dayRollover() {
+        long[] due = index.pollDue(TODAY.plusDays(1));
+        for (long id : due) {
+            index.put(id, TODAY.minusDays(PERIOD_DAYS - 1));
+        }
+        return due;
+    }
+}
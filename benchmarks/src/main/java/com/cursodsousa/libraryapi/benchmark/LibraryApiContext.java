@@ -0,0 +1,49 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.LibraryApiApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sobe a aplicação em uma porta aleatória, sobre um H2 em memória exclusivo para cada benchmark,
+ * sem o relay da outbox (ele enviaria e-mails durante a medição).
+ *
+ * As propriedades ficam na frente do application.properties; a mesma chave em {@code properties}
+ * substitui o padrão daqui.
+ */
+public final class LibraryApiContext {
+
+    private LibraryApiContext() {
+    }
+
+    public static ConfigurableApplicationContext start(String... properties) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        put(values,
+                "spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "server.port=0",
+                "spring.boot.admin.client.enabled=false",
+                "application.outbox.relay.enabled=false",
+                "logging.file.name=",
+                "logging.level.root=WARN");
+        put(values, properties);
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("benchmark", values));
+        return new SpringApplicationBuilder(LibraryApiApplication.class)
+                .logStartupInfo(false)
+                .environment(environment)
+                .run();
+    }
+
+    private static void put(Map<String, Object> values, String... properties) {
+        for (String property : properties) {
+            int separator = property.indexOf('=');
+            values.put(property.substring(0, separator), property.substring(separator + 1));
+        }
+    }
+}
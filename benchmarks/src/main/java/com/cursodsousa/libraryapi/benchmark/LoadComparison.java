@@ -0,0 +1,143 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carga HTTP contra uma instância já no ar da aplicação MVC (porta 8080) ou da reativa (módulo reactive,
+ * porta 8082): a mesma consulta paginada de empréstimos por cliente com {@code concurrency} requisições em
+ * voo, medindo vazão, p50/p99 e o maior número de threads vivas no servidor durante a rodada
+ * (jvm.threads.live do actuator, lido a cada 100 ms).
+ *
+ * Não é JMH: o que interessa é o servidor, e o cliente não bloqueante mantém milhares de requisições
+ * abertas com poucas threads. Suba um servidor por vez na mesma máquina para não dividir a CPU:
+ * veja o README.
+ */
+public final class LoadComparison {
+
+    static final int BOOKS = 200;
+    static final int CUSTOMERS = 50;
+    static final int REQUESTS = 20_000;
+
+    private final String baseUrl;
+    private final HttpClient client;
+    private final HttpClient metrics;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String run = UUID.randomUUID().toString().substring(0, 8);
+
+    LoadComparison(String baseUrl, int maxConnections) {
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.create(ConnectionProvider.fixed("load", maxConnections, Duration.ofMinutes(5).toMillis()))
+                .baseUrl(baseUrl)
+                .headers(headers -> headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON));
+        this.metrics = HttpClient.create().baseUrl(baseUrl);
+    }
+
+    public static void main(String[] args) {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int[] levels = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{ 50, 500, 2000 };
+        LoadComparison load = new LoadComparison(baseUrl, Arrays.stream(levels).max().getAsInt());
+
+        load.seed();
+        load.run(Math.min(levels[0], 50), REQUESTS / 4);
+        System.out.printf("%-24s %12s %10s %10s %10s %10s %12s%n",
+                "server", "concurrency", "req/s", "p50 ms", "p99 ms", "max ms", "threads max");
+        for (int concurrency : levels) {
+            long threadsBefore = load.metric("jvm.threads.live").block();
+            AtomicLong threads = new AtomicLong(threadsBefore);
+            Disposable sampler = Flux.interval(Duration.ofMillis(100))
+                    .onBackpressureDrop()
+                    .concatMap(tick -> load.metric("jvm.threads.live"))
+                    .subscribe(live -> threads.accumulateAndGet(live, Math::max));
+            long[] result = load.run(concurrency, REQUESTS);
+            sampler.dispose();
+            System.out.printf("%-24s %12d %10d %10.1f %10.1f %10.1f %12d%n", baseUrl, concurrency,
+                    result[0], result[1] / 1e6, result[2] / 1e6, result[3] / 1e6, threads.get());
+        }
+        System.exit(0);
+    }
+
+    //livros e empréstimos próprios desta rodada, com um cliente por vários empréstimos
+    private void seed() {
+        Flux.range(0, BOOKS)
+                .flatMap(i -> post("/api/books", "{\"title\":\"Title " + i + "\",\"author\":\"Author " + i
+                        + "\",\"isbn\":\"" + isbn(i) + "\"}"), 16)
+                .blockLast();
+        Flux.range(0, BOOKS)
+                .flatMap(i -> post("/api/loans", "{\"isbn\":\"" + isbn(i) + "\",\"customer\":\"" + customer(i)
+                        + "\",\"email\":\"customer@email.com\"}"), 16)
+                .blockLast();
+    }
+
+    //vazão, p50, p99 e maior latência em nanos
+    private long[] run(int concurrency, int requests) {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        Flux.range(0, requests)
+                .flatMap(i -> {
+                    long sent = System.nanoTime();
+                    return client.get()
+                            .uri("/api/loans?customer=" + customer(i).replace(" ", "%20") + "&page=0&size=20")
+                            .responseSingle((response, body) -> body.asString()
+                                    .defaultIfEmpty("")
+                                    .doOnNext(ignored -> {
+                                        if (response.status().code() != 200) {
+                                            throw new IllegalStateException(baseUrl + " answered " + response.status());
+                                        }
+                                    }))
+                            .doOnNext(ignored -> latencies[next.getAndIncrement()] = System.nanoTime() - sent);
+                }, concurrency)
+                .blockLast();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new long[]{ requests * 1_000_000_000L / elapsed, latencies[requests / 2],
+                latencies[(int) (requests * 0.99)], latencies[requests - 1] };
+    }
+
+    //conexão à parte: o pool da carga fica todo ocupado durante a rodada
+    private Mono<Long> metric(String name) {
+        return metrics.get().uri("/actuator/metrics/" + name).responseContent().aggregate().asString()
+                .map(json -> {
+                    try {
+                        return objectMapper.readTree(json).path("measurements").path(0).path("value").asLong();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private Mono<String> post(String uri, String json) {
+        return client.post().uri(uri).send(ByteBufFlux.fromString(Mono.just(json)))
+                .responseSingle((response, body) -> body.asString().defaultIfEmpty(""));
+    }
+
+    private String isbn(int book) {
+        return run + "-" + book;
+    }
+
+    private String customer(int loan) {
+        return "Customer " + run + " " + loan % CUSTOMERS;
+    }
+}
@@ -0,0 +1,137 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latência de uma página de LoanService.findDTOs sobre {@code loans} empréstimos (10 milhões por padrão),
+ * filtrando por isbn, por cliente e pelos dois, contra a consulta antiga com "isbn = ? or customer = ?"
+ * ({@link #isbnOrCustomerSingleQuery()}), que percorre todos os empréstimos.
+ *
+ * O histórico é gerado por {@link BenchmarkDataset#seedLoanHistory}: cada livro tem loans / books empréstimos
+ * e cada cliente loans / customers. O H2 fica em arquivo em target/, para os 10 milhões não dependerem do heap;
+ * a carga leva alguns minutos. Para uma rodada rápida: {@code -p books=10000 -p loans=200000 -p customers=20000}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoanFilterBenchmark {
+
+    @Param({"100000"})
+    int books;
+
+    @Param({"10000000"})
+    int loans;
+
+    @Param({"1000000"})
+    int customers;
+
+    @Param({"20"})
+    int pageSize;
+
+    private ConfigurableApplicationContext context;
+    private LoanService service;
+    private EntityManagerFactory entityManagerFactory;
+    private Pageable page;
+    private File database;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() {
+        database = new File("target/bench-loans-" + UUID.randomUUID());
+        context = LibraryApiContext.start("spring.datasource.url=jdbc:h2:file:" + database.getAbsolutePath());
+        service = context.getBean(LoanService.class);
+        entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        BenchmarkDataset.seedBooks(context.getBean(BookService.class), books);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        BenchmarkDataset.seedLoanHistory(jdbcTemplate, loans, customers);
+        jdbcTemplate.execute("analyze");
+        page = PageRequest.of(0, pageSize, Sort.by(Sort.Direction.DESC, "loanDate"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+        new File(database.getAbsolutePath() + ".mv.db").delete();
+        new File(database.getAbsolutePath() + ".trace.db").delete();
+    }
+
+    @Benchmark
+    public Page<LoanDTO> isbn() {
+        return service.findDTOs(new LoanFilterDTO(nextIsbn(), null), page);
+    }
+
+    @Benchmark
+    public Page<LoanDTO> customer() {
+        return service.findDTOs(new LoanFilterDTO(null, nextCustomer()), page);
+    }
+
+    @Benchmark
+    public Page<LoanDTO> isbnOrCustomer() {
+        return service.findDTOs(new LoanFilterDTO(nextIsbn(), nextCustomer()), page);
+    }
+
+    // a consulta substituída: página + count com "or" entre book.isbn e loan.customer
+    @Benchmark
+    public List<LoanDTO> isbnOrCustomerSingleQuery() {
+        String where = " from Loan as l join l.book as b where b.isbn = :isbn or l.customer = :customer ";
+        String isbn = nextIsbn();
+        String customer = nextCustomer();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            List<LoanDTO> content = entityManager.createQuery(" select new com.cursodsousa.libraryapi.api.dto.LoanDTO("
+                    + " l.id, l.customer, l.customerEmail, b.id, b.title, b.author, b.isbn) " + where
+                    + " order by l.loanDate desc ", LoanDTO.class)
+                    .setParameter("isbn", isbn)
+                    .setParameter("customer", customer)
+                    .setMaxResults(pageSize)
+                    .getResultList();
+            entityManager.createQuery(" select count(l) " + where, Long.class)
+                    .setParameter("isbn", isbn)
+                    .setParameter("customer", customer)
+                    .getSingleResult();
+            return content;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private String nextIsbn() {
+        return String.valueOf(1 + (next++ * 31L) % books);
+    }
+
+    private String nextCustomer() {
+        return "Customer " + (next++ * 7919L) % customers;
+    }
+}
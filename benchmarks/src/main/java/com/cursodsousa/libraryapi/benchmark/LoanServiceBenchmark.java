@@ -0,0 +1,101 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latência de LoanService.save (com a verificação existsByBookAndNotReturned) e de markOverdueLoans, que lê os
+ * atrasados por cursor e grava os avisos em pedaços, com {@code loans} empréstimos abertos, dos quais
+ * {@code lateRatio} atrasados. Com {@code -prof gc} dá para ver que a alocação por chamada não cresce com o número
+ * de atrasados.
+ *
+ * O save empresta livros que não estão no conjunto inicial de empréstimos, um por chamada; quando acabam,
+ * todos voltam a ficar disponíveis (uma atualização em lote, rara o bastante para não pesar na média).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoanServiceBenchmark {
+
+    @Param({"20000"})
+    int books;
+
+    @Param({"10000"})
+    int loans;
+
+    @Param({"0.1"})
+    double lateRatio;
+
+    private ConfigurableApplicationContext context;
+    private LoanService service;
+    private JdbcTemplate jdbcTemplate;
+    private List<Long> availableBookIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() {
+        if (loans >= books) {
+            throw new IllegalArgumentException("books must be greater than loans, so some books are available");
+        }
+        context = LibraryApiContext.start();
+        service = context.getBean(LoanService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        BenchmarkDataset.seedBooks(context.getBean(BookService.class), books);
+        BenchmarkDataset.seedLoans(jdbcTemplate, loans, lateRatio);
+        availableBookIds = jdbcTemplate.queryForList(
+                "select b.id from book b where not exists (select 1 from loan l where l.id_book = b.id)", Long.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Loan save() {
+        if (next == availableBookIds.size()) {
+            // os livros do conjunto inicial têm os menores ids
+            jdbcTemplate.update("update loan set returned = true, active_book_id = null where id_book >= ?", availableBookIds.get(0));
+            jdbcTemplate.update("update book set active_loan_id = null where id >= ?", availableBookIds.get(0));
+            next = 0;
+        }
+        Book book = Book.builder().id(availableBookIds.get(next++)).build();
+        return service.save(Loan.builder().book(book).customer("Customer").customerEmail("customer@email.com")
+                .loanDate(LocalDate.now()).build());
+    }
+
+    //cada chamada começa sem avisos de atraso, senão só a primeira teria o que gravar
+    @Setup(Level.Invocation)
+    public void clearOverdueNotices() {
+        jdbcTemplate.update("delete from outbox_event where type = 'OVERDUE'");
+    }
+
+    @Benchmark
+    public int markOverdueLoans() {
+        return service.markOverdueLoans();
+    }
+}
@@ -0,0 +1,104 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.service.mail.MailDispatcher;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tempo para o MailDispatcher entregar {@code messages} e-mails (100 mil por padrão) a um servidor SMTP em memória
+ * (GreenMail), variando o número de workers e o tamanho do lote enviado por conexão. Com {@code workers=1} e
+ * {@code batchSize=1} é o envio antigo: uma mensagem por vez, uma conexão por mensagem. Sem limite de taxa.
+ *
+ * Cada rodada de 100 mil leva minutos; para comparar só os lotes: {@code -p batchSize=50 -wi 0 -i 1}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@Timeout(time = 2, timeUnit = TimeUnit.HOURS)
+public class MailDispatchBenchmark {
+
+    private static final ServerSetup SMTP = new ServerSetup(3025, "127.0.0.1", ServerSetup.PROTOCOL_SMTP);
+    private static final int RECIPIENTS = 1000;
+
+    @Param({"100000"})
+    int messages;
+
+    @Param({"1", "4"})
+    int workers;
+
+    @Param({"1", "50"})
+    int batchSize;
+
+    private GreenMail smtp;
+    private JavaMailSenderImpl sender;
+    private MailDispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void startServer() {
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        smtp = new GreenMail(SMTP);
+        smtp.start();
+        sender = new JavaMailSenderImpl();
+        sender.setHost(SMTP.getBindAddress());
+        sender.setPort(SMTP.getPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        smtp.stop();
+    }
+
+    @Setup(Level.Iteration)
+    public void startDispatcher() {
+        dispatcher = new MailDispatcher(sender, 10_000, workers, batchSize, 3, 100, 60_000, 0);
+        dispatcher.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopDispatcher() throws Exception {
+        dispatcher.stop();
+        if (dispatcher.getSent() != messages) {
+            throw new IllegalStateException("Sent " + dispatcher.getSent() + " of " + messages + " mails");
+        }
+        smtp.purgeEmailFromAllMailboxes();
+    }
+
+    @Benchmark
+    public long dispatch() throws Exception {
+        for (int i = 0; i < messages; i++) {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setFrom("mail@library-api.com");
+            message.setSubject("Livro com empréstimo atrasado");
+            message.setText("Favor devolver o livro o mais rápido possível.");
+            message.setTo("customer" + i % RECIPIENTS + "@email.com");
+            dispatcher.submit(message);
+        }
+        if (!dispatcher.awaitIdle(30, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Mails still pending");
+        }
+        return dispatcher.getSent();
+    }
+}
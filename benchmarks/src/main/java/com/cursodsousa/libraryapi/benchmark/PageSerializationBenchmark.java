@@ -0,0 +1,70 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tempo para serializar em json as páginas devolvidas pelos controllers, com o mesmo ObjectMapper
+ * (Jackson2ObjectMapperBuilder) que o Spring MVC configura.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageSerializationBenchmark {
+
+    @Param({"20", "100", "1000"})
+    int pageSize;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private Page<BookDTO> books;
+    private Page<LoanDTO> loans;
+
+    @Setup
+    public void createPages() {
+        List<BookDTO> bookList = new ArrayList<>(pageSize);
+        List<LoanDTO> loanList = new ArrayList<>(pageSize);
+        for (long i = 1; i <= pageSize; i++) {
+            BookDTO book = BookDTO.builder().id(i).isbn(String.valueOf(i)).title("Title " + i).author("Author " + i).build();
+            bookList.add(book);
+            loanList.add(LoanDTO.builder().id(i).customer("Customer " + i).email(i + "@email.com").book(book).build());
+        }
+        PageRequest pageRequest = PageRequest.of(0, pageSize);
+        books = new PageImpl<>(bookList, pageRequest, 100_000);
+        loans = new PageImpl<>(loanList, pageRequest, 100_000);
+    }
+
+    @Benchmark
+    public byte[] bookPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(books);
+    }
+
+    @Benchmark
+    public byte[] loanPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(loans);
+    }
+}
@@ -0,0 +1,13 @@
+package com.cursodsousa.libraryapi.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class LibraryApiReactiveApplication {
+
+	public static void main(String[] args) {
+		SpringApplication.run(LibraryApiReactiveApplication.class, args);
+	}
+
+}
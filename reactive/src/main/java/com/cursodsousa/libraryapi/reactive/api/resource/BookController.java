@@ -0,0 +1,95 @@
+package com.cursodsousa.libraryapi.reactive.api.resource;
+
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.reactive.model.entity.Book;
+import com.cursodsousa.libraryapi.reactive.service.BookService;
+import com.cursodsousa.libraryapi.reactive.service.LoanService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/books")
+@RequiredArgsConstructor
+@Slf4j
+public class BookController {
+
+    private final BookService service;
+    private final LoanService loanService;
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<BookDTO> create( @RequestBody @Valid BookDTO dto ){
+        log.info(" creating a book for isbn: {} ", dto.getIsbn());
+        return service.save(toEntity(dto)).map(BookController::toDTO);
+    }
+
+    @GetMapping("{id}")
+    public Mono<BookDTO> get( @PathVariable Long id ){
+        log.info(" obtaining details for book id: {} ", id);
+        return service.getById(id)
+                .map(BookController::toDTO)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
+    }
+
+    @DeleteMapping("{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> delete( @PathVariable Long id ){
+        log.info(" deleting book of id: {} ", id);
+        return service.getById(id)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .flatMap(service::delete);
+    }
+
+    @PutMapping("{id}")
+    public Mono<BookDTO> update( @PathVariable Long id, @RequestBody @Valid BookDTO dto ){
+        log.info(" updating book of id: {} ", id);
+        return service.getById(id)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .flatMap(book -> {
+                    book.setAuthor(dto.getAuthor());
+                    book.setTitle(dto.getTitle());
+                    return service.update(book);
+                })
+                .map(BookController::toDTO);
+    }
+
+    @GetMapping
+    public Mono<Page<BookDTO>> find( BookDTO dto, Pageable pageRequest ){
+        return service.find(toEntity(dto), pageRequest)
+                .map(page -> new PageImpl<>(page.getContent().stream().map(BookController::toDTO).collect(Collectors.toList()),
+                        pageRequest, page.getTotalElements()));
+    }
+
+    @GetMapping("{id}/loans")
+    public Mono<Page<LoanDTO>> loansByBook( @PathVariable Long id, Pageable pageable ){
+        return service.getById(id)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .flatMap(book -> loanService.getLoanDTOsByBook(book.getId(), pageable));
+    }
+
+    @GetMapping("{id}/availability")
+    public Mono<BookAvailabilityDTO> availability( @PathVariable Long id ){
+        return loanService.getAvailability(id)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
+    }
+
+    private static Book toEntity(BookDTO dto) {
+        return Book.builder().id(dto.getId()).title(dto.getTitle()).author(dto.getAuthor()).isbn(dto.getIsbn()).build();
+    }
+
+    private static BookDTO toDTO(Book book) {
+        return new BookDTO(book.getId(), book.getTitle(), book.getAuthor(), book.getIsbn());
+    }
+}
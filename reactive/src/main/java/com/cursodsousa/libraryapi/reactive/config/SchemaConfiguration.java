@@ -0,0 +1,44 @@
+package com.cursodsousa.libraryapi.reactive.config;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.r2dbc.connectionfactory.init.ConnectionFactoryInitializer;
+import org.springframework.data.r2dbc.connectionfactory.init.ResourceDatabasePopulator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cria o esquema no banco em memória com as migrações da aplicação principal (o Flyway só fala JDBC).
+ * Contra um banco já migrado pela aplicação principal, desligue com {@code application.reactive.init-schema=false}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.reactive.init-schema", matchIfMissing = true)
+public class SchemaConfiguration {
+
+    static final String MIGRATIONS = "classpath*:db/migration/V*__*.sql";
+
+    @Bean
+    public ConnectionFactoryInitializer schemaInitializer(ConnectionFactory connectionFactory) throws IOException {
+        Resource[] migrations = new PathMatchingResourcePatternResolver().getResources(MIGRATIONS);
+        Arrays.sort(migrations, Comparator.comparingInt(SchemaConfiguration::version));
+
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(migrations);
+        populator.setSqlScriptEncoding("UTF-8");
+        ConnectionFactoryInitializer initializer = new ConnectionFactoryInitializer();
+        initializer.setConnectionFactory(connectionFactory);
+        initializer.setDatabasePopulator(populator);
+        return initializer;
+    }
+
+    //V10 depois de V9
+    static int version(Resource migration) {
+        String name = migration.getFilename();
+        return Integer.parseInt(name.substring(1, name.indexOf("__")));
+    }
+}
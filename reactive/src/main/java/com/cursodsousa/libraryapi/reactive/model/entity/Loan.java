@@ -0,0 +1,37 @@
+package com.cursodsousa.libraryapi.reactive.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDate;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Table("loan")
+public class Loan {
+
+    @Id
+    private Long id;
+
+    private String customer;
+
+    private String customerEmail;
+
+    @Column("id_book")
+    private Long bookId;
+
+    private LocalDate loanDate;
+
+    private Boolean returned;
+
+    //id do livro enquanto o empréstimo está aberto, como na aplicação principal: o índice único
+    //de active_book_id garante no banco um empréstimo aberto por livro
+    private Long activeBookId;
+}
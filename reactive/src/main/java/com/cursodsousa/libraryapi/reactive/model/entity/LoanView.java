@@ -0,0 +1,29 @@
+package com.cursodsousa.libraryapi.reactive.model.entity;
+
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * Linha de empréstimo com o livro, lida em um único select; o R2DBC não monta o BookDTO aninhado do LoanDTO.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoanView {
+
+    @Id
+    private Long id;
+    private String customer;
+    private String customerEmail;
+    private Long bookId;
+    private String title;
+    private String author;
+    private String isbn;
+
+    public LoanDTO toDTO() {
+        return new LoanDTO(id, customer, customerEmail, bookId, title, author, isbn);
+    }
+}
@@ -0,0 +1,44 @@
+package com.cursodsousa.libraryapi.reactive.model.repository;
+
+import com.cursodsousa.libraryapi.reactive.model.entity.Book;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface BookRepository extends ReactiveCrudRepository<Book, Long> {
+
+    String FILTER = " where ( :title is null or lower(title) like :title ) " +
+            " and ( :author is null or lower(author) like :author ) " +
+            " and ( :isbn is null or isbn = :isbn ) ";
+
+    //o id vem da mesma sequence da aplicação principal, e o insert, com o id já preenchido, é feito pelo DatabaseClient
+    @Query(" select next value for book_sequence ")
+    Mono<Long> nextId();
+
+    Mono<Book> findByIsbn( String isbn );
+
+    //title e author são padrões de like em minúsculas ("%texto%"), isbn é exato
+    @Query(" select * from book " + FILTER + " order by id limit :limit offset :offset ")
+    Flux<Book> findPage( @Param("title") String title, @Param("author") String author, @Param("isbn") String isbn,
+                         @Param("limit") int limit, @Param("offset") long offset );
+
+    @Query(" select count(*) from book " + FILTER)
+    Mono<Long> count( @Param("title") String title, @Param("author") String author, @Param("isbn") String isbn );
+
+    //sem tocar em active_loan_id, que só os updates condicionais abaixo mantêm; a versão avança como no
+    //lock otimista da aplicação principal
+    @Modifying
+    @Query(" update book set title = :title, author = :author, version = version + 1 where id = :id ")
+    Mono<Integer> update( @Param("id") Long id, @Param("title") String title, @Param("author") String author );
+
+    @Modifying
+    @Query(" update book set active_loan_id = :loanId where id = :bookId and active_loan_id is null ")
+    Mono<Integer> claimForLoan( @Param("bookId") Long bookId, @Param("loanId") Long loanId );
+
+    @Modifying
+    @Query(" update book set active_loan_id = null where id = :bookId and active_loan_id = :loanId ")
+    Mono<Integer> releaseLoan( @Param("bookId") Long bookId, @Param("loanId") Long loanId );
+}
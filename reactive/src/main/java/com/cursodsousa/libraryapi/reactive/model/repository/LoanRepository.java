@@ -0,0 +1,29 @@
+package com.cursodsousa.libraryapi.reactive.model.repository;
+
+import com.cursodsousa.libraryapi.reactive.model.entity.Loan;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+public interface LoanRepository extends ReactiveCrudRepository<Loan, Long> {
+
+    @Query(" select next value for loan_sequence ")
+    Mono<Long> nextId();
+
+    //active_book_id acompanha returned, como no @PreUpdate do Loan da aplicação principal, e a versão avança
+    //como no lock otimista de lá
+    @Modifying
+    @Query(" update loan set returned = :returned, version = version + 1, " +
+            " active_book_id = case when :returned then null else id_book end where id = :id ")
+    Mono<Integer> updateReturned( @Param("id") Long id, @Param("returned") boolean returned );
+
+    //aviso do empréstimo na outbox, na mesma transação; quem entrega é o OutboxRelay da aplicação principal
+    @Modifying
+    @Query(" insert into outbox_event (loan_id, type, status, attempts, created_at) " +
+            " values (:loanId, :type, 'PENDING', 0, :now) ")
+    Mono<Integer> insertEvent( @Param("loanId") Long loanId, @Param("type") String type, @Param("now") LocalDateTime now );
+}
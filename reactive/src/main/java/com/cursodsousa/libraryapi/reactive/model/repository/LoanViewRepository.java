@@ -0,0 +1,47 @@
+package com.cursodsousa.libraryapi.reactive.model.repository;
+
+import com.cursodsousa.libraryapi.reactive.model.entity.LoanView;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Empréstimos por isbn ou por cliente, cada filtro pelo seu índice; os dois juntos viram uma união das duas
+ * buscas indexadas, como no LoanRepositoryImpl da aplicação principal.
+ *
+ * Repositório próprio porque o R2DBC só converte o resultado para o tipo do repositório, não para um DTO.
+ */
+public interface LoanViewRepository extends Repository<LoanView, Long> {
+
+    String VIEW = " select l.id, l.customer, l.customer_email, b.id as book_id, b.title, b.author, b.isbn " +
+            " from loan l join book b on b.id = l.id_book ";
+
+    @Query(VIEW + " where b.isbn = :isbn order by l.id limit :limit offset :offset ")
+    Flux<LoanView> findViewsByIsbn( @Param("isbn") String isbn, @Param("limit") int limit, @Param("offset") long offset );
+
+    @Query(" select count(*) from loan l join book b on b.id = l.id_book where b.isbn = :isbn ")
+    Mono<Long> countByIsbn( @Param("isbn") String isbn );
+
+    @Query(VIEW + " where l.customer = :customer order by l.id limit :limit offset :offset ")
+    Flux<LoanView> findViewsByCustomer( @Param("customer") String customer, @Param("limit") int limit, @Param("offset") long offset );
+
+    @Query(" select count(*) from loan where customer = :customer ")
+    Mono<Long> countByCustomer( @Param("customer") String customer );
+
+    @Query(" select * from ( " + VIEW + " where b.isbn = :isbn union " + VIEW + " where l.customer = :customer ) " +
+            " order by id limit :limit offset :offset ")
+    Flux<LoanView> findViewsByIsbnOrCustomer( @Param("isbn") String isbn, @Param("customer") String customer,
+                                              @Param("limit") int limit, @Param("offset") long offset );
+
+    @Query(" select count(*) from ( select l.id from loan l join book b on b.id = l.id_book where b.isbn = :isbn " +
+            " union select l.id from loan l where l.customer = :customer ) ")
+    Mono<Long> countByIsbnOrCustomer( @Param("isbn") String isbn, @Param("customer") String customer );
+
+    @Query(VIEW + " where l.id_book = :bookId order by l.id limit :limit offset :offset ")
+    Flux<LoanView> findViewsByBook( @Param("bookId") Long bookId, @Param("limit") int limit, @Param("offset") long offset );
+
+    @Query(" select count(*) from loan where id_book = :bookId ")
+    Mono<Long> countByBook( @Param("bookId") Long bookId );
+}
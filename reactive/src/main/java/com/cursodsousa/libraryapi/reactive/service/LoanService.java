@@ -0,0 +1,24 @@
+package com.cursodsousa.libraryapi.reactive.service;
+
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.reactive.model.entity.Loan;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Mono;
+
+public interface LoanService {
+
+    Mono<Loan> save(Loan loan);
+
+    Mono<Loan> getById(Long id);
+
+    Mono<Loan> update(Loan loan);
+
+    Mono<Page<LoanDTO>> findDTOs(LoanFilterDTO filter, Pageable pageable);
+
+    Mono<Page<LoanDTO>> getLoanDTOsByBook(Long bookId, Pageable pageable);
+
+    Mono<BookAvailabilityDTO> getAvailability(Long bookId);
+}
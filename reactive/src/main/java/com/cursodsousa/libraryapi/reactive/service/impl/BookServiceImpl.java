@@ -0,0 +1,80 @@
+package com.cursodsousa.libraryapi.reactive.service.impl;
+
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.reactive.model.entity.Book;
+import com.cursodsousa.libraryapi.reactive.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.reactive.service.BookService;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.Locale;
+
+@Service
+public class BookServiceImpl implements BookService {
+
+    private BookRepository repository;
+    private DatabaseClient database;
+
+    public BookServiceImpl(BookRepository repository, DatabaseClient database) {
+        this.repository = repository;
+        this.database = database;
+    }
+
+    //o índice único de isbn decide entre dois cadastros simultâneos
+    @Override
+    public Mono<Book> save(Book book) {
+        return repository.findByIsbn(book.getIsbn()).hasElement()
+                .flatMap(exists -> exists
+                        ? Mono.<Book>error(new BusinessException("Isbn já cadastrado."))
+                        : repository.nextId().flatMap(id -> {
+                            book.setId(id);
+                            return database.insert().into(Book.class).using(book).then().thenReturn(book);
+                        }))
+                .onErrorMap(DataIntegrityViolationException.class, e -> new BusinessException("Isbn já cadastrado."));
+    }
+
+    @Override
+    public Mono<Book> getById(Long id) {
+        return repository.findById(id);
+    }
+
+    @Override
+    public Mono<Void> delete(Book book) {
+        if (book == null || book.getId() == null) {
+            return Mono.error(new IllegalArgumentException("Book id cant be null"));
+        }
+        return repository.deleteById(book.getId());
+    }
+
+    @Override
+    public Mono<Book> update(Book book) {
+        if (book == null || book.getId() == null) {
+            return Mono.error(new IllegalArgumentException("Book id cant be null"));
+        }
+        return repository.update(book.getId(), book.getTitle(), book.getAuthor()).thenReturn(book);
+    }
+
+    //mesmo critério do ExampleMatcher da aplicação principal: contém, sem diferenciar maiúsculas
+    @Override
+    public Mono<Page<Book>> find(Book filter, Pageable pageRequest) {
+        String title = containing(filter.getTitle());
+        String author = containing(filter.getAuthor());
+        String isbn = filter.getIsbn();
+        return Pages.of(pageRequest,
+                (limit, offset) -> repository.findPage(title, author, isbn, limit, offset),
+                repository.count(title, author, isbn));
+    }
+
+    @Override
+    public Mono<Book> getBookByIsbn(String isbn) {
+        return repository.findByIsbn(isbn);
+    }
+
+    private static String containing(String value) {
+        return value == null ? null : "%" + value.toLowerCase(Locale.ROOT) + "%";
+    }
+}
@@ -0,0 +1,133 @@
+package com.cursodsousa.libraryapi.reactive.service.impl;
+
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.reactive.model.entity.Loan;
+import com.cursodsousa.libraryapi.reactive.model.entity.LoanView;
+import com.cursodsousa.libraryapi.reactive.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.reactive.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.reactive.model.repository.LoanViewRepository;
+import com.cursodsousa.libraryapi.reactive.service.LoanService;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+@Service
+public class LoanServiceImpl implements LoanService {
+
+    static final String CREATED = "CREATED";
+    static final String RETURNED = "RETURNED";
+
+    private LoanRepository repository;
+    private LoanViewRepository views;
+    private BookRepository bookRepository;
+    private DatabaseClient database;
+    private TransactionalOperator transactions;
+
+    public LoanServiceImpl(LoanRepository repository, LoanViewRepository views, BookRepository bookRepository,
+                           DatabaseClient database, TransactionalOperator transactions) {
+        this.repository = repository;
+        this.views = views;
+        this.bookRepository = bookRepository;
+        this.database = database;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Mesmo fluxo da aplicação principal em uma transação: o livro não pode ter empréstimo aberto, o empréstimo
+     * entra com active_book_id, o livro é marcado pelo update condicional e o aviso vai para a outbox. Sem o lock
+     * em memória da aplicação principal, quem decide entre pedidos simultâneos é o banco.
+     */
+    @Override
+    public Mono<Loan> save(Loan loan) {
+        Long bookId = loan.getBookId();
+        return bookRepository.findById(bookId)
+                .filter(book -> book.getActiveLoanId() == null)
+                .switchIfEmpty(Mono.error(() -> new BusinessException("Book already loaned")))
+                .flatMap(book -> repository.nextId())
+                .flatMap(id -> {
+                    loan.setId(id);
+                    loan.setActiveBookId(bookId);
+                    return database.insert().into(Loan.class).using(loan).then().thenReturn(loan);
+                })
+                .flatMap(saved -> bookRepository.claimForLoan(bookId, saved.getId())
+                        .flatMap(claimed -> claimed == 0
+                                ? Mono.<Loan>error(new BusinessException("Book already loaned"))
+                                : repository.insertEvent(saved.getId(), CREATED, LocalDateTime.now()).thenReturn(saved)))
+                .as(transactions::transactional)
+                .onErrorMap(DataIntegrityViolationException.class, e -> new BusinessException("Book already loaned"));
+    }
+
+    @Override
+    public Mono<Loan> getById(Long id) {
+        return repository.findById(id);
+    }
+
+    //devolução libera o livro e grava o aviso; reabrir só funciona se o livro continuar livre
+    @Override
+    public Mono<Loan> update(Loan loan) {
+        Long bookId = loan.getBookId();
+        boolean returned = Boolean.TRUE.equals(loan.getReturned());
+        Mono<Void> book = returned
+                ? bookRepository.releaseLoan(bookId, loan.getId())
+                        .flatMap(released -> released > 0
+                                ? repository.insertEvent(loan.getId(), RETURNED, LocalDateTime.now()).then()
+                                : Mono.<Void>empty())
+                : bookRepository.claimForLoan(bookId, loan.getId())
+                        .flatMap(claimed -> claimed == 0
+                                ? Mono.<Void>error(new BusinessException("Book already loaned"))
+                                : Mono.<Void>empty());
+        return book
+                .then(repository.updateReturned(loan.getId(), returned))
+                .then(Mono.fromCallable(() -> {
+                    loan.setActiveBookId(returned ? null : bookId);
+                    return loan;
+                }))
+                .as(transactions::transactional);
+    }
+
+    @Override
+    public Mono<Page<LoanDTO>> findDTOs(LoanFilterDTO filter, Pageable pageable) {
+        String isbn = filter.getIsbn();
+        String customer = filter.getCustomer();
+        if (isbn == null && customer == null) {
+            return Mono.just(new PageImpl<>(Collections.emptyList(), pageable, 0));
+        }
+        if (customer == null) {
+            return Pages.of(pageable,
+                    (limit, offset) -> views.findViewsByIsbn(isbn, limit, offset).map(LoanView::toDTO),
+                    views.countByIsbn(isbn));
+        }
+        if (isbn == null) {
+            return Pages.of(pageable,
+                    (limit, offset) -> views.findViewsByCustomer(customer, limit, offset).map(LoanView::toDTO),
+                    views.countByCustomer(customer));
+        }
+        return Pages.of(pageable,
+                (limit, offset) -> views.findViewsByIsbnOrCustomer(isbn, customer, limit, offset).map(LoanView::toDTO),
+                views.countByIsbnOrCustomer(isbn, customer));
+    }
+
+    @Override
+    public Mono<Page<LoanDTO>> getLoanDTOsByBook(Long bookId, Pageable pageable) {
+        return Pages.of(pageable,
+                (limit, offset) -> views.findViewsByBook(bookId, limit, offset).map(LoanView::toDTO),
+                views.countByBook(bookId));
+    }
+
+    @Override
+    public Mono<BookAvailabilityDTO> getAvailability(Long bookId) {
+        return bookRepository.findById(bookId)
+                .map(book -> new BookAvailabilityDTO(book.getId(), book.getActiveLoanId()));
+    }
+}
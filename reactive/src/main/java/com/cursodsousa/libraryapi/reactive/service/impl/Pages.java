@@ -0,0 +1,23 @@
+package com.cursodsousa.libraryapi.reactive.service.impl;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.BiFunction;
+
+//página e count em paralelo, cada um na sua conexão
+final class Pages {
+
+    private Pages() {
+    }
+
+    static <T> Mono<Page<T>> of(Pageable pageable, BiFunction<Integer, Long, Flux<T>> content, Mono<Long> count) {
+        int limit = pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE;
+        long offset = pageable.isPaged() ? pageable.getOffset() : 0;
+        return Mono.zip(content.apply(limit, offset).collectList(), count)
+                .map(page -> new PageImpl<>(page.getT1(), pageable, page.getT2()));
+    }
+}
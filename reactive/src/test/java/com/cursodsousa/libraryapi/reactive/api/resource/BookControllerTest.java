@@ -0,0 +1,124 @@
+package com.cursodsousa.libraryapi.reactive.api.resource;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.UUID;
+
+/**
+ * Mesmo contrato de /api/books da aplicação MVC, contra o H2 em memória via R2DBC.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient
+public class BookControllerTest {
+
+    static final String BOOK_API = "/api/books";
+
+    @Autowired
+    WebTestClient client;
+
+    @Test
+    @DisplayName("Deve criar um livro com sucesso")
+    public void createBookTest() {
+        //cenário
+        BookDTO dto = BookDTO.builder().author("Artur").title("As aventuras").isbn(UUID.randomUUID().toString()).build();
+
+        //execução e verificação
+        client.post().uri(BOOK_API).bodyValue(dto)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("id").isNotEmpty()
+                .jsonPath("title").isEqualTo(dto.getTitle())
+                .jsonPath("author").isEqualTo(dto.getAuthor())
+                .jsonPath("isbn").isEqualTo(dto.getIsbn());
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de validação quando não houver dados suficiente para criação do livro")
+    public void createInvalidBookTest() {
+        client.post().uri(BOOK_API).bodyValue(new BookDTO())
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("errors.length()").isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro ao tentar cadastrar um livro com isbn já utilizado por outro")
+    public void createBookWithDuplicatedIsbnTest() {
+        //cenário
+        BookDTO dto = create("Aventuras", "Fulano");
+
+        //execução e verificação
+        client.post().uri(BOOK_API).bodyValue(dto)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("errors[0]").isEqualTo("Isbn já cadastrado.");
+    }
+
+    @Test
+    @DisplayName("Deve obter, atualizar e deletar um livro")
+    public void getUpdateDeleteBookTest() {
+        //cenário
+        BookDTO book = create("Aventuras", "Fulano");
+
+        //execução e verificação
+        client.get().uri(BOOK_API + "/" + book.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("isbn").isEqualTo(book.getIsbn());
+
+        client.put().uri(BOOK_API + "/" + book.getId())
+                .bodyValue(BookDTO.builder().title("Outro título").author("Outro autor").isbn("ignorado").build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("title").isEqualTo("Outro título")
+                .jsonPath("isbn").isEqualTo(book.getIsbn());
+
+        client.delete().uri(BOOK_API + "/" + book.getId()).exchange().expectStatus().isNoContent();
+        client.get().uri(BOOK_API + "/" + book.getId()).exchange().expectStatus().isNotFound();
+        client.delete().uri(BOOK_API + "/" + book.getId()).exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    @DisplayName("Deve filtrar livros paginados")
+    public void findBooksTest() {
+        //cenário
+        String author = "Autor " + UUID.randomUUID();
+        create("Primeiro volume", author);
+        create("Segundo volume", author);
+        create("Terceiro volume", author);
+
+        //execução e verificação
+        client.get().uri(BOOK_API + "?title=VOLUME&author={author}&page=0&size=2", author.toLowerCase())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("content.length()").isEqualTo(2)
+                .jsonPath("content[0].title").isEqualTo("Primeiro volume")
+                .jsonPath("totalElements").isEqualTo(3)
+                .jsonPath("pageable.pageSize").isEqualTo(2)
+                .jsonPath("pageable.pageNumber").isEqualTo(0);
+    }
+
+    private BookDTO create(String title, String author) {
+        BookDTO dto = BookDTO.builder().title(title).author(author).isbn(UUID.randomUUID().toString()).build();
+        return client.post().uri(BOOK_API).bodyValue(dto)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(BookDTO.class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
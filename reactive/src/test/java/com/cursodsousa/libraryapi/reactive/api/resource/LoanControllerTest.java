@@ -0,0 +1,202 @@
+package com.cursodsousa.libraryapi.reactive.api.resource;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.ReturnedLoanDTO;
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.reactive.model.entity.Loan;
+import com.cursodsousa.libraryapi.reactive.service.LoanService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Mesmo contrato de /api/loans da aplicação MVC, contra o H2 em memória via R2DBC.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient
+public class LoanControllerTest {
+
+    static final String LOAN_API = "/api/loans";
+
+    @Autowired
+    WebTestClient client;
+
+    @Autowired
+    DatabaseClient database;
+
+    @Autowired
+    LoanService loanService;
+
+    @Test
+    @DisplayName("Deve realizar um emprestimo e gravar o aviso na outbox")
+    public void createLoanTest() {
+        //cenário
+        BookDTO book = createBook();
+
+        //execução
+        Long id = loan(book.getIsbn(), "Fulano")
+                .expectStatus().isCreated()
+                .expectBody(Long.class).returnResult().getResponseBody();
+
+        //verificação
+        client.get().uri("/api/books/" + book.getId() + "/availability")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("available").isEqualTo(false)
+                .jsonPath("activeLoanId").isEqualTo(id.intValue());
+        assertThat(outboxTypes(id)).containsExactly("CREATED");
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro ao tentar fazer emprestimo de um livro inexistente")
+    public void invalidIsbnCreateLoanTest() {
+        loan("isbn-inexistente", "Fulano")
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("errors[0]").isEqualTo("Book not found for passed isbn");
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro ao tentar fazer emprestimo de um livro emprestado")
+    public void loanedBookErrorOnCreateLoanTest() {
+        //cenário
+        BookDTO book = createBook();
+        loan(book.getIsbn(), "Fulano").expectStatus().isCreated();
+
+        //execução e verificação
+        loan(book.getIsbn(), "Ciclano")
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("errors[0]").isEqualTo("Book already loaned");
+    }
+
+    @Test
+    @DisplayName("Deve emprestar o livro uma única vez com vários pedidos simultâneos")
+    public void concurrentLoansTest() {
+        //cenário
+        BookDTO book = createBook();
+
+        //execução: sem lock em memória, quem decide é o banco
+        List<Boolean> created = Flux.range(0, 20)
+                .flatMap(i -> loanService.save(Loan.builder().bookId(book.getId()).customer("Cliente " + i)
+                        .loanDate(LocalDate.now()).build())
+                        .map(loan -> true)
+                        .onErrorReturn(BusinessException.class, false))
+                .collectList()
+                .block();
+
+        //verificação
+        assertThat(created).hasSize(20).containsOnlyOnce(true);
+        Long loans = database.execute("select count(*) from loan where id_book = :book")
+                .bind("book", book.getId())
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .block();
+        assertThat(loans).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve devolver um livro e liberá-lo para outro empréstimo")
+    public void returnBookTest() {
+        //cenário
+        BookDTO book = createBook();
+        Long id = loan(book.getIsbn(), "Fulano").expectBody(Long.class).returnResult().getResponseBody();
+
+        //execução
+        client.patch().uri(LOAN_API + "/" + id).bodyValue(ReturnedLoanDTO.builder().returned(true).build())
+                .exchange()
+                .expectStatus().isOk();
+
+        //verificação
+        client.get().uri("/api/books/" + book.getId() + "/availability")
+                .exchange()
+                .expectBody().jsonPath("available").isEqualTo(true);
+        assertThat(outboxTypes(id)).containsExactly("CREATED", "RETURNED");
+        loan(book.getIsbn(), "Ciclano").expectStatus().isCreated();
+    }
+
+    @Test
+    @DisplayName("Deve retornar 404 quando tentar devolver um livro inexistente")
+    public void returnInexistentBookTest() {
+        client.patch().uri(LOAN_API + "/" + Long.MAX_VALUE).bodyValue(ReturnedLoanDTO.builder().returned(true).build())
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos por isbn, por cliente e pelos dois")
+    public void findLoansTest() {
+        //cenário
+        String customer = "Cliente " + UUID.randomUUID();
+        BookDTO first = createBook();
+        BookDTO second = createBook();
+        BookDTO third = createBook();
+        loan(first.getIsbn(), customer).expectStatus().isCreated();
+        loan(second.getIsbn(), customer).expectStatus().isCreated();
+        loan(third.getIsbn(), "Outro cliente").expectStatus().isCreated();
+
+        //execução e verificação
+        client.get().uri(LOAN_API + "?customer={customer}&page=0&size=10", customer)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("content.length()").isEqualTo(2)
+                .jsonPath("content[0].book.isbn").isEqualTo(first.getIsbn())
+                .jsonPath("totalElements").isEqualTo(2);
+
+        client.get().uri(LOAN_API + "?isbn={isbn}&customer={customer}&page=0&size=10", third.getIsbn(), customer)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("content.length()").isEqualTo(3)
+                .jsonPath("totalElements").isEqualTo(3);
+
+        client.get().uri("/api/books/" + third.getId() + "/loans?page=0&size=10")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("content[0].customer").isEqualTo("Outro cliente")
+                .jsonPath("totalElements").isEqualTo(1);
+    }
+
+    private WebTestClient.ResponseSpec loan(String isbn, String customer) {
+        return client.post().uri(LOAN_API)
+                .bodyValue(LoanDTO.builder().isbn(isbn).customer(customer).email("customer@email.com").build())
+                .exchange();
+    }
+
+    private BookDTO createBook() {
+        BookDTO dto = BookDTO.builder().title("Aventuras").author("Fulano").isbn(UUID.randomUUID().toString()).build();
+        return client.post().uri("/api/books").bodyValue(dto)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(BookDTO.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    private List<String> outboxTypes(Long loanId) {
+        return database.execute("select type from outbox_event where loan_id = :loan order by id")
+                .bind("loan", loanId)
+                .map(row -> row.get(0, String.class))
+                .all()
+                .collectList()
+                .block();
+    }
+}
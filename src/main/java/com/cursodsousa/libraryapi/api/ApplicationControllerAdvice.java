@@ -2,6 +2,7 @@ package com.cursodsousa.libraryapi.api;
 
 import com.cursodsousa.libraryapi.api.exception.ApiErrors;
 import com.cursodsousa.libraryapi.exception.BusinessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -27,6 +28,12 @@ public class ApplicationControllerAdvice {
         return new ApiErrors(ex);
     }
 
+    //alteração simultânea sem If-Match; com If-Match os controllers respondem 412
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity handleOptimisticLockingFailure( OptimisticLockingFailureException ex){
+        return handleResponseStatusException(new ResponseStatusException(HttpStatus.CONFLICT, "Resource was modified concurrently"));
+    }
+
     @ExceptionHandler(ResponseStatusException.class)
     public ResponseEntity handleResponseStatusException( ResponseStatusException ex){
         return new ResponseEntity(new ApiErrors(ex), ex.getStatus());
@@ -0,0 +1,22 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookAvailabilityDTO {
+
+    private Long bookId;
+    private boolean available;
+    private Long activeLoanId;
+
+    //usado pela projeção de BookRepository.findAvailabilityById
+    public BookAvailabilityDTO(Long bookId, Long activeLoanId) {
+        this(bookId, activeLoanId == null, activeLoanId);
+    }
+}
@@ -0,0 +1,21 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanCheckoutResultDTO {
+
+    public enum Status { CREATED, BOOK_NOT_FOUND, ALREADY_LOANED, DUPLICATED }
+
+    private int index;
+    private String isbn;
+    private Long id;
+    private Status status;
+    private String message;
+}
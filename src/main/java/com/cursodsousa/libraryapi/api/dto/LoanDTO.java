@@ -21,4 +21,10 @@ public class LoanDTO {
     @NotEmpty
     private String email;
     private BookDTO book;
+
+    //usado pelas consultas de projeção do LoanRepository, que leem empréstimo e livro em um único select
+    public LoanDTO(Long id, String customer, String email,
+                   Long bookId, String bookTitle, String bookAuthor, String bookIsbn) {
+        this(id, null, customer, email, new BookDTO(bookId, bookTitle, bookAuthor, bookIsbn));
+    }
 }
@@ -0,0 +1,23 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+//aviso pego pelo relay com o destinatário do empréstimo, lido por OutboxEventRepository.findClaimed
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanNotificationDTO {
+
+    private Long id;
+    private OutboxEvent.Type type;
+    private LocalDateTime createdAt;
+    private String customer;
+    private String email;
+}
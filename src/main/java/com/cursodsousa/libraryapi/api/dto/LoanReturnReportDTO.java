@@ -0,0 +1,19 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanReturnReportDTO {
+
+    private int returned;
+    private int rejected;
+    private List<LoanReturnResultDTO> items;
+}
@@ -0,0 +1,20 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanReturnResultDTO {
+
+    public enum Status { RETURNED, NOT_FOUND, ALREADY_RETURNED }
+
+    private int index;
+    private Long id;
+    private Status status;
+    private String message;
+}
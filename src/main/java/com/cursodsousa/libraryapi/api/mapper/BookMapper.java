@@ -0,0 +1,20 @@
+package com.cursodsousa.libraryapi.api.mapper;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+/**
+ * Conversão entre {@link Book} e {@link BookDTO}, gerada em tempo de compilação pelo MapStruct.
+ */
+@Mapper(componentModel = "spring")
+public interface BookMapper {
+
+    BookDTO toDTO(Book book);
+
+    @Mapping(target = "loans", ignore = true)
+    @Mapping(target = "activeLoanId", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    Book toEntity(BookDTO dto);
+}
@@ -0,0 +1,19 @@
+package com.cursodsousa.libraryapi.api.mapper;
+
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.mapstruct.InjectionStrategy;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+/**
+ * Converte o empréstimo em {@link LoanDTO} com o livro aninhado.
+ * O isbn fica nulo na resposta, como sempre foi: o livro já vem em book.
+ */
+@Mapper(componentModel = "spring", uses = BookMapper.class, injectionStrategy = InjectionStrategy.CONSTRUCTOR)
+public interface LoanMapper {
+
+    @Mapping(target = "isbn", ignore = true)
+    @Mapping(target = "email", source = "customerEmail")
+    LoanDTO toDTO(Loan loan);
+}
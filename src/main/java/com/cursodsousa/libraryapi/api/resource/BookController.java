@@ -1,25 +1,58 @@
 package com.cursodsousa.libraryapi.api.resource;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
 import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.BookImportReportDTO;
+import com.cursodsousa.libraryapi.api.dto.BookImportResultDTO;
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
+import com.cursodsousa.libraryapi.service.BookCount;
 import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.CountMode;
 import com.cursodsousa.libraryapi.service.LoanService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @RestController
@@ -30,27 +63,67 @@ import java.util.stream.Collectors;
 public class BookController {
 
     private final BookService service;
-    private final ModelMapper modelMapper;
+    private final BookMapper bookMapper;
+    private final LoanMapper loanMapper;
     private final LoanService loanService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final MediaType TEXT_CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    static final String TOTAL_COUNT_EXACT_HEADER = "X-Total-Count-Exact";
+
+    private static final Map<String, Class<?>> BOOK_SORT_PROPERTIES = new HashMap<>();
+    static {
+        BOOK_SORT_PROPERTIES.put("id", Long.class);
+        BOOK_SORT_PROPERTIES.put("title", String.class);
+        BOOK_SORT_PROPERTIES.put("author", String.class);
+        BOOK_SORT_PROPERTIES.put("isbn", String.class);
+    }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     @ApiOperation("Create a book")
     public BookDTO create( @RequestBody @Valid BookDTO dto ){
         log.info(" creating a book for isbn: {} ", dto.getIsbn());
-        Book entity = modelMapper.map( dto, Book.class );
+        Book entity = bookMapper.toEntity(dto);
         entity = service.save(entity);
-        return modelMapper.map(entity, BookDTO.class);
+        return bookMapper.toDTO(entity);
     }
 
+    @PostMapping(value = "batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation("Create books in batch from a json array")
+    public BookImportReportDTO createBatch( @RequestBody List<BookDTO> dtos ){
+        log.info(" importing {} books ", dtos.size());
+        return importBooks(dtos);
+    }
+
+    @PostMapping(value = "batch", consumes = APPLICATION_NDJSON_VALUE)
+    @ApiOperation("Create books in batch from newline delimited json")
+    public BookImportReportDTO createBatchFromNdjson( InputStream body ) throws IOException {
+        List<BookDTO> dtos = objectMapper.readerFor(BookDTO.class).<BookDTO>readValues(body).readAll();
+        log.info(" importing {} books ", dtos.size());
+        return importBooks(dtos);
+    }
+
+    //com If-None-Match compara só a versão, lida pela chave primária: o 304 não carrega nem serializa o livro.
+    //ETag e corpo saem sempre do mesmo livro; se o do cache está atrás da versão lida, ele é recarregado do banco
     @GetMapping("{id}")
-    @ApiOperation("Get a book details by id")
-    public BookDTO get( @PathVariable Long id ){
+    @ApiOperation("Get a book details by id; answers 304 when If-None-Match has the current ETag")
+    public ResponseEntity<BookDTO> get( @PathVariable Long id, WebRequest request ){
         log.info(" obtaining details for book id: {} ", id);
-        return service
-                .getById(id)
-                .map( book -> modelMapper.map(book, BookDTO.class)  )
-                .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+        Long version = null;
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            version = service.getVersion(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+            if (request.checkNotModified(ETags.of(version))) {
+                return null;
+            }
+        }
+        Book book = service.getById(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+        if (version != null && !version.equals(book.getVersion())) {
+            book = service.reload(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+        }
+        return ResponseEntity.ok().eTag(ETags.of(book.getVersion())).body(bookMapper.toDTO(book));
     }
 
     @DeleteMapping("{id}")
@@ -62,47 +135,228 @@ public class BookController {
         service.delete(book);
     }
 
+    //com If-Match a versão é conferida no banco antes de carregar o livro; a do cache pode estar atrás dela,
+    //então o livro segue para o update com a versão conferida e o lock otimista pega quem alterou no meio
     @PutMapping("{id}")
-    @ApiOperation("Updates a book")
-    public BookDTO update( @PathVariable Long id, @RequestBody @Valid BookDTO dto){
+    @ApiOperation("Updates a book; with If-Match only if the book still has that ETag")
+    public ResponseEntity<BookDTO> update( @PathVariable Long id, @RequestBody @Valid BookDTO dto,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch ){
         log.info(" updating book of id: {} ", id);
-        return service.getById(id).map( book -> {
-
-            book.setAuthor(dto.getAuthor());
-            book.setTitle(dto.getTitle());
+        Long expectedVersion = null;
+        if (ifMatch != null) {
+            expectedVersion = service.getVersion(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+            if (!ETags.matches(ifMatch, ETags.of(expectedVersion))) {
+                throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Book was modified");
+            }
+        }
+        //getById devolve a instância guardada no cache; as alterações vão numa cópia
+        Book book = service.getById(id)
+                .map( cached -> cached.toBuilder().build() )
+                .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+        book.setAuthor(dto.getAuthor());
+        book.setTitle(dto.getTitle());
+        if (expectedVersion != null) {
+            book.setVersion(expectedVersion);
+        }
+        try {
             book = service.update(book);
-            return modelMapper.map(book, BookDTO.class);
-
-        }).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+        } catch (OptimisticLockingFailureException e) {
+            if (ifMatch == null) {
+                throw e;
+            }
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Book was modified");
+        }
+        return ResponseEntity.ok().eTag(ETags.of(book.getVersion())).body(bookMapper.toDTO(book));
     }
 
+    //count=exact (padrão) faz o count junto com a página; none devolve só hasNext, sem count;
+    //cached usa um total recente do mesmo filtro; estimate conta exato até um limite e estima acima dele.
+    //O ETag vem das versões da página, então o 304 economiza a serialização e a resposta, não a consulta
     @GetMapping
-    @ApiOperation("Lists books by params")
-    public Page<BookDTO> find( BookDTO dto, Pageable pageRequest ){
-        Book filter = modelMapper.map(dto, Book.class);
-        Page<Book> result = service.find(filter, pageRequest);
-        List<BookDTO> list = result.getContent()
-                .stream()
-                .map(entity -> modelMapper.map(entity, BookDTO.class))
-                .collect(Collectors.toList());
+    @ApiOperation("Lists books by params; count=exact|none|cached|estimate chooses how the total is obtained")
+    public ResponseEntity<Slice<BookDTO>> find( BookDTO dto, Pageable pageRequest,
+                                                @RequestParam(defaultValue = "exact") String count ){
+        Book filter = bookMapper.toEntity(dto);
+        if ("exact".equalsIgnoreCase(count)) {
+            Page<Book> result = service.find(filter, pageRequest);
+            return ResponseEntity.ok()
+                    .eTag(pageETag(result, result.getTotalElements()))
+                    .body(new PageImpl<BookDTO>( toDTOs(result), pageRequest, result.getTotalElements() ));
+        }
+
+        CountMode mode = null;
+        if (!"none".equalsIgnoreCase(count)) {
+            try {
+                mode = CountMode.valueOf(count.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported count mode: " + count);
+            }
+        }
+        Slice<Book> result = service.findSlice(filter, pageRequest);
+        if (mode == null) {
+            return ResponseEntity.ok()
+                    .eTag(pageETag(result, result.hasNext()))
+                    .body(new SliceImpl<BookDTO>( toDTOs(result), pageRequest, result.hasNext() ));
+        }
+        BookCount total = service.count(filter, mode);
+        return ResponseEntity.ok()
+                .header(TOTAL_COUNT_EXACT_HEADER, String.valueOf(total.isExact()))
+                .eTag(pageETag(result, total.getTotal() + (total.isExact() ? "" : "~")))
+                .body(new PageImpl<BookDTO>( toDTOs(result), pageRequest, total.getTotal() ));
+    }
+
+    @GetMapping(params = "cursor")
+    @ApiOperation("Lists books by params using a continuation cursor instead of page numbers")
+    public CursorPageDTO<BookDTO> findByCursor( BookDTO dto, @RequestParam String cursor,
+                                                @RequestParam(defaultValue = "20") int size, Sort sort ){
+        Keyset keyset = KeysetCursors.read(cursor, sort, BOOK_SORT_PROPERTIES);
+        Slice<Book> result = service.findAfter(bookMapper.toEntity(dto), keyset, KeysetCursors.size(size));
+        List<BookDTO> list = toDTOs(result);
 
-        return new PageImpl<BookDTO>( list, pageRequest, result.getTotalElements() );
+        return new CursorPageDTO<>(list, list.size(), KeysetCursors.next(result, keyset));
     }
 
+    @GetMapping("export")
+    @ApiOperation("Exports every book matching the params as ndjson or csv")
+    public ResponseEntity<StreamingResponseBody> export( BookDTO dto, @RequestParam(defaultValue = "ndjson") String format ){
+        Book filter = bookMapper.toEntity(dto);
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if (!csv && !"ndjson".equalsIgnoreCase(format)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported export format: " + format);
+        }
+        log.info(" exporting books as {} ", format);
+
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            if (csv) {
+                writer.write("id,title,author,isbn\n");
+            }
+            service.export(filter, book -> {
+                try {
+                    writer.write(csv ? toCsvLine(book) : objectMapper.writeValueAsString(bookMapper.toDTO(book)));
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(csv ? TEXT_CSV : MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=books." + (csv ? "csv" : "ndjson"))
+                .body(body);
+    }
+
+    //a versão da lista é lida antes da página: se algo mudar entre as duas leituras o ETag fica para trás,
+    //o que só custa um 200 a mais no próximo GET, nunca um 304 indevido
     @GetMapping("{id}/loans")
-    public Page<LoanDTO> loansByBook( @PathVariable Long id, Pageable pageable ){
+    @ApiOperation("Lists the loans of a book; answers 304 when If-None-Match has the current ETag")
+    public ResponseEntity<Page<LoanDTO>> loansByBook( @PathVariable Long id, Pageable pageable, WebRequest request ){
+        String eTag = loanService.getLoansVersionByBook(id)
+                .map(ETags::of)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
         Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-        Page<Loan> result = loanService.getLoansByBook(book, pageable);
+        return ResponseEntity.ok().eTag(eTag).body(loanService.getLoanDTOsByBook(book, pageable));
+    }
+
+    @GetMapping("{id}/availability")
+    @ApiOperation("Tells whether the book has an open loan, without reading the loan history")
+    public BookAvailabilityDTO availability( @PathVariable Long id ){
+        return loanService.getAvailability(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    }
+
+    @GetMapping(value = "{id}/loans", params = "cursor")
+    public CursorPageDTO<LoanDTO> loansByBookByCursor( @PathVariable Long id, @RequestParam String cursor,
+                                                       @RequestParam(defaultValue = "20") int size, Sort sort ){
+        Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        Keyset keyset = KeysetCursors.read(cursor, sort, LoanController.SORT_PROPERTIES);
+        Slice<Loan> result = loanService.getLoansByBookAfter(book, keyset, KeysetCursors.size(size));
         List<LoanDTO> list = result.getContent()
                 .stream()
-                .map(loan -> {
-                    Book loanBook = loan.getBook();
-                    BookDTO bookDTO = modelMapper.map(loanBook, BookDTO.class);
-                    LoanDTO loanDTO = modelMapper.map(loan, LoanDTO.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
-                }).collect(Collectors.toList());
-        return new PageImpl<LoanDTO>(list, pageable, result.getTotalElements());
+                .map(loanMapper::toDTO)
+                .collect(Collectors.toList());
+        return new CursorPageDTO<>(list, list.size(), KeysetCursors.next(result, keyset));
+    }
+
+    //cada livro da página pela sua versão, mais o que a página informa do total
+    private static String pageETag(Slice<Book> books, Object total) {
+        StringBuilder versions = new StringBuilder();
+        books.forEach(book -> versions.append(book.getId()).append(':').append(book.getVersion()).append(','));
+        return ETags.digest(versions.append(total));
+    }
+
+    private List<BookDTO> toDTOs(Slice<Book> books) {
+        return books.getContent()
+                .stream()
+                .map(bookMapper::toDTO)
+                .collect(Collectors.toList());
     }
 
+    private BookImportReportDTO importBooks(List<BookDTO> dtos) {
+        List<BookImportResultDTO> items = new ArrayList<>(Collections.nCopies(dtos.size(), null));
+        List<Book> books = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+
+        for (int i = 0; i < dtos.size(); i++) {
+            BookDTO dto = dtos.get(i);
+            String errors = validate(dto);
+            if (errors != null) {
+                items.set(i, BookImportResultDTO.builder()
+                        .index(i)
+                        .isbn(dto == null ? null : dto.getIsbn())
+                        .status(BookImportResultDTO.Status.INVALID)
+                        .message(errors)
+                        .build());
+            } else {
+                books.add(bookMapper.toEntity(dto));
+                positions.add(i);
+            }
+        }
+
+        List<BookImportResultDTO> saved = service.saveAll(books);
+        for (int i = 0; i < saved.size(); i++) {
+            BookImportResultDTO result = saved.get(i);
+            result.setIndex(positions.get(i));
+            items.set(positions.get(i), result);
+        }
+
+        int created = (int) items.stream().filter(item -> item.getStatus() == BookImportResultDTO.Status.CREATED).count();
+        return BookImportReportDTO.builder()
+                .created(created)
+                .rejected(items.size() - created)
+                .items(items)
+                .build();
+    }
+
+    private String validate(BookDTO dto) {
+        if (dto == null) {
+            return "Empty book";
+        }
+        Set<ConstraintViolation<BookDTO>> violations = validator.validate(dto);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    private static String toCsvLine(Book book) {
+        return book.getId() + "," + csvField(book.getTitle()) + "," + csvField(book.getAuthor()) + "," + csvField(book.getIsbn());
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
 }
@@ -0,0 +1,40 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ETags fortes a partir da coluna version: o de uma entidade é a própria versão entre aspas, o de uma lista é o
+ * md5 das versões que a compõem. If-None-Match fica com o {@code WebRequest.checkNotModified} do Spring;
+ * aqui só a comparação forte do If-Match.
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    //linha sem versão conta como 0, o default da coluna
+    static String of(Long version) {
+        return of(String.valueOf(version == null ? 0 : version));
+    }
+
+    static String of(String version) {
+        return '"' + version + '"';
+    }
+
+    static String digest(CharSequence versions) {
+        return of(DigestUtils.md5DigestAsHex(versions.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    //comparação forte: ETags fracas (W/) nunca casam e * casa com qualquer versão existente
+    static boolean matches(String ifMatch, String etag) {
+        for (String candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
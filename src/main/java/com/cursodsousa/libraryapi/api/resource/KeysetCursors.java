@@ -0,0 +1,75 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import com.cursodsousa.libraryapi.model.repository.Keyset;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Converte o parâmetro cursor em {@link Keyset} e gera o cursor da próxima página.
+ * Para o cliente o cursor é opaco; internamente é o base64url de "propriedade,direção,id,valor", sem o ",valor"
+ * quando o valor do último registro é nulo (o que o distingue do texto vazio).
+ * Cursor vazio inicia a listagem pela ordenação recebida em sort (id crescente por padrão).
+ */
+final class KeysetCursors {
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private KeysetCursors() {
+    }
+
+    static Keyset read(String cursor, Sort sort, Map<String, Class<?>> sortable) {
+        if (cursor == null || cursor.isEmpty()) {
+            Sort.Order order = sort.stream().findFirst().orElse(Sort.Order.asc("id"));
+            if (!sortable.containsKey(order.getProperty())) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported sort property: " + order.getProperty());
+            }
+            return Keyset.first(order.getProperty(), order.getDirection());
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(",", 4);
+            Class<?> type = sortable.get(parts[0]);
+            if (type == null || parts.length < 3) {
+                throw new IllegalArgumentException(cursor);
+            }
+            Comparable<?> value = parts.length == 4 ? parse(parts[3], type) : null;
+            return new Keyset(parts[0], Sort.Direction.valueOf(parts[1]), value, Long.valueOf(parts[2]));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    static String next(Slice<?> slice, Keyset keyset) {
+        if (!slice.hasNext()) {
+            return null;
+        }
+        BeanWrapper last = new BeanWrapperImpl(slice.getContent().get(slice.getNumberOfElements() - 1));
+        Object value = last.getPropertyValue(keyset.getProperty());
+        String raw = keyset.getProperty() + "," + keyset.getDirection() + "," + last.getPropertyValue("id")
+                + (value == null ? "" : "," + value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static int size(int size) {
+        return Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+    }
+
+    private static Comparable<?> parse(String raw, Class<?> type) {
+        if (type == Long.class) {
+            return Long.valueOf(raw);
+        }
+        if (type == LocalDate.class) {
+            return LocalDate.parse(raw);
+        }
+        return raw;
+    }
+}
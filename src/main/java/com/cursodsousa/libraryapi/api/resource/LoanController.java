@@ -1,24 +1,36 @@
 package com.cursodsousa.libraryapi.api.resource;
 
-import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutReportDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutResultDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanReturnReportDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanReturnResultDTO;
 import com.cursodsousa.libraryapi.api.dto.ReturnedLoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
 import com.cursodsousa.libraryapi.service.BookService;
 import com.cursodsousa.libraryapi.service.LoanService;
 import lombok.RequiredArgsConstructor;
-import org.modelmapper.ModelMapper;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @RestController
@@ -28,11 +40,17 @@ public class LoanController {
 
     private final LoanService service;
     private final BookService bookService;
-    private final ModelMapper modelMapper;
+    private final LoanMapper loanMapper;
 
+    static final Map<String, Class<?>> SORT_PROPERTIES = new HashMap<>();
+    static {
+        SORT_PROPERTIES.put("id", Long.class);
+        SORT_PROPERTIES.put("loanDate", LocalDate.class);
+    }
+
+    //o ETag do empréstimo criado serve de If-Match para a devolução
     @PostMapping
-    @ResponseStatus(HttpStatus.CREATED)
-    public Long create(@RequestBody LoanDTO dto) {
+    public ResponseEntity<Long> create(@RequestBody LoanDTO dto) {
         Book book = bookService
                 .getBookByIsbn(dto.getIsbn())
                 .orElseThrow(() -> 
@@ -44,33 +62,67 @@ public class LoanController {
                 .build();
 
         entity = service.save(entity);
-        return entity.getId();
+        return ResponseEntity.status(HttpStatus.CREATED).eTag(ETags.of(entity.getVersion())).body(entity.getId());
+    }
+
+    @PostMapping("batch")
+    public LoanCheckoutReportDTO createBatch(@RequestBody LoanCheckoutDTO dto) {
+        if (dto.getIsbns() == null || dto.getIsbns().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one isbn is required");
+        }
+        List<LoanCheckoutResultDTO> items = service.saveAll(dto.getCustomer(), dto.getEmail(), dto.getIsbns());
+        int created = (int) items.stream().filter(item -> item.getStatus() == LoanCheckoutResultDTO.Status.CREATED).count();
+        return new LoanCheckoutReportDTO(created, items.size() - created, items);
+    }
+
+    @PatchMapping("batch")
+    public LoanReturnReportDTO returnBooks(@RequestBody List<Long> ids) {
+        if (ids.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one loan id is required");
+        }
+        List<LoanReturnResultDTO> items = service.returnAll(ids);
+        int returned = (int) items.stream().filter(item -> item.getStatus() == LoanReturnResultDTO.Status.RETURNED).count();
+        return new LoanReturnReportDTO(returned, items.size() - returned, items);
     }
 
+    //com If-Match, versão divergente termina em 412 antes da transação; quem alterar o empréstimo depois da
+    //leitura é pego pelo lock otimista do update
     @PatchMapping("{id}")
-    public void returnBook(
+    public ResponseEntity<Void> returnBook(
             @PathVariable Long id,
-            @RequestBody ReturnedLoanDTO dto) {
+            @RequestBody ReturnedLoanDTO dto,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         Loan loan = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (ifMatch != null && !ETags.matches(ifMatch, ETags.of(loan.getVersion()))) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Loan was modified");
+        }
         loan.setReturned(dto.getReturned());
-        service.update(loan);
+        try {
+            loan = service.update(loan);
+        } catch (OptimisticLockingFailureException e) {
+            if (ifMatch == null) {
+                throw e;
+            }
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Loan was modified");
+        }
+        return ResponseEntity.ok().eTag(ETags.of(loan.getVersion())).build();
     }
 
     @GetMapping
     public Page<LoanDTO> find(LoanFilterDTO dto, Pageable pageRequest) {
-        Page<Loan> result = service.find(dto, pageRequest);
+        return service.findDTOs(dto, pageRequest);
+    }
+
+    @GetMapping(params = "cursor")
+    public CursorPageDTO<LoanDTO> findByCursor(LoanFilterDTO dto, @RequestParam String cursor,
+                                               @RequestParam(defaultValue = "20") int size, Sort sort) {
+        Keyset keyset = KeysetCursors.read(cursor, sort, SORT_PROPERTIES);
+        Slice<Loan> result = service.findAfter(dto, keyset, KeysetCursors.size(size));
         List<LoanDTO> loans = result
                 .getContent()
                 .stream()
-                .map(entity -> {
-
-                    Book book = entity.getBook();
-                    BookDTO bookDTO = modelMapper.map(book, BookDTO.class);
-                    LoanDTO loanDTO = modelMapper.map(entity, LoanDTO.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
-
-                }).collect(Collectors.toList());
-        return new PageImpl<LoanDTO>(loans, pageRequest, result.getTotalElements());
+                .map(loanMapper::toDTO)
+                .collect(Collectors.toList());
+        return new CursorPageDTO<>(loans, loans.size(), KeysetCursors.next(result, keyset));
     }
 }
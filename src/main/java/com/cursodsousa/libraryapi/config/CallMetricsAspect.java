@@ -0,0 +1,148 @@
+package com.cursodsousa.libraryapi.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tempo, erros e chamadas em andamento de cada método público dos services (BookServiceImpl, LoanServiceImpl,
+ * EmailServiceImpl) e dos repositórios Spring Data, com as tags class e method:
+ * {@code library.service.calls}, {@code .errors} (mais a tag exception) e {@code .active}, e o mesmo para
+ * {@code library.repository}.
+ *
+ * Os medidores de cada método são criados na primeira chamada e guardados por classe e método; depois disso a
+ * chamada custa duas leituras de mapa, dois System.nanoTime e o registro no timer. Os histogramas vêm das
+ * propriedades management.metrics.distribution.*. Fica por fora de cache e transação, então o tempo inclui o
+ * commit e um acerto no cache aparece como uma chamada rápida. Métodos que devolvem Stream ou
+ * CompletableFuture contam só até a devolução.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "application.metrics.calls.enabled", matchIfMissing = true)
+public class CallMetricsAspect {
+
+    static final String SERVICE = "library.service";
+    static final String REPOSITORY = "library.repository";
+
+    private final MeterRegistry registry;
+    private final Map<Class<?>, Map<Method, Operation>> operations = new ConcurrentHashMap<>();
+    //métodos sobrecarregados têm as mesmas tags: o gauge é um só e todos contam no mesmo contador
+    private final Map<String, AtomicInteger> activeCalls = new ConcurrentHashMap<>();
+
+    public CallMetricsAspect(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Around("execution(public * com.cursodsousa.libraryapi.service.impl.*ServiceImpl.*(..))")
+    public Object timeService(ProceedingJoinPoint call) throws Throwable {
+        return time(SERVICE, call);
+    }
+
+    //os repositórios são proxies do Spring Data: target pega também os métodos de CrudRepository e dos fragmentos
+    //*RepositoryCustom, sem medir de novo dentro das classes *RepositoryImpl
+    @Around("target(org.springframework.data.repository.Repository) && execution(public * *(..)) " +
+            "&& !execution(* java.lang.Object.*(..))")
+    public Object timeRepository(ProceedingJoinPoint call) throws Throwable {
+        return time(REPOSITORY, call);
+    }
+
+    private Object time(String layer, ProceedingJoinPoint call) throws Throwable {
+        Operation operation = operation(layer, call);
+        operation.active.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return call.proceed();
+        } catch (Throwable e) {
+            operation.error(e);
+            throw e;
+        } finally {
+            operation.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            operation.active.decrementAndGet();
+        }
+    }
+
+    //get antes do computeIfAbsent: no Java 8 ele trava o bin mesmo quando a chave já existe
+    private Operation operation(String layer, ProceedingJoinPoint call) {
+        Object target = call.getTarget();
+        Method method = ((MethodSignature) call.getSignature()).getMethod();
+        Map<Method, Operation> byMethod = operations.get(target.getClass());
+        if (byMethod == null) {
+            byMethod = operations.computeIfAbsent(target.getClass(), type -> new ConcurrentHashMap<>());
+        }
+        Operation operation = byMethod.get(method);
+        if (operation == null) {
+            operation = byMethod.computeIfAbsent(method, key -> new Operation(layer, className(target), key.getName()));
+        }
+        return operation;
+    }
+
+    //repositório: a interface declarada (BookRepository), não a classe do proxy
+    private static String className(Object target) {
+        if (Proxy.isProxyClass(target.getClass())) {
+            return AopProxyUtils.proxiedUserInterfaces(target)[0].getSimpleName();
+        }
+        return ClassUtils.getUserClass(target).getSimpleName();
+    }
+
+    private final class Operation {
+
+        final String layer;
+        final String className;
+        final String method;
+        final Timer timer;
+        final AtomicInteger active;
+        final Map<Class<?>, Counter> errors = new ConcurrentHashMap<>();
+
+        Operation(String layer, String className, String method) {
+            this.layer = layer;
+            this.className = className;
+            this.method = method;
+            timer = Timer.builder(layer + ".calls")
+                    .tag("class", className)
+                    .tag("method", method)
+                    .description("Calls by class and method, successful or not")
+                    .register(registry);
+            active = activeCalls.computeIfAbsent(layer + ":" + className + ":" + method, key -> {
+                AtomicInteger calls = new AtomicInteger();
+                Gauge.builder(layer + ".active", calls, AtomicInteger::get)
+                        .tag("class", className)
+                        .tag("method", method)
+                        .description("Calls in progress by class and method")
+                        .register(registry);
+                return calls;
+            });
+        }
+
+        void error(Throwable e) {
+            Counter counter = errors.get(e.getClass());
+            if (counter == null) {
+                counter = errors.computeIfAbsent(e.getClass(), type -> Counter.builder(layer + ".errors")
+                        .tag("class", className)
+                        .tag("method", method)
+                        .tag("exception", type.getSimpleName())
+                        .description("Calls that ended with an exception, by class, method and exception")
+                        .register(registry));
+            }
+            counter.increment();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.cursodsousa.libraryapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * /actuator/hibernate: as estatísticas do Hibernate (hibernate.generate_statistics) por consulta e do cache de
+ * segundo nível, o tempo para obter conexão do pool (timers hikaricp.connections.acquire) e os comandos lentos
+ * do {@link SlowStatementLog}. {@code ?top=N} limita as consultas às N de maior tempo total; um DELETE zera
+ * as estatísticas e o buffer de comandos lentos.
+ */
+@Component
+@Endpoint(id = "hibernate")
+public class HibernateStatisticsEndpoint {
+
+    private static final int DEFAULT_TOP = 20;
+
+    private final Statistics statistics;
+    private final MeterRegistry registry;
+    private final ObjectProvider<SlowStatementLog> slowStatements;
+
+    public HibernateStatisticsEndpoint(EntityManagerFactory entityManagerFactory, MeterRegistry registry,
+                                       ObjectProvider<SlowStatementLog> slowStatements) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        this.registry = registry;
+        this.slowStatements = slowStatements;
+    }
+
+    @ReadOperation
+    public Map<String, Object> statistics(@Nullable Integer top) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", statistics.isStatisticsEnabled());
+        result.put("sessions", sessions());
+        result.put("connectionAcquisition", connectionAcquisition());
+        result.put("secondLevelCache", secondLevelCache());
+        result.put("queries", queries(top == null ? DEFAULT_TOP : top));
+        result.put("slowStatements", slowStatements());
+        return result;
+    }
+
+    @DeleteOperation
+    public void reset() {
+        statistics.clear();
+        slowStatements.ifAvailable(SlowStatementLog::clear);
+    }
+
+    private Map<String, Object> sessions() {
+        Map<String, Object> sessions = new LinkedHashMap<>();
+        sessions.put("opened", statistics.getSessionOpenCount());
+        sessions.put("closed", statistics.getSessionCloseCount());
+        sessions.put("connections", statistics.getConnectCount());
+        sessions.put("transactions", statistics.getTransactionCount());
+        sessions.put("successfulTransactions", statistics.getSuccessfulTransactionCount());
+        sessions.put("optimisticFailures", statistics.getOptimisticFailureCount());
+        sessions.put("statementsPrepared", statistics.getPrepareStatementCount());
+        sessions.put("flushes", statistics.getFlushCount());
+        sessions.put("entitiesLoaded", statistics.getEntityLoadCount());
+        sessions.put("entitiesFetched", statistics.getEntityFetchCount());
+        sessions.put("queryPlanCacheHits", statistics.getQueryPlanCacheHitCount());
+        sessions.put("queryPlanCacheMisses", statistics.getQueryPlanCacheMissCount());
+        return sessions;
+    }
+
+    //um por pool; o Hibernate só conta as conexões, quem mede a espera é o Hikari
+    private List<Map<String, Object>> connectionAcquisition() {
+        List<Map<String, Object>> pools = new ArrayList<>();
+        for (Timer timer : registry.find("hikaricp.connections.acquire").timers()) {
+            Map<String, Object> pool = new LinkedHashMap<>();
+            pool.put("pool", timer.getId().getTag("pool"));
+            pool.put("count", timer.count());
+            pool.put("meanMillis", timer.mean(TimeUnit.MILLISECONDS));
+            pool.put("maxMillis", timer.max(TimeUnit.MILLISECONDS));
+            pools.add(pool);
+        }
+        return pools;
+    }
+
+    //o cache das entidades aqui é o do Spring (books, booksByIsbn); regiões só aparecem se o de segundo nível for ligado
+    private Map<String, Object> secondLevelCache() {
+        Map<String, Object> cache = new LinkedHashMap<>();
+        cache.put("hits", statistics.getSecondLevelCacheHitCount());
+        cache.put("misses", statistics.getSecondLevelCacheMissCount());
+        cache.put("puts", statistics.getSecondLevelCachePutCount());
+        List<Map<String, Object>> regions = new ArrayList<>();
+        for (String name : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getDomainDataRegionStatistics(name);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("region", name);
+            entry.put("hits", region.getHitCount());
+            entry.put("misses", region.getMissCount());
+            entry.put("puts", region.getPutCount());
+            regions.add(entry);
+        }
+        cache.put("regions", regions);
+        return cache;
+    }
+
+    private List<Map<String, Object>> queries(int top) {
+        return Arrays.stream(statistics.getQueries())
+                .map(query -> new QueryEntry(query, statistics.getQueryStatistics(query)))
+                .sorted(Comparator.comparingLong(QueryEntry::totalTime).reversed())
+                .limit(Math.max(top, 0))
+                .map(QueryEntry::toMap)
+                .collect(Collectors.toList());
+    }
+
+    private Map<String, Object> slowStatements() {
+        SlowStatementLog log = slowStatements.getIfAvailable();
+        Map<String, Object> slow = new LinkedHashMap<>();
+        slow.put("enabled", log != null);
+        if (log != null) {
+            slow.put("thresholdMillis", log.getThresholdMillis());
+            slow.put("capacity", log.getCapacity());
+            slow.put("recorded", log.getRecorded());
+            slow.put("statements", log.recent());
+        }
+        return slow;
+    }
+
+    private static final class QueryEntry {
+
+        final String query;
+        final QueryStatistics statistics;
+
+        QueryEntry(String query, QueryStatistics statistics) {
+            this.query = query;
+            this.statistics = statistics;
+        }
+
+        long totalTime() {
+            return statistics.getExecutionTotalTime();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("query", query);
+            entry.put("executions", statistics.getExecutionCount());
+            entry.put("rows", statistics.getExecutionRowCount());
+            entry.put("totalMillis", statistics.getExecutionTotalTime());
+            entry.put("avgMillis", statistics.getExecutionAvgTime());
+            entry.put("maxMillis", statistics.getExecutionMaxTime());
+            entry.put("minMillis", statistics.getExecutionMinTime());
+            entry.put("cacheHits", statistics.getCacheHitCount());
+            entry.put("cacheMisses", statistics.getCacheMissCount());
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.cursodsousa.libraryapi.config;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * Roda os métodos {@link com.cursodsousa.libraryapi.service.ReplicaRead} em uma transação somente leitura marcada
+ * para a réplica. Dentro de uma transação que já existe, apenas participa dela: o {@link ReplicaRouting} só manda
+ * para a réplica quando a transação é somente leitura.
+ *
+ * Fica por dentro do CallMetricsAspect e por fora do cache; com a conexão preguiçosa, um acerto no cache abre e
+ * fecha a transação sem chegar a pegar conexão.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(name = "application.datasource.replicas.enabled", havingValue = "true")
+public class ReplicaReadAspect {
+
+    private static final DefaultTransactionDefinition READ_ONLY = readOnly();
+
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+
+    public ReplicaReadAspect(ObjectProvider<PlatformTransactionManager> transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    @Around("@annotation(com.cursodsousa.libraryapi.service.ReplicaRead)")
+    public Object readFromReplica(ProceedingJoinPoint call) throws Throwable {
+        PlatformTransactionManager transactions = transactionManager.getObject();
+        boolean previous = ReplicaRouting.readFromReplica(true);
+        try {
+            TransactionStatus status = transactions.getTransaction(READ_ONLY);
+            Object result;
+            try {
+                result = call.proceed();
+            } catch (Throwable e) {
+                transactions.rollback(status);
+                throw e;
+            }
+            transactions.commit(status);
+            return result;
+        } finally {
+            ReplicaRouting.readFromReplica(previous);
+        }
+    }
+
+    private static DefaultTransactionDefinition readOnly() {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setReadOnly(true);
+        return definition;
+    }
+}
@@ -0,0 +1,334 @@
+package com.cursodsousa.libraryapi.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaVendorAdapter;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Divide o banco entre o primário e as réplicas de {@code application.datasource.replicas.urls}.
+ *
+ * O DataSource da aplicação passa a ser um {@link LazyConnectionDataSourceProxy}: a conexão física só é escolhida
+ * no primeiro comando, quando a transação já foi aberta. Vai para uma réplica, em rodízio, quando a chamada vem de
+ * um método {@link com.cursodsousa.libraryapi.service.ReplicaRead}, a transação é somente leitura e o cliente não
+ * escreveu nos últimos {@code sticky-window} ms; todo o resto vai para o primário. Conta como escrita a transação
+ * que mandou ao primário algum comando que não é select. Uma réplica que não entrega conexão sai do rodízio na
+ * hora (a leitura segue na próxima ou no primário) e só volta quando o health check periódico consegue validar
+ * uma conexão nela.
+ */
+@Component
+@ConditionalOnProperty(name = "application.datasource.replicas.enabled", havingValue = "true")
+@Slf4j
+public class ReplicaRouting {
+
+    private static final ThreadLocal<Boolean> REPLICA_READ = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static final ThreadLocal<Long> PRIMARY_UNTIL = ThreadLocal.withInitial(() -> 0L);
+    private static final ThreadLocal<Boolean> SERVED_BY_REPLICA = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    //chaves de cache escritas nos últimos sticky-window ms; lidas de uma réplica nesse intervalo, podem estar atrasadas
+    private static volatile Cache<String, Boolean> recentWrites;
+    private static final Object WRITE_TRACKED = new Object();
+
+    private final HikariDataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final long stickyWindowMillis;
+    private final int validationTimeoutSeconds;
+    private final DataSource dataSource;
+
+    public ReplicaRouting(DataSourceProperties properties,
+                          ObjectProvider<MeterRegistry> registry,
+                          @Value("${application.datasource.replicas.urls:}") String[] urls,
+                          @Value("${application.datasource.replicas.username:}") String username,
+                          @Value("${application.datasource.replicas.password:}") String password,
+                          @Value("${application.datasource.replicas.pool-size:10}") int poolSize,
+                          @Value("${application.datasource.replicas.connection-timeout:1000}") long connectionTimeoutMillis,
+                          @Value("${application.datasource.replicas.sticky-window:2000}") long stickyWindowMillis) {
+        this.stickyWindowMillis = stickyWindowMillis;
+        recentWrites = Caffeine.newBuilder()
+                .expireAfterWrite(stickyWindowMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.validationTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(connectionTimeoutMillis));
+        MeterRegistry meterRegistry = registry.getIfAvailable();
+
+        primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        track(primary, meterRegistry);
+
+        for (String url : urls) {
+            if (!StringUtils.hasText(url)) {
+                continue;
+            }
+            HikariDataSource pool = new HikariDataSource();
+            pool.setPoolName("replica-" + (replicas.size() + 1));
+            pool.setJdbcUrl(url.trim());
+            //sem usuário próprio, as réplicas usam o mesmo login do primário
+            pool.setUsername(StringUtils.hasText(username) ? username : properties.determineUsername());
+            pool.setPassword(StringUtils.hasText(username) ? password : properties.determinePassword());
+            pool.setMaximumPoolSize(poolSize);
+            pool.setConnectionTimeout(connectionTimeoutMillis);
+            pool.setReadOnly(true);
+            //réplica fora do ar na subida não derruba a aplicação: fica fora do rodízio até o health check
+            pool.setInitializationFailTimeout(-1);
+            track(pool, meterRegistry);
+            replicas.add(new Replica(pool));
+        }
+        dataSource = new LazyConnectionDataSourceProxy(new RoutingDataSource());
+        log.info(" reads from {} go to {} replica(s) ", primary.getJdbcUrl(), replicas.size());
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource() {
+        return dataSource;
+    }
+
+    //o Spring segura a conexão até fechar o EntityManager, que vive a requisição inteira com o open-in-view, e
+    //prepara (setReadOnly) a conexão de toda transação somente leitura. Sem isso, e liberando a conexão no fim de
+    //cada transação, a leitura na réplica não prende a conexão das escritas seguintes
+    @Bean
+    public JpaVendorAdapter jpaVendorAdapter(JpaProperties properties) {
+        HibernateJpaVendorAdapter adapter = new HibernateJpaVendorAdapter();
+        adapter.setShowSql(properties.isShowSql());
+        if (properties.getDatabase() != null) {
+            adapter.setDatabase(properties.getDatabase());
+        }
+        if (properties.getDatabasePlatform() != null) {
+            adapter.setDatabasePlatform(properties.getDatabasePlatform());
+        }
+        adapter.setGenerateDdl(properties.isGenerateDdl());
+        adapter.setPrepareConnection(false);
+        return adapter;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer releaseConnectionsAfterTransaction() {
+        return properties -> properties.put("hibernate.connection.handling_mode",
+                "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
+    }
+
+    @Scheduled(fixedDelayString = "${application.datasource.replicas.health-check:5000}")
+    public void checkHealth() {
+        for (Replica replica : replicas) {
+            boolean valid;
+            try (Connection connection = replica.pool.getConnection()) {
+                valid = connection.isValid(validationTimeoutSeconds);
+            } catch (SQLException e) {
+                valid = false;
+            }
+            if (valid && !replica.healthy) {
+                log.info(" replica {} is back ", replica.pool.getPoolName());
+            } else if (!valid && replica.healthy) {
+                log.warn(" replica {} failed the health check ", replica.pool.getPoolName());
+            }
+            replica.healthy = valid;
+        }
+    }
+
+    public List<String> getHealthyReplicas() {
+        return replicas.stream()
+                .filter(replica -> replica.healthy)
+                .map(replica -> replica.pool.getPoolName())
+                .collect(Collectors.toList());
+    }
+
+    @PreDestroy
+    public void close() {
+        replicas.forEach(replica -> replica.pool.close());
+        primary.close();
+    }
+
+    /**
+     * Marca a thread atual como dentro de um método {@code @ReplicaRead}; devolve o valor anterior.
+     */
+    static boolean readFromReplica(boolean replicaRead) {
+        boolean previous = REPLICA_READ.get();
+        REPLICA_READ.set(replicaRead);
+        SERVED_BY_REPLICA.set(false);
+        return previous;
+    }
+
+    /**
+     * Registra a escrita confirmada da chave {@code key} do cache {@code cacheName}. Sem réplicas, não faz nada.
+     */
+    public static void wrote(String cacheName, Object key) {
+        Cache<String, Boolean> writes = recentWrites;
+        if (writes != null && key != null) {
+            writes.put(cacheName + ":" + key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Se o método {@code @ReplicaRead} em andamento leu de uma réplica uma chave escrita há menos de
+     * {@code sticky-window} ms. Os caches de livros não guardam essas leituras: a réplica ainda pode devolver a
+     * versão que a escrita acabou de tirar do cache. As demais chaves continuam entrando no cache.
+     */
+    public static boolean mayBeStale(String cacheName, Object key) {
+        Cache<String, Boolean> writes = recentWrites;
+        return SERVED_BY_REPLICA.get() && writes != null && writes.getIfPresent(cacheName + ":" + key) != null;
+    }
+
+    /**
+     * Leituras da thread atual ficam no primário até {@code until} (epoch em ms).
+     */
+    static void pinToPrimaryUntil(long until) {
+        PRIMARY_UNTIL.set(until);
+    }
+
+    static void clear() {
+        REPLICA_READ.remove();
+        PRIMARY_UNTIL.remove();
+        SERVED_BY_REPLICA.remove();
+    }
+
+    private boolean readsFromReplica() {
+        return REPLICA_READ.get()
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && PRIMARY_UNTIL.get() <= System.currentTimeMillis();
+    }
+
+    private Replica nextHealthy() {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private static boolean inWriteTransaction() {
+        return TransactionSynchronizationManager.isSynchronizationActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    //conexão do primário em transação de escrita: só os métodos que preparam comandos passam por aqui, não os
+    //set* dos parâmetros nem os execute*
+    private Connection trackingWrites(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(ReplicaRouting.class.getClassLoader(),
+                new Class<?>[]{ Connection.class }, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if ((name.startsWith("prepare") || name.equals("createStatement")) && writes(args)) {
+                        trackWrite();
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    //createStatement não traz o comando: conta como escrita
+    private static boolean writes(Object[] args) {
+        if (args == null || args.length == 0 || !(args[0] instanceof String)) {
+            return true;
+        }
+        String sql = ((String) args[0]).trim();
+        return !sql.regionMatches(true, 0, "select", 0, 6) && !sql.regionMatches(true, 0, "with", 0, 4);
+    }
+
+    //escrita confirmada: as próximas leituras deste cliente vêm do primário enquanto a réplica alcança
+    private void trackWrite() {
+        if (!inWriteTransaction() || TransactionSynchronizationManager.hasResource(WRITE_TRACKED)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(WRITE_TRACKED, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                long until = System.currentTimeMillis() + stickyWindowMillis;
+                pinToPrimaryUntil(until);
+                ReadYourWritesFilter.remember(until);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(WRITE_TRACKED);
+            }
+        });
+    }
+
+    private static void track(HikariDataSource pool, MeterRegistry registry) {
+        if (registry != null) {
+            pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+        }
+    }
+
+    private static final class Replica {
+
+        final HikariDataSource pool;
+        volatile boolean healthy = true;
+
+        Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+    }
+
+    private final class RoutingDataSource extends AbstractDataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (!replicas.isEmpty() && readsFromReplica()) {
+                for (int attempt = 0; attempt < replicas.size(); attempt++) {
+                    Replica replica = nextHealthy();
+                    if (replica == null) {
+                        break;
+                    }
+                    try {
+                        Connection connection = replica.pool.getConnection();
+                        SERVED_BY_REPLICA.set(true);
+                        return connection;
+                    } catch (SQLException e) {
+                        replica.healthy = false;
+                        log.warn(" replica {} is down, reading elsewhere: {} ", replica.pool.getPoolName(), e.getMessage());
+                    }
+                }
+            }
+            Connection connection = primary.getConnection();
+            return inWriteTransaction() ? trackingWrites(connection) : connection;
+        }
+
+        //cada pool tem as credenciais da sua configuração
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new SQLFeatureNotSupportedException("Replica routing uses the configured credentials of each pool");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.cursodsousa.libraryapi.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Guarda os comandos SQL que passaram de {@code application.jdbc.slow-statements.threshold} ms (200 por padrão) em
+ * um buffer circular de {@code capacity} posições (200 por padrão) e registra cada um em WARN.
+ *
+ * Envolve o DataSource da aplicação: toda conexão, e todo statement criado por ela, passa por um proxy que anota
+ * o tipo de cada parâmetro (nunca o valor) e mede os execute*. Pega o que o Hibernate executa e também o JDBC
+ * direto (JdbcBatches, JdbcTemplate). A origem é o método do controller da requisição em andamento ou, fora de
+ * uma requisição, o nome da thread (jobs agendados, relay da outbox).
+ *
+ * Desligado por padrão: os proxies passam por reflexão em toda chamada JDBC e esse custo não foi medido.
+ * Liga com {@code application.jdbc.slow-statements.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "application.jdbc.slow-statements.enabled", havingValue = "true")
+@Slf4j
+public class SlowStatementLog implements BeanPostProcessor {
+
+    private final long thresholdNanos;
+    private final AtomicReferenceArray<SlowStatement> statements;
+    private final AtomicLong recorded = new AtomicLong();
+
+    //BeanPostProcessor é criado antes dos placeholders de @Value estarem garantidos: lê direto do Environment
+    public SlowStatementLog(Environment environment) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                environment.getProperty("application.jdbc.slow-statements.threshold", Long.class, 200L));
+        this.statements = new AtomicReferenceArray<>(
+                environment.getProperty("application.jdbc.slow-statements.capacity", Integer.class, 200));
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof SlowStatementDataSource)) {
+            return new SlowStatementDataSource((DataSource) bean);
+        }
+        return bean;
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    public int getCapacity() {
+        return statements.length();
+    }
+
+    //total já registrado, inclusive os que o buffer descartou
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * Comandos lentos ainda no buffer, do mais recente para o mais antigo.
+     */
+    public List<SlowStatement> recent() {
+        long last = recorded.get();
+        int capacity = statements.length();
+        List<SlowStatement> recent = new ArrayList<>(capacity);
+        for (long i = last - 1; i >= 0 && i >= last - capacity; i--) {
+            SlowStatement statement = statements.get((int) (i % capacity));
+            if (statement != null) {
+                recent.add(statement);
+            }
+        }
+        return recent;
+    }
+
+    public void clear() {
+        for (int i = 0; i < statements.length(); i++) {
+            statements.set(i, null);
+        }
+    }
+
+    void record(String sql, List<String> parameters, int batchSize, long elapsedNanos) {
+        SlowStatement statement = new SlowStatement(Instant.now(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                sql, parameters, batchSize, origin());
+        long position = recorded.getAndIncrement();
+        statements.set((int) (position % statements.length()), statement);
+        log.warn(" slow statement ({} ms, from {}): {} {} ", statement.getMillis(), statement.getOrigin(), sql, parameters);
+    }
+
+    private static String origin() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        Object handler = request == null ? null
+                : request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (handler instanceof HandlerMethod) {
+            HandlerMethod method = (HandlerMethod) handler;
+            return method.getBeanType().getSimpleName() + "." + method.getMethod().getName();
+        }
+        return "thread " + Thread.currentThread().getName();
+    }
+
+    @lombok.Value
+    public static class SlowStatement {
+        Instant at;
+        long millis;
+        String sql;
+        //tipo de cada parâmetro, na ordem dos ?; em lote, os da última linha
+        List<String> parameters;
+        int batchSize;
+        String origin;
+    }
+
+    private final class SlowStatementDataSource extends DelegatingDataSource {
+
+        SlowStatementDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return connection(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return connection(super.getConnection(username, password));
+        }
+
+        private Connection connection(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(SlowStatementLog.class.getClassLoader(),
+                    new Class<?>[]{ Connection.class }, new ConnectionHandler(connection));
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            Object result = invokeTarget(target, method, args);
+            if (result instanceof Statement && (name.startsWith("prepare") || name.equals("createStatement"))) {
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                return Proxy.newProxyInstance(SlowStatementLog.class.getClassLoader(),
+                        new Class<?>[]{ type }, new StatementHandler((Statement) result, sql));
+            }
+            return result;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+
+        private final Statement target;
+        private final String sql;
+        private String[] parameters = new String[8];
+        private int parameterCount;
+        private int batchSize;
+
+        StatementHandler(Statement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                long start = System.nanoTime();
+                try {
+                    return invokeTarget(target, method, args);
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    if (elapsed >= thresholdNanos) {
+                        String executed = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                        record(executed, Arrays.asList(Arrays.copyOf(parameters, parameterCount)),
+                                name.endsWith("Batch") ? batchSize : 0, elapsed);
+                    }
+                    if (name.endsWith("Batch")) {
+                        batchSize = 0;
+                    }
+                }
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameter((Integer) args[0], name.equals("setNull") || args[1] == null ? "null" : args[1].getClass().getSimpleName());
+            } else if (name.equals("addBatch") && (args == null || args.length == 0)) {
+                batchSize++;
+            } else if (name.equals("clearParameters")) {
+                parameterCount = 0;
+            }
+            return invokeTarget(target, method, args);
+        }
+
+        private void parameter(int index, String type) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length << 1));
+            }
+            parameters[index - 1] = type;
+            parameterCount = Math.max(parameterCount, index);
+        }
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
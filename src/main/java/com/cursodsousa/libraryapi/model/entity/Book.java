@@ -3,13 +3,15 @@ package com.cursodsousa.libraryapi.model.entity;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import javax.persistence.*;
 import java.util.List;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
@@ -18,7 +20,8 @@ public class Book {
 
     @Id
     @Column
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_sequence")
+    @SequenceGenerator(name = "book_sequence", sequenceName = "book_sequence", allocationSize = 50)
     private Long id;
 
     @Column
@@ -30,6 +33,20 @@ public class Book {
     @Column
     private String isbn;
 
+    //empréstimo aberto do livro, mantido só pelos updates condicionais de BookRepository (claimForLoan/releaseLoan)
+    //para que salvar o livro nunca sobrescreva o valor
+    @Column(name = "active_loan_id", insertable = false, updatable = false)
+    private Long activeLoanId;
+
+    //lock otimista e ETag do livro; claimForLoan/releaseLoan não a alteram porque o empréstimo aberto
+    //não faz parte do BookDTO e as cópias do livro no cache continuam válidas
+    @Version
+    @Column
+    private Long version;
+
+    //fora do toString/equals/hashCode para não carregar a coleção (nem entrar em ciclo com Loan.book)
     @OneToMany(mappedBy = "book")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<Loan> loans;
 }
@@ -17,7 +17,8 @@ public class Loan {
 
     @Id
     @Column
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_sequence")
+    @SequenceGenerator(name = "loan_sequence", sequenceName = "loan_sequence", allocationSize = 50)
     private Long id;
 
     @Column(length = 100)
@@ -35,4 +36,19 @@ public class Loan {
 
     @Column
     private Boolean returned;
+
+    //id do livro enquanto o empréstimo está aberto e nulo depois da devolução: o índice único garante,
+    //no próprio banco, no máximo um empréstimo aberto por livro
+    @Column(name = "active_book_id", unique = true)
+    private Long activeBookId;
+
+    @Version
+    @Column
+    private Long version;
+
+    @PrePersist
+    @PreUpdate
+    void updateActiveBookId() {
+        activeBookId = book != null && !Boolean.TRUE.equals(returned) ? book.getId() : null;
+    }
 }
@@ -0,0 +1,65 @@
+package com.cursodsousa.libraryapi.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+//aviso de empréstimo a entregar; a linha fica como registro do que foi enviado
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "outbox_event")
+public class OutboxEvent {
+
+    public enum Type { CREATED, RETURNED, OVERDUE }
+
+    public enum Status { PENDING, SENT, FAILED }
+
+    @Id
+    @Column
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_sequence")
+    @SequenceGenerator(name = "outbox_sequence", sequenceName = "outbox_sequence", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "loan_id")
+    private Long loanId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private Type type;
+
+    @Builder.Default
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private Status status = Status.PENDING;
+
+    @Builder.Default
+    @Column
+    private Integer attempts = 0;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    //quem pegou o aviso e até quando; vencido o prazo, outro relay pode pegá-lo
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    @Column(name = "claimed_until")
+    private LocalDateTime claimedUntil;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    @PrePersist
+    void prePersist() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+    }
+}
@@ -1,14 +1,67 @@
 package com.cursodsousa.libraryapi.model.repository;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 //JPA<Entidade que vai ser trabalhada,Tipo da chave primaria da entidade>
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, BookRepositoryCustom {
 
     boolean existsByIsbn(String isbn);
 
     Optional<Book> findByIsbn(String isbn);
+
+    List<Book> findByIsbnIn(Collection<String> isbns);
+
+    @Query(" select b.id from Book b where b.id in :ids and b.activeLoanId is not null ")
+    List<Long> findLoanedIdsIn(@Param("ids") Collection<Long> ids);
+
+    long countByIdLessThanEqual(Long id);
+
+    boolean existsByIdAndActiveLoanIdIsNotNull(Long id);
+
+    @Query(" select new com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO(b.id, b.activeLoanId) from Book b where b.id = :id ")
+    Optional<BookAvailabilityDTO> findAvailabilityById(@Param("id") Long id);
+
+    @Query(" select b.version from Book b where b.id = :id ")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    //versão do livro e quantidade, maior id e soma das versões dos seus empréstimos: como empréstimos não são
+    //removidos e as versões só crescem, qualquer mudança na lista de empréstimos do livro muda a linha
+    @Query(" select b.version, count(l.id), max(l.id), sum(l.version) from Book b left join b.loans l " +
+            " where b.id = :id group by b.id, b.version ")
+    List<Object[]> findLoansVersionById(@Param("id") Long id);
+
+    //retorna 0 quando outro empréstimo está aberto para o livro
+    @Modifying
+    @Query(" update Book b set b.activeLoanId = :loanId where b.id = :id and ( b.activeLoanId is null or b.activeLoanId = :loanId ) ")
+    int claimForLoan(@Param("id") Long id, @Param("loanId") Long loanId);
+
+    @Modifying
+    @Query(" update Book b set b.activeLoanId = null where b.id = :id and b.activeLoanId = :loanId ")
+    int releaseLoan(@Param("id") Long id, @Param("loanId") Long loanId);
+
+    @Query(" select b.isbn from Book b where b.isbn in :isbns ")
+    List<String> findIsbnsIn(@Param("isbns") Collection<String> isbns);
+
+    @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READONLY, value = "true") })
+    @Query(" select b.id, b.isbn from Book b ")
+    Stream<Object[]> streamIdAndIsbn();
+
+    @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READONLY, value = "true") })
+    @Query(" select b.id, b.title, b.author from Book b ")
+    Stream<Object[]> streamIdTitleAndAuthor();
 }
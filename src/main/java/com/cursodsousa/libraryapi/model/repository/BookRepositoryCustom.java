@@ -0,0 +1,30 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface BookRepositoryCustom {
+
+    void insertInBatches(List<Book> books);
+
+    void forEachByFilter(Book filter, Consumer<Book> action);
+
+    List<Book> findByFilterAfter(Book filter, Keyset keyset, int limit);
+
+    Slice<Book> findSliceByFilter(Book filter, Pageable pageable);
+
+    List<Long> findIdsByFilter(Book filter, int limit);
+
+    /**
+     * claimForLoan em lote: cada par (id do livro, id do empréstimo) marca o livro se ele estiver livre.
+     * Retorna as linhas afetadas por par; 0 quando o livro já tinha empréstimo aberto.
+     */
+    int[] claimForLoans(List<Long[]> bookAndLoanIds);
+
+    //releaseLoan em lote, com pares (id do livro, id do empréstimo)
+    int[] releaseLoans(List<Long[]> bookAndLoanIds);
+}
@@ -0,0 +1,168 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+import static org.springframework.data.jpa.repository.query.QueryUtils.toOrders;
+
+public class BookRepositoryImpl implements BookRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${application.books.import.batch-size:500}")
+    private int batchSize;
+
+    @Value("${application.books.export.fetch-size:500}")
+    private int fetchSize;
+
+    //precisa de uma transação aberta; a cada lote os inserts são enviados juntos e o contexto é limpo
+    @Override
+    public void insertInBatches(List<Book> books) {
+        Session session = entityManager.unwrap(Session.class);
+        Integer previousBatchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(batchSize);
+        try {
+            for (int i = 0; i < books.size(); i++) {
+                entityManager.persist(books.get(i));
+                if ((i + 1) % batchSize == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+        } finally {
+            session.setJdbcBatchSize(previousBatchSize);
+        }
+    }
+
+    @Override
+    public int[] claimForLoans(List<Long[]> bookAndLoanIds) {
+        List<Object[]> rows = new ArrayList<>(bookAndLoanIds.size());
+        bookAndLoanIds.forEach(ids -> rows.add(new Object[]{ ids[1], ids[0] }));
+        return JdbcBatches.update(entityManager,
+                "update book set active_loan_id = ? where id = ? and active_loan_id is null", rows);
+    }
+
+    @Override
+    public int[] releaseLoans(List<Long[]> bookAndLoanIds) {
+        List<Object[]> rows = new ArrayList<>(bookAndLoanIds);
+        return JdbcBatches.update(entityManager,
+                "update book set active_loan_id = null where id = ? and active_loan_id = ?", rows);
+    }
+
+    //percorre o resultado com um cursor somente para frente, limpando o contexto a cada fetch
+    //para que a memória usada não dependa do tamanho do acervo
+    @Override
+    public void forEachByFilter(Book filter, Consumer<Book> action) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> book = query.from(Book.class);
+        query.select(book)
+                .where(filterPredicates(cb, book, filter))
+                .orderBy(cb.asc(book.get("id")));
+
+        try (Stream<Book> books = entityManager.createQuery(query)
+                .setHint(HINT_FETCH_SIZE, fetchSize)
+                .setHint(HINT_READONLY, true)
+                .getResultStream()) {
+            Iterator<Book> iterator = books.iterator();
+            int count = 0;
+            while (iterator.hasNext()) {
+                action.accept(iterator.next());
+                if (++count % fetchSize == 0) {
+                    entityManager.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Book> findByFilterAfter(Book filter, Keyset keyset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> book = query.from(Book.class);
+
+        List<Predicate> predicates = new ArrayList<>(Arrays.asList(filterPredicates(cb, book, filter)));
+        if (!keyset.isFirstPage()) {
+            predicates.add(KeysetQueries.after(cb, book, keyset));
+        }
+        query.select(book)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(KeysetQueries.orders(cb, book, keyset));
+
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    //lê um registro a mais só para saber se há próxima página, sem o count do findAll(example, pageable)
+    @Override
+    public Slice<Book> findSliceByFilter(Book filter, Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> book = query.from(Book.class);
+        query.select(book)
+                .where(filterPredicates(cb, book, filter))
+                .orderBy(toOrders(pageable.getSort(), book, cb));
+
+        List<Book> books = entityManager.createQuery(query)
+                .setFirstResult((int) pageable.getOffset())
+                .setMaxResults(pageable.getPageSize() + 1)
+                .getResultList();
+        boolean hasNext = books.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? books.subList(0, pageable.getPageSize()) : books, pageable, hasNext);
+    }
+
+    @Override
+    public List<Long> findIdsByFilter(Book filter, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Book> book = query.from(Book.class);
+        query.select(book.get("id"))
+                .where(filterPredicates(cb, book, filter))
+                .orderBy(cb.asc(book.get("id")));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    //mesma semântica do Example usado no BookServiceImpl.find: contém, sem diferenciar maiúsculas
+    static Predicate[] filterPredicates(CriteriaBuilder cb, Root<Book> book, Book filter) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (filter.getId() != null) {
+            predicates.add(cb.equal(book.get("id"), filter.getId()));
+        }
+        addContaining(cb, book, "title", filter.getTitle(), predicates);
+        addContaining(cb, book, "author", filter.getAuthor(), predicates);
+        addContaining(cb, book, "isbn", filter.getIsbn(), predicates);
+        return predicates.toArray(new Predicate[0]);
+    }
+
+    private static void addContaining(CriteriaBuilder cb, Root<Book> book, String attribute, String value, List<Predicate> predicates) {
+        if (value != null) {
+            String pattern = "%" + value.toLowerCase(Locale.ROOT)
+                    .replace("\\", "\\\\")
+                    .replace("%", "\\%")
+                    .replace("_", "\\_") + "%";
+            predicates.add(cb.like(cb.lower(book.get(attribute)), pattern, '\\'));
+        }
+    }
+}
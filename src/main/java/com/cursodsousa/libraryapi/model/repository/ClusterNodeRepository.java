@@ -0,0 +1,24 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.ClusterNode;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ClusterNodeRepository extends JpaRepository<ClusterNode, String> {
+
+    @Modifying
+    @Query(" update ClusterNode n set n.heartbeat = :now where n.id = :id ")
+    int heartbeat( @Param("id") String id, @Param("now") LocalDateTime now );
+
+    @Query(" select n.id from ClusterNode n where n.heartbeat >= :since order by n.id ")
+    List<String> findLiveIds( @Param("since") LocalDateTime since );
+
+    @Modifying
+    @Query(" delete from ClusterNode n where n.heartbeat < :before ")
+    int deleteDead( @Param("before") LocalDateTime before );
+}
@@ -0,0 +1,36 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+/**
+ * Executa um mesmo comando para várias linhas em um único lote JDBC, na conexão (e transação) do EntityManager.
+ * O que estiver pendente no contexto de persistência é enviado antes.
+ */
+final class JdbcBatches {
+
+    private JdbcBatches() {
+    }
+
+    //linhas afetadas por cada item, na ordem de rows
+    static int[] update(EntityManager entityManager, String sql, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return new int[0];
+        }
+        entityManager.flush();
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        statement.setObject(i + 1, row[i]);
+                    }
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+    }
+}
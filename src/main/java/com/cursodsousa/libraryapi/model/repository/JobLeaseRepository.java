@@ -0,0 +1,38 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.JobLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+public interface JobLeaseRepository extends JpaRepository<JobLease, String> {
+
+    //relógio do banco: instâncias com relógios diferentes comparam prazos pela mesma referência
+    @Query(value = " select localtimestamp ", nativeQuery = true)
+    Timestamp now();
+
+    //só fica com o job quem encontrar o prazo anterior vencido
+    @Modifying
+    @Query(" update JobLease j set j.owner = :owner, j.leaseUntil = :until " +
+            " where j.jobName = :job and j.leaseUntil <= :now ")
+    int acquire( @Param("job") String job, @Param("owner") String owner,
+                 @Param("until") LocalDateTime until, @Param("now") LocalDateTime now );
+
+    //insert puro: o save faria merge e tomaria a linha que outra instância acabou de criar
+    @Modifying
+    @Query(value = " insert into job_lease (job_name, owner, lease_until) values (:job, :owner, :until) ", nativeQuery = true)
+    int create( @Param("job") String job, @Param("owner") String owner, @Param("until") LocalDateTime until );
+
+    //lease estendido enquanto o job roda; zero se outra instância já assumiu o job
+    @Modifying
+    @Query(" update JobLease j set j.leaseUntil = :until where j.jobName = :job and j.owner = :owner ")
+    int renew( @Param("job") String job, @Param("owner") String owner, @Param("until") LocalDateTime until );
+
+    @Modifying
+    @Query(" update JobLease j set j.leaseUntil = :until where j.jobName = :job and j.owner = :owner ")
+    int release( @Param("job") String job, @Param("owner") String owner, @Param("until") LocalDateTime until );
+}
@@ -0,0 +1,31 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Posição de uma paginação por chave: a propriedade ordenada e os valores (propriedade, id) do último
+ * registro entregue. Sem último id, representa a primeira página.
+ */
+@Getter
+@AllArgsConstructor
+public class Keyset {
+
+    private final String property;
+    private final Sort.Direction direction;
+    private final Comparable<?> lastValue;
+    private final Long lastId;
+
+    public static Keyset first(String property, Sort.Direction direction) {
+        return new Keyset(property, direction, null, null);
+    }
+
+    public boolean isFirstPage() {
+        return lastId == null;
+    }
+
+    public boolean isById() {
+        return "id".equals(property);
+    }
+}
@@ -0,0 +1,50 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.List;
+
+final class KeysetQueries {
+
+    private KeysetQueries() {
+    }
+
+    //(chave, id) depois do último registro entregue, na direção da ordenação. Chave nula fica abaixo de todas as
+    //outras, como o H2 ordena por padrão: primeiro na ordem crescente e por último na decrescente
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Predicate after(CriteriaBuilder cb, Path<?> root, Keyset keyset) {
+        Path<Long> id = root.get("id");
+        boolean ascending = keyset.getDirection() == Sort.Direction.ASC;
+        Predicate afterId = ascending ? cb.greaterThan(id, keyset.getLastId()) : cb.lessThan(id, keyset.getLastId());
+        if (keyset.isById()) {
+            return afterId;
+        }
+        Expression key = root.get(keyset.getProperty());
+        Comparable value = keyset.getLastValue();
+        if (value == null) {
+            Predicate nullsAfter = cb.and(cb.isNull(key), afterId);
+            return ascending ? cb.or(nullsAfter, cb.isNotNull(key)) : nullsAfter;
+        }
+        Predicate afterKey = ascending ? cb.greaterThan(key, value) : cb.lessThan(key, value);
+        Predicate after = cb.or(afterKey, cb.and(cb.equal(key, value), afterId));
+        return ascending ? after : cb.or(after, cb.isNull(key));
+    }
+
+    static List<Order> orders(CriteriaBuilder cb, Path<?> root, Keyset keyset) {
+        boolean ascending = keyset.getDirection() == Sort.Direction.ASC;
+        List<Order> orders = new ArrayList<>();
+        if (!keyset.isById()) {
+            Path<?> key = root.get(keyset.getProperty());
+            orders.add(ascending ? cb.asc(key) : cb.desc(key));
+        }
+        Path<?> id = root.get("id");
+        orders.add(ascending ? cb.asc(id) : cb.desc(id));
+        return orders;
+    }
+}
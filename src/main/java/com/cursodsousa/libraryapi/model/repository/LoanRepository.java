@@ -1,32 +1,64 @@
 package com.cursodsousa.libraryapi.model.repository;
 
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
-public interface LoanRepository extends JpaRepository<Loan, Long> {
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface LoanRepository extends JpaRepository<Loan, Long>, LoanRepositoryCustom {
 
     @Query(value = " select case when ( count(l.id) > 0 ) then true else false end " +
             " from Loan l where l.book = :book and ( l.returned is null or l.returned is false ) ")
     boolean existsByBookAndNotReturned( @Param("book") Book book );
 
-    @Query( value = " select l from Loan as l join l.book as b where b.isbn = :isbn or l.customer =:customer ")
-    Page<Loan> findByBookIsbnOrCustomer(
-            @Param("isbn") String isbn,
-            @Param("customer") String customer,
-            Pageable pageable
-    );
+    //id, id do livro e returned, sem carregar as entidades
+    @Query( " select l.id, l.book.id, l.returned from Loan l where l.id in :ids " )
+    List<Object[]> findReturnStateByIdIn( @Param("ids") Collection<Long> ids );
 
+    @EntityGraph(attributePaths = "book")
     Page<Loan> findByBook( Book book, Pageable pageable );
 
-    @Query(" select l from Loan l where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) ")
+    @Query( value = " select new com.cursodsousa.libraryapi.api.dto.LoanDTO(l.id, l.customer, l.customerEmail, " +
+            " b.id, b.title, b.author, b.isbn) from Loan as l join l.book as b where l.book = :book ",
+            countQuery = " select count(l) from Loan as l where l.book = :book ")
+    Page<LoanDTO> findDTOsByBook( @Param("book") Book book, Pageable pageable );
+
+    @Query(" select l from Loan l join fetch l.book where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) ")
     List<Loan> findByLoanDateLessThanAndNotReturned( @Param("threeDaysAgo") LocalDate threeDaysAgo );
+
+    //id e data dos empréstimos abertos, pelo índice único de active_book_id, para montar o DueDateIndex
+    @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READONLY, value = "true") })
+    @Query(" select l.id, l.loanDate from Loan l where l.activeBookId is not null ")
+    Stream<Object[]> streamOpenIdAndLoanDate();
+
+    //menor e maior id entre os empréstimos até a data; empréstimos novos são de hoje e não mudam a faixa
+    @Query(" select min(l.id), max(l.id) from Loan l where l.loanDate <= :limit ")
+    List<Object[]> findIdRangeByLoanDateUntil( @Param("limit") LocalDate limit );
+
+    //ids dos atrasados da faixa que ainda não têm aviso, lidos por cursor de 500 em 500 linhas, sem entidades
+    @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true") })
+    @Query(value = " select l.id from loan l " +
+            " where l.loan_date <= :limit and ( l.returned is null or l.returned = false ) " +
+            " and l.id between :fromId and :toId " +
+            " and not exists ( select 1 from outbox_event e where e.loan_id = l.id and e.type = 'OVERDUE' ) ",
+            nativeQuery = true)
+    Stream<Number> streamOverdueIds( @Param("limit") LocalDate limit,
+                                     @Param("fromId") long fromId, @Param("toId") long toId );
+
 }
@@ -0,0 +1,25 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+public interface LoanRepositoryCustom {
+
+    //empréstimos do isbn ou do cliente; com os dois, une duas buscas indexadas em vez de um "or"
+    Page<Loan> findByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable);
+
+    Page<LoanDTO> findDTOsByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable);
+
+    List<Loan> findByBookIsbnOrCustomerAfter(LoanFilterDTO filter, Keyset keyset, int limit);
+
+    List<Loan> findByBookAfter(Book book, Keyset keyset, int limit);
+
+    //marca os empréstimos como devolvidos em um único lote; retorna as linhas afetadas por id
+    int[] markReturned(List<Long> loanIds);
+}
@@ -0,0 +1,256 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Consultas de empréstimos por isbn ou cliente.
+ *
+ * Um "isbn = ? or customer = ?" atravessa duas tabelas e o banco não consegue usar os índices de
+ * book.isbn e loan.customer ao mesmo tempo: acaba lendo todos os empréstimos. Por isso o caminho é
+ * escolhido pelos campos presentes no filtro ({@link AccessPath}): só um deles vira uma consulta simples
+ * pelo índice; os dois viram duas consultas indexadas, cada uma limitada ao fim da página pedida, unidas
+ * aqui na ordem da página e sem repetir o empréstimo que atende aos dois.
+ */
+public class LoanRepositoryImpl implements LoanRepositoryCustom {
+
+    private static final String LOAN_DTO = " select new com.cursodsousa.libraryapi.api.dto.LoanDTO(l.id, l.customer, " +
+            " l.customerEmail, b.id, b.title, b.author, b.isbn) from Loan as l join l.book as b ";
+    private static final String LOAN = " select l from Loan as l join fetch l.book as b ";
+    private static final String BY_ISBN = " where b.isbn = :isbn ";
+    private static final String BY_CUSTOMER = " where l.customer = :customer ";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    enum AccessPath {
+        NONE, ISBN, CUSTOMER, ISBN_AND_CUSTOMER;
+
+        static AccessPath of(String isbn, String customer) {
+            if (isbn == null) {
+                return customer == null ? NONE : CUSTOMER;
+            }
+            return customer == null ? ISBN : ISBN_AND_CUSTOMER;
+        }
+    }
+
+    //active_book_id volta a nulo e a versão avança como o Hibernate faria, já que o update é feito fora dele
+    @Override
+    public int[] markReturned(List<Long> loanIds) {
+        List<Object[]> rows = new ArrayList<>(loanIds.size());
+        loanIds.forEach(id -> rows.add(new Object[]{ id }));
+        return JdbcBatches.update(entityManager,
+                "update loan set returned = true, active_book_id = null, version = version + 1 where id = ?", rows);
+    }
+
+    @Override
+    public Page<Loan> findByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable) {
+        AccessPath path = AccessPath.of(isbn, customer);
+        switch (path) {
+            case NONE:
+                return new PageImpl<>(Collections.emptyList(), pageable, 0);
+            case ISBN_AND_CUSTOMER:
+                return PageableExecutionUtils.getPage(merge(isbn, customer, pageable), pageable,
+                        () -> countMerged(isbn, customer));
+            default:
+                return page(LOAN, path, isbn, customer, pageable, Loan.class);
+        }
+    }
+
+    @Override
+    public Page<LoanDTO> findDTOsByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable) {
+        AccessPath path = AccessPath.of(isbn, customer);
+        switch (path) {
+            case NONE:
+                return new PageImpl<>(Collections.emptyList(), pageable, 0);
+            case ISBN_AND_CUSTOMER:
+                //a união precisa da chave de ordenação de cada linha, então lê as entidades e projeta depois
+                List<LoanDTO> content = merge(isbn, customer, pageable).stream()
+                        .map(LoanRepositoryImpl::toDTO)
+                        .collect(Collectors.toList());
+                return PageableExecutionUtils.getPage(content, pageable, () -> countMerged(isbn, customer));
+            default:
+                return page(LOAN_DTO, path, isbn, customer, pageable, LoanDTO.class);
+        }
+    }
+
+    @Override
+    public List<Loan> findByBookIsbnOrCustomerAfter(LoanFilterDTO filter, Keyset keyset, int limit) {
+        String isbn = filter.getIsbn();
+        String customer = filter.getCustomer();
+        switch (AccessPath.of(isbn, customer)) {
+            case NONE:
+                return Collections.emptyList();
+            case ISBN:
+                return seekByIsbnOrCustomer(isbn, null, keyset, limit);
+            case CUSTOMER:
+                return seekByIsbnOrCustomer(null, customer, keyset, limit);
+            default:
+                Sort.Direction direction = keyset.getDirection();
+                Sort order = keyset.isById() ? Sort.by(direction, "id")
+                        : Sort.by(direction, keyset.getProperty()).and(Sort.by(direction, "id"));
+                return union(seekByIsbnOrCustomer(isbn, null, keyset, limit),
+                        seekByIsbnOrCustomer(null, customer, keyset, limit), order, 0, limit);
+        }
+    }
+
+    @Override
+    public List<Loan> findByBookAfter(Book book, Keyset keyset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Loan> query = cb.createQuery(Loan.class);
+        Root<Loan> loan = query.from(Loan.class);
+        loan.fetch("book", JoinType.INNER);
+
+        return seek(query, loan, cb.equal(loan.get("book"), book), keyset, limit);
+    }
+
+    //uma das buscas indexadas: isbn ou cliente, nunca os dois
+    @SuppressWarnings("unchecked")
+    private List<Loan> seekByIsbnOrCustomer(String isbn, String customer, Keyset keyset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Loan> query = cb.createQuery(Loan.class);
+        Root<Loan> loan = query.from(Loan.class);
+        Fetch<Loan, Book> fetch = loan.fetch("book", JoinType.INNER);
+        Join<Loan, Book> book = (Join<Loan, Book>) fetch;
+
+        Predicate match = isbn != null ? cb.equal(book.get("isbn"), isbn) : cb.equal(loan.get("customer"), customer);
+        return seek(query, loan, match, keyset, limit);
+    }
+
+    private List<Loan> seek(CriteriaQuery<Loan> query, Root<Loan> loan, Predicate filter, Keyset keyset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        Predicate where = keyset.isFirstPage() ? filter : cb.and(filter, KeysetQueries.after(cb, loan, keyset));
+        query.select(loan)
+                .where(where)
+                .orderBy(KeysetQueries.orders(cb, loan, keyset));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    private <T> Page<T> page(String select, AccessPath path, String isbn, String customer,
+                             Pageable pageable, Class<T> type) {
+        String where = path == AccessPath.ISBN ? BY_ISBN : BY_CUSTOMER;
+        TypedQuery<T> query = entityManager.createQuery(QueryUtils.applySorting(select + where, pageable.getSort(), "l"), type);
+        bind(query, path, isbn, customer);
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset()).setMaxResults(pageable.getPageSize());
+        }
+        return PageableExecutionUtils.getPage(query.getResultList(), pageable, () -> count(path, isbn, customer));
+    }
+
+    //cada lado traz no máximo offset + tamanho linhas: é o que basta para montar a página da união
+    private List<Loan> merge(String isbn, String customer, Pageable pageable) {
+        Sort sort = pageable.getSort().getOrderFor("id") == null ? pageable.getSort().and(Sort.by("id")) : pageable.getSort();
+        int offset = pageable.isPaged() ? (int) pageable.getOffset() : 0;
+        int size = pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE;
+        int limit = pageable.isPaged() ? offset + size : Integer.MAX_VALUE;
+
+        List<Loan> byIsbn = top(AccessPath.ISBN, isbn, customer, sort, limit);
+        List<Loan> byCustomer = top(AccessPath.CUSTOMER, isbn, customer, sort, limit);
+        return union(byIsbn, byCustomer, sort, offset, size);
+    }
+
+    private List<Loan> top(AccessPath path, String isbn, String customer, Sort sort, int limit) {
+        String where = path == AccessPath.ISBN ? BY_ISBN : BY_CUSTOMER;
+        TypedQuery<Loan> query = entityManager.createQuery(QueryUtils.applySorting(LOAN + where, sort, "l"), Loan.class);
+        bind(query, path, isbn, customer);
+        if (limit < Integer.MAX_VALUE) {
+            query.setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    private long count(AccessPath path, String isbn, String customer) {
+        String jpql;
+        switch (path) {
+            case ISBN:
+                jpql = " select count(l) from Loan as l join l.book as b " + BY_ISBN;
+                break;
+            case CUSTOMER:
+                jpql = " select count(l) from Loan as l " + BY_CUSTOMER;
+                break;
+            default:
+                jpql = " select count(l) from Loan as l join l.book as b where b.isbn = :isbn and l.customer = :customer ";
+        }
+        TypedQuery<Long> query = entityManager.createQuery(jpql, Long.class);
+        bind(query, path, isbn, customer);
+        return query.getSingleResult();
+    }
+
+    //|isbn ∪ cliente| = |isbn| + |cliente| - |isbn ∩ cliente|; a interseção só é contada quando pode existir
+    private long countMerged(String isbn, String customer) {
+        long byIsbn = count(AccessPath.ISBN, isbn, customer);
+        long byCustomer = count(AccessPath.CUSTOMER, isbn, customer);
+        if (byIsbn == 0 || byCustomer == 0) {
+            return byIsbn + byCustomer;
+        }
+        return byIsbn + byCustomer - count(AccessPath.ISBN_AND_CUSTOMER, isbn, customer);
+    }
+
+    private static void bind(TypedQuery<?> query, AccessPath path, String isbn, String customer) {
+        if (path != AccessPath.CUSTOMER) {
+            query.setParameter("isbn", isbn);
+        }
+        if (path != AccessPath.ISBN) {
+            query.setParameter("customer", customer);
+        }
+    }
+
+    //junta duas listas já ordenadas por sort, descartando o empréstimo repetido, e devolve a fatia pedida
+    private static List<Loan> union(List<Loan> first, List<Loan> second, Sort sort, int offset, int size) {
+        Set<Long> seen = new HashSet<>();
+        return Stream.concat(first.stream(), second.stream())
+                .sorted(comparator(sort))
+                .filter(loan -> seen.add(loan.getId()))
+                .skip(offset)
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+
+    //mesma ordem do banco (H2): nulos antes na ordem crescente e depois na decrescente
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<Loan> comparator(Sort sort) {
+        Comparator<Loan> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            String property = order.getProperty();
+            Comparator<Comparable> values = Comparator.nullsFirst(Comparator.naturalOrder());
+            Comparator<Loan> byProperty = Comparator.comparing(
+                    loan -> (Comparable) new BeanWrapperImpl(loan).getPropertyValue(property), values);
+            comparator = comparator.thenComparing(order.isAscending() ? byProperty : byProperty.reversed());
+        }
+        return comparator;
+    }
+
+    private static LoanDTO toDTO(Loan loan) {
+        Book book = loan.getBook();
+        return new LoanDTO(loan.getId(), loan.getCustomer(), loan.getCustomerEmail(),
+                book.getId(), book.getTitle(), book.getAuthor(), book.getIsbn());
+    }
+}
@@ -0,0 +1,66 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.api.dto.LoanNotificationDTO;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Fila de avisos de empréstimo.
+ *
+ * O relay pega avisos em duas etapas: lê ids livres e os marca com um token e um prazo (claim). Só a marcação
+ * que encontrar a linha ainda livre fica com ela, então dois relays nunca entregam o mesmo aviso ao mesmo
+ * tempo. Confirmar (ack) e devolver exigem o mesmo token: se o prazo venceu e outro relay pegou o aviso,
+ * a confirmação atrasada não altera nada.
+ */
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    @Query(" select e.id from OutboxEvent e where e.status = 'PENDING' " +
+            " and ( e.claimedUntil is null or e.claimedUntil <= :now ) order by e.id ")
+    List<Long> findClaimable( @Param("now") LocalDateTime now, Pageable pageable );
+
+    @Modifying
+    @Query(" update OutboxEvent e set e.claimToken = :token, e.claimedUntil = :until, e.attempts = e.attempts + 1 " +
+            " where e.id in :ids and e.status = 'PENDING' and ( e.claimedUntil is null or e.claimedUntil <= :now ) ")
+    int claim( @Param("ids") Collection<Long> ids, @Param("token") String token,
+               @Param("until") LocalDateTime until, @Param("now") LocalDateTime now );
+
+    @Query(" select new com.cursodsousa.libraryapi.api.dto.LoanNotificationDTO(e.id, e.type, e.createdAt, " +
+            " l.customer, l.customerEmail) from OutboxEvent e, Loan l " +
+            " where l.id = e.loanId and e.id in :ids and e.claimToken = :token order by e.id ")
+    List<LoanNotificationDTO> findClaimed( @Param("ids") Collection<Long> ids, @Param("token") String token );
+
+    @Modifying
+    @Query(" update OutboxEvent e set e.status = 'SENT', e.sentAt = :now, e.claimToken = null, e.claimedUntil = null " +
+            " where e.id in :ids and e.claimToken = :token ")
+    int ack( @Param("ids") Collection<Long> ids, @Param("token") String token, @Param("now") LocalDateTime now );
+
+    //com tentativas restantes, volta a ficar livre em retryAt
+    @Modifying
+    @Query(" update OutboxEvent e set e.claimToken = null, e.claimedUntil = :retryAt " +
+            " where e.id in :ids and e.claimToken = :token and e.attempts < :maxAttempts ")
+    int release( @Param("ids") Collection<Long> ids, @Param("token") String token,
+                 @Param("retryAt") LocalDateTime retryAt, @Param("maxAttempts") int maxAttempts );
+
+    @Modifying
+    @Query(" update OutboxEvent e set e.status = 'FAILED', e.claimToken = null, e.claimedUntil = null " +
+            " where e.id in :ids and e.claimToken = :token and e.attempts >= :maxAttempts ")
+    int fail( @Param("ids") Collection<Long> ids, @Param("token") String token, @Param("maxAttempts") int maxAttempts );
+
+    //um aviso por empréstimo já sabidamente vencido (LoanRepository.streamOverdueIds ou DueDateIndex);
+    //os devolvidos nesse meio tempo e quem já tem aviso de atraso ficam de fora
+    @Modifying
+    @Query(value = " insert into outbox_event (loan_id, type, status, attempts, created_at) " +
+            " select l.id, 'OVERDUE', 'PENDING', 0, :now from loan l " +
+            " where l.id in :ids and ( l.returned is null or l.returned = false ) " +
+            " and not exists ( select 1 from outbox_event e where e.loan_id = l.id and e.type = 'OVERDUE' ) ",
+            nativeQuery = true)
+    int insertOverdueByIds( @Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now );
+}
@@ -0,0 +1,11 @@
+package com.cursodsousa.libraryapi.service;
+
+import lombok.Value;
+
+@Value
+public class BookCount {
+
+    long total;
+
+    boolean exact;
+}
@@ -1,22 +1,47 @@
 package com.cursodsousa.libraryapi.service;
 
+import com.cursodsousa.libraryapi.api.dto.BookImportResultDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface BookService {
     Book save(Book any);
 
     Optional<Book> getById(Long id);
 
+    /**
+     * Versão atual do livro, lida do banco sem carregar a entidade nem passar pelo cache.
+     */
+    Optional<Long> getVersion(Long id);
+
+    /**
+     * Lê o livro do banco, sem passar pelo cache, e troca por ele o que estiver guardado.
+     */
+    Optional<Book> reload(Long id);
+
     void delete(Book book);
 
     Book update(Book book);
 
     Page<Book> find(Book filter, Pageable pageRequest);
 
+    Slice<Book> findSlice(Book filter, Pageable pageRequest);
+
+    BookCount count(Book filter, CountMode mode);
+
+    Slice<Book> findAfter(Book filter, Keyset keyset, int size);
+
     Optional<Book> getBookByIsbn(String isbn);
+
+    List<BookImportResultDTO> saveAll(List<Book> books);
+
+    void export(Book filter, Consumer<Book> consumer);
 }
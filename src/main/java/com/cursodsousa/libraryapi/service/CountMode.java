@@ -0,0 +1,16 @@
+package com.cursodsousa.libraryapi.service;
+
+/**
+ * Como o total de uma listagem é obtido.
+ */
+public enum CountMode {
+
+    /** count no banco a cada chamada */
+    EXACT,
+
+    /** count exato, reaproveitado por alguns segundos para o mesmo filtro */
+    CACHED,
+
+    /** exato até um limite; acima dele, extrapolado a partir da fração da tabela percorrida */
+    ESTIMATE
+}
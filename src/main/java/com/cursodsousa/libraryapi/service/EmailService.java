@@ -1,7 +1,11 @@
 package com.cursodsousa.libraryapi.service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface EmailService {
     void sendMails(String message, List<String> mailsList);
+
+    //completa com true quando o e-mail é entregue e com false quando é recusado ou descartado
+    CompletableFuture<Boolean> sendMail(String subject, String message, String mail);
 }
@@ -1,10 +1,16 @@
 package com.cursodsousa.libraryapi.service;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutResultDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanReturnResultDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 import java.util.List;
 import java.util.Optional;
@@ -17,9 +23,46 @@ public interface LoanService {
 
     Loan update(Loan loan);
 
-    Page<Loan> find(LoanFilterDTO filterDTO, Pageable pageable);
+    List<LoanCheckoutResultDTO> saveAll(String customer, String email, List<String> isbns);
 
-    Page<Loan> getLoansByBook(Book book, Pageable pageable);
+    List<LoanReturnResultDTO> returnAll(List<Long> ids);
 
-    List<Loan> getAllLateLoans();
+    Page<LoanDTO> findDTOs(LoanFilterDTO filterDTO, Pageable pageable);
+
+    Page<LoanDTO> getLoanDTOsByBook(Book book, Pageable pageable);
+
+    Slice<Loan> findAfter(LoanFilterDTO filterDTO, Keyset keyset, int size);
+
+    Slice<Loan> getLoansByBookAfter(Book book, Keyset keyset, int size);
+
+    /**
+     * Grava um aviso de atraso para cada empréstimo que passou do prazo e ainda não tem um. Rodar de novo não
+     * repete avisos. Retorna quantos avisos foram gravados.
+     */
+    int markOverdueLoans();
+
+    /**
+     * Data limite e faixa de ids dos empréstimos que podem estar atrasados agora, vazia se não há nenhum. Lida uma
+     * vez por execução do job, para que todas as partições dividam os mesmos limites.
+     */
+    Optional<OverdueRange> getOverdueRange();
+
+    /**
+     * Como {@link #markOverdueLoans()}, só para os empréstimos da faixa.
+     */
+    int markOverdueLoans(OverdueRange range);
+
+    /**
+     * Grava o aviso de atraso dos empréstimos que venceram desde a última chamada, segundo o índice em memória
+     * de vencimentos: custa só os empréstimos que venceram, não a leitura de todos os atrasados.
+     */
+    int markDueLoans();
+
+    Optional<BookAvailabilityDTO> getAvailability(Long bookId);
+
+    /**
+     * Versão da lista de empréstimos do livro: muda sempre que o livro ou algum dos seus empréstimos muda ou
+     * quando o livro ganha um empréstimo. Vazio se o livro não existir.
+     */
+    Optional<String> getLoansVersionByBook(Long bookId);
 }
@@ -0,0 +1,27 @@
+package com.cursodsousa.libraryapi.service;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * Empréstimos feitos até {@code limit} com id entre {@code fromId} e {@code toId}, inclusive.
+ */
+@Value
+public class OverdueRange {
+
+    LocalDate limit;
+
+    long fromId;
+
+    long toId;
+
+    /**
+     * Partição {@code partition} (a partir de 0) da faixa dividida em {@code partitions} faixas de mesmo tamanho.
+     */
+    public OverdueRange partition(int partition, int partitions) {
+        long span = (toId - fromId) / partitions + 1;
+        long from = fromId + partition * span;
+        return new OverdueRange(limit, from, Math.min(toId, from + span - 1));
+    }
+}
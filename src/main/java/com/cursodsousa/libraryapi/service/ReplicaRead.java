@@ -0,0 +1,18 @@
+package com.cursodsousa.libraryapi.service;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Leitura que aceita o atraso de uma réplica: com {@code application.datasource.replicas.enabled} o método roda
+ * em uma transação somente leitura em uma das réplicas. Dentro de uma transação de escrita, ou logo depois de uma
+ * escrita do mesmo cliente, continua no primário.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReplicaRead {
+}
@@ -1,34 +1,68 @@
 package com.cursodsousa.libraryapi.service;
 
-import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.service.job.JobCoordinator;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ScheduleService {
 
+    static final String LATE_LOANS_JOB = "late-loans";
+    static final String DUE_LOANS_JOB = "due-loans";
     private static final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
 
-    @Value("${application.mail.lateloans.message}")
-    private String message;
+    @Value("${application.jobs.late-loans.partitions:8}")
+    private int partitions;
+
+    @Value("${application.jobs.late-loans.lease:600000}")
+    private long leaseMillis;
+
+    @Value("${application.jobs.late-loans.hold:3600000}")
+    private long holdMillis;
+
+    @Value("${application.jobs.due-loans.lease:60000}")
+    private long dueLeaseMillis;
 
     private final LoanService loanService;
-    private final EmailService emailService;
+    private final JobCoordinator jobCoordinator;
 
+    //só grava os avisos de atraso na outbox; quem envia é o OutboxRelay.
+    //as instâncias dividem as faixas de id entre si e cada faixa roda uma vez por dia; a faixa inteira é lida uma
+    //vez, antes das partições, para que todas usem a mesma data limite e os mesmos ids
     @Scheduled(cron = CRON_LATE_LOANS)
-    public void sendMailToLateLoans(){
-        List<Loan> allLateLoans = loanService.getAllLateLoans();
-        List<String> mailsList = allLateLoans.stream()
-                .map(loan -> loan.getCustomerEmail())
-                .collect(Collectors.toList());
+    public int markLateLoans(){
+        AtomicInteger marked = new AtomicInteger();
+        Optional<OverdueRange> range = loanService.getOverdueRange();
+        if (range.isPresent()) {
+            jobCoordinator.runPartitioned(LATE_LOANS_JOB, partitions, Duration.ofMillis(leaseMillis), Duration.ofMillis(holdMillis),
+                    partition -> marked.addAndGet(loanService.markOverdueLoans(range.get().partition(partition, partitions))));
+        }
+        log.info(" {} overdue loans queued for notification by {} ", marked.get(), jobCoordinator.getNodeId());
+        return marked.get();
+    }
 
-        emailService.sendMails(message, mailsList);
+    //aviso de atraso no dia em que o empréstimo vence, pelo índice em memória: cada verificação só toca os que
+    //venceram desde a anterior. Uma instância por vez, para duas não gravarem o mesmo aviso; o job da meia-noite
+    //continua como conferência dos empréstimos que nenhum índice viu
+    @Scheduled(initialDelayString = "${application.loans.overdue-check:60000}",
+            fixedDelayString = "${application.loans.overdue-check:60000}")
+    public int markDueLoans(){
+        AtomicInteger marked = new AtomicInteger();
+        jobCoordinator.runExclusive(DUE_LOANS_JOB, Duration.ofMillis(dueLeaseMillis), Duration.ZERO,
+                () -> marked.set(loanService.markDueLoans()));
+        if (marked.get() > 0) {
+            log.info(" {} loans became overdue and were queued for notification ", marked.get());
+        }
+        return marked.get();
     }
 
 }
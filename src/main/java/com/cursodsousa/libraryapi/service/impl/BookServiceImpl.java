@@ -1,68 +1,401 @@
 package com.cursodsousa.libraryapi.service.impl;
 
+import com.cursodsousa.libraryapi.api.dto.BookImportResultDTO;
+import com.cursodsousa.libraryapi.config.ReplicaRouting;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
+import com.cursodsousa.libraryapi.service.BookCount;
 import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.CountMode;
+import com.cursodsousa.libraryapi.service.ReplicaRead;
+import com.cursodsousa.libraryapi.service.index.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.index.IsbnIndex;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class BookServiceImpl implements BookService {
 
+    public static final String BOOKS_CACHE = "books";
+    public static final String BOOKS_BY_ISBN_CACHE = "booksByIsbn";
+
+    //livro lido de uma réplica logo depois de ser escrito não entra no cache (ver ReplicaRouting)
+    private static final String STALE_REPLICA_READ = "T(com.cursodsousa.libraryapi.config.ReplicaRouting).mayBeStale";
+    private static final String STALE_BY_ID = STALE_REPLICA_READ + "('" + BOOKS_CACHE + "', #id)";
+    private static final String STALE_BY_ISBN = STALE_REPLICA_READ + "('" + BOOKS_BY_ISBN_CACHE + "', #isbn)";
+
+    private static final int ISBN_QUERY_CHUNK = 1000;
+    private static final int ESTIMATE_EXACT_UP_TO = 1000;
+    private static final Duration COUNT_CACHE_TTL = Duration.ofSeconds(30);
+    private static final long MATCHES_CACHE_MAX_IDS = 1_000_000;
+
     private BookRepository repository;
+    private IsbnIndex isbnIndex;
+    private BookSearchIndex searchIndex;
+    private CacheManager cacheManager;
+    //totais por filtro normalizado; qualquer escrita em livros descarta todos
+    private final Cache<String, Long> counts = Caffeine.newBuilder()
+            .expireAfterWrite(COUNT_CACHE_TTL)
+            .maximumSize(10_000)
+            .build();
+    //ids do índice de busca já ranqueados por consulta: as páginas seguintes e o count da mesma busca reaproveitam
+    //o resultado em vez de buscar e ordenar tudo de novo; também descartados a cada escrita
+    private final Cache<String, long[]> matches = Caffeine.newBuilder()
+            .expireAfterWrite(COUNT_CACHE_TTL)
+            .maximumWeight(MATCHES_CACHE_MAX_IDS)
+            .weigher((String key, long[] ids) -> Math.max(1, ids.length))
+            .build();
 
-    public BookServiceImpl(BookRepository repository) {
+    public BookServiceImpl(BookRepository repository, IsbnIndex isbnIndex, BookSearchIndex searchIndex,
+                           CacheManager cacheManager) {
         this.repository = repository;
+        this.isbnIndex = isbnIndex;
+        this.searchIndex = searchIndex;
+        this.cacheManager = cacheManager;
     }
 
     @Override
+    @Caching(put = {
+            @CachePut(cacheNames = BOOKS_CACHE, key = "#result.id"),
+            @CachePut(cacheNames = BOOKS_BY_ISBN_CACHE, key = "#result.isbn")
+    })
     public Book save(Book book){
-        if(repository.existsByIsbn(book.getIsbn())){
+        if(isbnExists(book.getIsbn())){
+            throw new BusinessException("Isbn já cadastrado.");
+        }
+        Book savedBook;
+        try {
+            savedBook = repository.save(book);
+        } catch (DataIntegrityViolationException e) {
+            //o isbn foi incluído por outro pedido ou outro nó depois da verificação; quem decide é ux_book_isbn
             throw new BusinessException("Isbn já cadastrado.");
         }
-        return repository.save(book);
+        afterCommit(() -> {
+            counts.invalidateAll();
+            matches.invalidateAll();
+            isbnIndex.put(savedBook.getIsbn(), savedBook.getId());
+            searchIndex.put(savedBook.getId(), savedBook.getTitle(), savedBook.getAuthor());
+            wrote(savedBook);
+        });
+        return savedBook;
     }
 
     @Override
+    @ReplicaRead
+    @Cacheable(cacheNames = BOOKS_CACHE, key = "#id", unless = STALE_BY_ID)
     public Optional<Book> getById(Long id) {
         return this.repository.findById(id);
     }
 
     @Override
+    public Optional<Long> getVersion(Long id) {
+        return repository.findVersionById(id);
+    }
+
+    @Override
+    @Caching(put = {
+            @CachePut(cacheNames = BOOKS_CACHE, key = "#id"),
+            @CachePut(cacheNames = BOOKS_BY_ISBN_CACHE, key = "#result.isbn", unless = "#result == null")
+    })
+    public Optional<Book> reload(Long id) {
+        return repository.findById(id);
+    }
+
+    @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = BOOKS_CACHE, key = "#book.id",
+                    condition = "#book != null && #book.id != null", beforeInvocation = true),
+            @CacheEvict(cacheNames = BOOKS_BY_ISBN_CACHE, key = "#book.isbn",
+                    condition = "#book != null && #book.isbn != null", beforeInvocation = true)
+    })
     public void delete(Book book) {
         if(book == null || book.getId() == null){
             throw new IllegalArgumentException("Book id cant be null");
         }
         this.repository.delete(book);
+        afterCommit(() -> {
+            counts.invalidateAll();
+            matches.invalidateAll();
+            isbnIndex.remove(book.getIsbn());
+            searchIndex.remove(book.getId());
+            wrote(book);
+        });
     }
 
+    //os livros do cache são compartilhados: quem vai alterar um deles trabalha numa cópia (ver BookController.update).
+    //A remoção acontece antes da atualização para que, mesmo se ela falhar, a próxima leitura venha do banco
     @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = BOOKS_CACHE, key = "#book.id",
+                    condition = "#book != null && #book.id != null", beforeInvocation = true),
+            @CacheEvict(cacheNames = BOOKS_BY_ISBN_CACHE, key = "#book.isbn",
+                    condition = "#book != null && #book.isbn != null", beforeInvocation = true)
+    })
     public Book update(Book book) {
         if(book == null || book.getId() == null){
             throw new IllegalArgumentException("Book id cant be null");
         }
-        return this.repository.save(book);
+        Book updatedBook = this.repository.save(book);
+        afterCommit(() -> {
+            counts.invalidateAll();
+            matches.invalidateAll();
+            searchIndex.put(updatedBook.getId(), updatedBook.getTitle(), updatedBook.getAuthor());
+            wrote(updatedBook);
+        });
+        return updatedBook;
     }
 
+    //busca por título/autor vai para o índice em memória; id, isbn e ordenação explícita continuam no banco
     @Override
+    @ReplicaRead
     public Page<Book> find(Book filter, Pageable pageRequest) {
-        Example example = Example.of(filter,
+        if (pageRequest.isPaged() && useSearchIndex(filter, pageRequest.getSort())) {
+            return search(filter, pageRequest);
+        }
+        return repository.findAll(example(filter), pageRequest);
+    }
+
+    @Override
+    @ReplicaRead
+    public Slice<Book> findSlice(Book filter, Pageable pageRequest) {
+        if (pageRequest.isPaged() && useSearchIndex(filter, pageRequest.getSort())) {
+            return search(filter, pageRequest);
+        }
+        return repository.findSliceByFilter(filter, pageRequest);
+    }
+
+    //o total do modo cached pode vir de uma réplica um pouco atrasada; ele já é aproximado por COUNT_CACHE_TTL
+    @Override
+    @ReplicaRead
+    public BookCount count(Book filter, CountMode mode) {
+        if (useSearchIndex(filter, Sort.unsorted())) {
+            return new BookCount(matches(filter).length, true);
+        }
+        switch (mode) {
+            case CACHED:
+                return new BookCount(counts.get(countKey(filter), key -> repository.count(example(filter))), true);
+            case ESTIMATE:
+                return estimateCount(filter);
+            default:
+                return new BookCount(repository.count(example(filter)), true);
+        }
+    }
+
+    @Override
+    @ReplicaRead
+    @Cacheable(cacheNames = BOOKS_BY_ISBN_CACHE, key = "#isbn", unless = "#result == null || " + STALE_BY_ISBN)
+    public Optional<Book> getBookByIsbn(String isbn) {
+        //com o índice carregado, isbn que ele não conhece não existe e nem vai ao banco; esse vazio não fica no
+        //cache, para que o livro apareça assim que o índice o receber. Id do índice que não confere mais com o
+        //banco (livro removido ou alterado por outro nó) é procurado pelo isbn
+        long id = isbnIndex.get(isbn);
+        if (id == IsbnIndex.MISSING) {
+            return isbnIndex.isReady() ? Optional.empty() : repository.findByIsbn(isbn);
+        }
+        Optional<Book> book = repository.findById(id).filter(found -> isbn.equals(found.getIsbn()));
+        return book.isPresent() ? book : repository.findByIsbn(isbn);
+    }
+
+    @Override
+    @Transactional
+    public List<BookImportResultDTO> saveAll(List<Book> books) {
+        Set<String> registered = registeredIsbns(books);
+        Set<String> seen = new HashSet<>();
+        List<BookImportResultDTO> results = new ArrayList<>(books.size());
+        List<BookImportResultDTO> createdResults = new ArrayList<>();
+        List<Book> newBooks = new ArrayList<>();
+
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            BookImportResultDTO result = BookImportResultDTO.builder().index(i).isbn(book.getIsbn()).build();
+            if (registered.contains(book.getIsbn()) || !seen.add(book.getIsbn())) {
+                result.setStatus(BookImportResultDTO.Status.DUPLICATED);
+                result.setMessage("Isbn já cadastrado.");
+            } else {
+                result.setStatus(BookImportResultDTO.Status.CREATED);
+                createdResults.add(result);
+                newBooks.add(book);
+            }
+            results.add(result);
+        }
+
+        repository.insertInBatches(newBooks);
+        for (int i = 0; i < newBooks.size(); i++) {
+            createdResults.get(i).setId(newBooks.get(i).getId());
+        }
+        afterCommit(() -> {
+            counts.invalidateAll();
+            matches.invalidateAll();
+            newBooks.forEach(book -> {
+                isbnIndex.put(book.getIsbn(), book.getId());
+                searchIndex.put(book.getId(), book.getTitle(), book.getAuthor());
+                //um "não encontrado" consultado antes da importação fica no cache como nulo; remover em vez de
+                //incluir, como o save faz, para que uma importação grande não tire do cache os livros mais lidos
+                evict(BOOKS_CACHE, book.getId());
+                evict(BOOKS_BY_ISBN_CACHE, book.getIsbn());
+                wrote(book);
+            });
+        });
+        return results;
+    }
+
+    @Override
+    @ReplicaRead
+    @Transactional(readOnly = true)
+    public void export(Book filter, Consumer<Book> consumer) {
+        repository.forEachByFilter(filter, consumer);
+    }
+
+    @Override
+    @ReplicaRead
+    public Slice<Book> findAfter(Book filter, Keyset keyset, int size) {
+        // busca um a mais só para saber se existe próxima página, sem count
+        List<Book> books = repository.findByFilterAfter(filter, keyset, size + 1);
+        boolean hasNext = books.size() > size;
+        return new SliceImpl<>(hasNext ? books.subList(0, size) : books, PageRequest.of(0, size), hasNext);
+    }
+
+    private boolean useSearchIndex(Book filter, Sort sort) {
+        return searchIndex.isReady() && filter.getId() == null && filter.getIsbn() == null
+                && sort.isUnsorted()
+                && BookSearchIndex.isSearchable(filter.getTitle(), filter.getAuthor());
+    }
+
+    private Example<Book> example(Book filter) {
+        return Example.of(filter,
                 ExampleMatcher.matching()
                         .withIgnoreCase()
                         .withIgnoreNullValues()
                         .withStringMatcher( ExampleMatcher.StringMatcher.CONTAINING));
+    }
 
-        return repository.findAll(example, pageRequest);
+    //a busca não diferencia maiúsculas, então o mesmo filtro em outra caixa reaproveita o total
+    private static String countKey(Book filter) {
+        return filter.getId() + normalizedKeyPart(filter.getTitle())
+                + normalizedKeyPart(filter.getAuthor()) + normalizedKeyPart(filter.getIsbn());
     }
 
-    @Override
-    public Optional<Book> getBookByIsbn(String isbn) {
-        return repository.findByIsbn(isbn);
+    //prefixo com o tamanho para que valores contendo o separador não colidam
+    private static String normalizedKeyPart(String value) {
+        return value == null ? "|-" : "|" + value.length() + ":" + value.toLowerCase(Locale.ROOT);
+    }
+
+    //até ESTIMATE_EXACT_UP_TO livros conta exato; acima disso, os ids (em ordem) mostram que fração da tabela
+    //foi percorrida até achar esses livros, e o total é extrapolado para a tabela inteira
+    private BookCount estimateCount(Book filter) {
+        List<Long> ids = repository.findIdsByFilter(filter, ESTIMATE_EXACT_UP_TO + 1);
+        if (ids.size() <= ESTIMATE_EXACT_UP_TO) {
+            return new BookCount(ids.size(), true);
+        }
+        long scanned = repository.countByIdLessThanEqual(ids.get(ids.size() - 1));
+        long total = repository.count();
+        return new BookCount(Math.round(ids.size() * (double) total / Math.max(scanned, 1)), false);
+    }
+
+    //ordenado por relevância; só os livros da página pedida são lidos do banco
+    private Page<Book> search(Book filter, Pageable pageRequest) {
+        long[] ids = matches(filter);
+        int from = (int) Math.min(pageRequest.getOffset(), ids.length);
+        int to = Math.min(from + pageRequest.getPageSize(), ids.length);
+        List<Long> pageIds = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            pageIds.add(ids[i]);
+        }
+        Map<Long, Book> books = repository.findAllById(pageIds)
+                .stream()
+                .collect(Collectors.toMap(Book::getId, Function.identity()));
+        List<Book> content = pageIds.stream()
+                .map(books::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return new PageImpl<>(content, pageRequest, ids.length);
+    }
+
+    private long[] matches(Book filter) {
+        return matches.get(countKey(filter), key -> searchIndex.search(filter.getTitle(), filter.getAuthor()));
+    }
+
+    private Set<String> registeredIsbns(List<Book> books) {
+        Set<String> registered = new HashSet<>();
+        List<String> chunk = new ArrayList<>(ISBN_QUERY_CHUNK);
+        for (Book book : books) {
+            //com o índice carregado o banco não é consultado; antes disso, só os isbns que ele não conhece
+            if (isbnIndex.contains(book.getIsbn())) {
+                registered.add(book.getIsbn());
+                continue;
+            }
+            if (isbnIndex.isReady()) {
+                continue;
+            }
+            chunk.add(book.getIsbn());
+            if (chunk.size() == ISBN_QUERY_CHUNK) {
+                registered.addAll(repository.findIsbnsIn(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            registered.addAll(repository.findIsbnsIn(chunk));
+        }
+        return registered;
+    }
+
+    private static void wrote(Book book) {
+        ReplicaRouting.wrote(BOOKS_CACHE, book.getId());
+        ReplicaRouting.wrote(BOOKS_BY_ISBN_CACHE, book.getIsbn());
+    }
+
+    private void evict(String cacheName, Object key) {
+        Optional.ofNullable(cacheManager.getCache(cacheName)).ifPresent(cache -> cache.evict(key));
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private boolean isbnExists(String isbn) {
+        return isbnIndex.contains(isbn) || !isbnIndex.isReady() && repository.existsByIsbn(isbn);
     }
 }
@@ -1,34 +1,66 @@
 package com.cursodsousa.libraryapi.service.impl;
 
 import com.cursodsousa.libraryapi.service.EmailService;
+import com.cursodsousa.libraryapi.service.mail.MailDispatcher;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class EmailServiceImpl implements EmailService {
 
+    private static final String LATE_LOANS_SUBJECT = "Livro com empréstimo atrasado";
+
     @Value("${application.mail.default-remetent}")
     private String remetent;
 
-    private final JavaMailSender javaMailSender;
+    private final MailDispatcher dispatcher;
 
+    //uma mensagem por destinatário: um cliente não vê o e-mail dos outros e a falha de um não atrasa os demais
     @Override
     public void sendMails(String message, List<String> mailsList) {
+        int refused = 0;
+        try {
+            for (String mail : mailsList) {
+                if (!dispatcher.submit(mailMessage(LATE_LOANS_SUBJECT, message, mail))) {
+                    refused++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (refused > 0) {
+            log.warn(" {} of {} mails refused by the dispatch queue ", refused, mailsList.size());
+        }
+    }
 
-        String[] mails = mailsList.toArray(new String[mailsList.size()]);
+    @Override
+    public CompletableFuture<Boolean> sendMail(String subject, String message, String mail) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            if (!dispatcher.submit(mailMessage(subject, message, mail), result::complete)) {
+                result.complete(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.complete(false);
+        }
+        return result;
+    }
 
+    private SimpleMailMessage mailMessage(String subject, String message, String mail) {
         SimpleMailMessage mailMessage = new SimpleMailMessage();
         mailMessage.setFrom(remetent);
-        mailMessage.setSubject("Livro com empréstimo atrasado");
+        mailMessage.setSubject(subject);
         mailMessage.setText(message);
-        mailMessage.setTo(mails);
-
-        javaMailSender.send(mailMessage);
+        mailMessage.setTo(mail);
+        return mailMessage;
     }
 }
@@ -1,34 +1,105 @@
 package com.cursodsousa.libraryapi.service.impl;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutResultDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanReturnResultDTO;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
 import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
 import com.cursodsousa.libraryapi.service.LoanService;
+import com.cursodsousa.libraryapi.service.OverdueRange;
+import com.cursodsousa.libraryapi.service.ReplicaRead;
+import com.cursodsousa.libraryapi.service.index.DueDateIndex;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class LoanServiceImpl implements LoanService {
 
+    static final int BOOK_LOCK_STRIPES = 1024;
+    static final int LATE_LOANS_CHUNK = 500;
+    static final int DUE_LOANS_CHUNK = 1000;
+
     private LoanRepository repository;
+    private BookRepository bookRepository;
+    private OutboxEventRepository outboxRepository;
+    private DueDateIndex dueDates;
+    private TransactionOperations transactions;
+    private final StripedLocks bookLocks = new StripedLocks(BOOK_LOCK_STRIPES);
 
-    public LoanServiceImpl(LoanRepository repository) {
+    public LoanServiceImpl(LoanRepository repository, BookRepository bookRepository,
+                           OutboxEventRepository outboxRepository, DueDateIndex dueDates,
+                           TransactionOperations transactions) {
         this.repository = repository;
+        this.bookRepository = bookRepository;
+        this.outboxRepository = outboxRepository;
+        this.dueDates = dueDates;
+        this.transactions = transactions;
     }
 
+    /**
+     * Empresta o livro se ele não tiver empréstimo aberto.
+     *
+     * Verificação e insert rodam sob o lock do livro e na mesma transação, que termina antes de o lock ser
+     * liberado: pedidos simultâneos para o mesmo livro se enfileiram, os de outros livros seguem em paralelo.
+     * A verificação lê só book.active_loan_id pela chave primária, sem percorrer o histórico de empréstimos.
+     * Entre instâncias da aplicação quem decide é o índice único de loan.active_book_id.
+     * O aviso do empréstimo entra na outbox na mesma transação; depois do commit o empréstimo entra no
+     * índice de vencimentos.
+     */
     @Override
     public Loan save(Loan loan) {
-        if( repository.existsByBookAndNotReturned(loan.getBook()) ){
+        Long bookId = loan.getBook().getId();
+        Lock lock = bookLocks.forKey(bookId);
+        lock.lock();
+        try {
+            Loan saved = transactions.execute(status -> {
+                if( bookRepository.existsByIdAndActiveLoanIdIsNotNull(bookId) ){
+                    throw new BusinessException("Book already loaned");
+                }
+                Loan savedLoan = repository.save(loan);
+                if( bookRepository.claimForLoan(bookId, savedLoan.getId()) == 0 ){
+                    throw new BusinessException("Book already loaned");
+                }
+                outboxRepository.save(event(savedLoan.getId(), OutboxEvent.Type.CREATED));
+                return savedLoan;
+            });
+            trackDueDate(saved);
+            return saved;
+        } catch (DataIntegrityViolationException e) {
             throw new BusinessException("Book already loaned");
+        } finally {
+            lock.unlock();
         }
-        return repository.save(loan);
     }
 
     @Override
@@ -36,25 +107,294 @@ public class LoanServiceImpl implements LoanService {
         return repository.findById(id);
     }
 
+    /**
+     * Atualiza o empréstimo e o ponteiro book.active_loan_id na mesma transação:
+     * a devolução libera o livro, reabrir um empréstimo só é aceito se o livro estiver livre.
+     * Só a devolução que de fato liberou o livro gera aviso.
+     */
     @Override
     public Loan update(Loan loan) {
-        return repository.save(loan);
+        Loan updated = transactions.execute(status -> {
+            Long bookId = loan.getBook().getId();
+            if( Boolean.TRUE.equals(loan.getReturned()) ){
+                if( bookRepository.releaseLoan(bookId, loan.getId()) > 0 ){
+                    outboxRepository.save(event(loan.getId(), OutboxEvent.Type.RETURNED));
+                }
+            } else if( bookRepository.claimForLoan(bookId, loan.getId()) == 0 ){
+                throw new BusinessException("Book already loaned");
+            }
+            return repository.save(loan);
+        });
+        trackDueDate(updated);
+        return updated;
+    }
+
+    /**
+     * Empresta vários livros ao mesmo cliente, com resultado por isbn.
+     *
+     * Os isbns são resolvidos em uma consulta (in) e, já com os locks dos livros, a disponibilidade de todos
+     * em outra. Os empréstimos entram em lotes JDBC e os livros são marcados em um único lote, tudo na mesma
+     * transação. Isbns inexistentes, repetidos ou de livros emprestados não impedem os demais.
+     */
+    @Override
+    public List<LoanCheckoutResultDTO> saveAll(String customer, String email, List<String> isbns) {
+        Set<String> distinctIsbns = isbns.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, Book> booksByIsbn = new HashMap<>();
+        if (!distinctIsbns.isEmpty()) {
+            bookRepository.findByIsbnIn(distinctIsbns).forEach(book -> booksByIsbn.put(book.getIsbn(), book));
+        }
+
+        List<Lock> locks = bookLocks.forKeys(booksByIsbn.values().stream().map(Book::getId).collect(Collectors.toList()));
+        locks.forEach(Lock::lock);
+        try {
+            List<LoanCheckoutResultDTO> results = transactions.execute(status -> checkout(customer, email, isbns, booksByIsbn));
+            LocalDate today = LocalDate.now();
+            results.stream()
+                    .filter(result -> result.getStatus() == LoanCheckoutResultDTO.Status.CREATED)
+                    .forEach(result -> dueDates.put(result.getId(), today));
+            return results;
+        } catch (DataIntegrityViolationException e) {
+            throw new BusinessException("Book already loaned");
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Devolve vários empréstimos: uma consulta (in) para o estado de todos e dois lotes JDBC,
+     * um para os empréstimos e outro para liberar os livros, na mesma transação.
+     */
+    @Override
+    public List<LoanReturnResultDTO> returnAll(List<Long> ids) {
+        List<LoanReturnResultDTO> returned = transactions.execute(status -> {
+            Set<Long> distinctIds = ids.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+            Map<Long, Object[]> states = new HashMap<>();
+            if (!distinctIds.isEmpty()) {
+                repository.findReturnStateByIdIn(distinctIds).forEach(row -> states.put((Long) row[0], row));
+            }
+
+            Set<Long> seen = new HashSet<>();
+            List<LoanReturnResultDTO> results = new ArrayList<>(ids.size());
+            List<Long> returning = new ArrayList<>();
+            List<Long[]> releases = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                Long id = ids.get(i);
+                Object[] state = id == null ? null : states.get(id);
+                LoanReturnResultDTO result = LoanReturnResultDTO.builder().index(i).id(id).build();
+                if (state == null) {
+                    result.setStatus(LoanReturnResultDTO.Status.NOT_FOUND);
+                    result.setMessage("Loan not found");
+                } else if (Boolean.TRUE.equals(state[2]) || !seen.add(id)) {
+                    result.setStatus(LoanReturnResultDTO.Status.ALREADY_RETURNED);
+                    result.setMessage("Loan already returned");
+                } else {
+                    result.setStatus(LoanReturnResultDTO.Status.RETURNED);
+                    returning.add(id);
+                    releases.add(new Long[]{ (Long) state[1], id });
+                }
+                results.add(result);
+            }
+
+            repository.markReturned(returning);
+            bookRepository.releaseLoans(releases);
+            outboxRepository.saveAll(events(returning, OutboxEvent.Type.RETURNED));
+            return results;
+        });
+        returned.stream()
+                .filter(result -> result.getStatus() == LoanReturnResultDTO.Status.RETURNED)
+                .forEach(result -> dueDates.remove(result.getId()));
+        return returned;
+    }
+
+    @Override
+    @ReplicaRead
+    public Page<LoanDTO> findDTOs(LoanFilterDTO filterDTO, Pageable pageable) {
+        return repository.findDTOsByBookIsbnOrCustomer(filterDTO.getIsbn(), filterDTO.getCustomer(), pageable);
+    }
+
+    @Override
+    @ReplicaRead
+    public Page<LoanDTO> getLoanDTOsByBook(Book book, Pageable pageable) {
+        return repository.findDTOsByBook(book, pageable);
+    }
+
+    @Override
+    @ReplicaRead
+    public Slice<Loan> findAfter(LoanFilterDTO filterDTO, Keyset keyset, int size) {
+        return toSlice(repository.findByBookIsbnOrCustomerAfter(filterDTO, keyset, size + 1), size);
+    }
+
+    @Override
+    @ReplicaRead
+    public Slice<Loan> getLoansByBookAfter(Book book, Keyset keyset, int size) {
+        return toSlice(repository.findByBookAfter(book, keyset, size + 1), size);
+    }
+
+    @Override
+    public int markOverdueLoans() {
+        return getOverdueRange().map(this::markOverdueLoans).orElse(0);
     }
 
     @Override
-    public Page<Loan> find(LoanFilterDTO filterDTO, Pageable pageable) {
-        return repository.findByBookIsbnOrCustomer(filterDTO.getIsbn(), filterDTO.getCustomer(), pageable);
+    public Optional<OverdueRange> getOverdueRange() {
+        LocalDate limit = lateLoanLimit();
+        Object[] range = repository.findIdRangeByLoanDateUntil(limit).get(0);
+        if (range[0] == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new OverdueRange(limit, (Long) range[0], (Long) range[1]));
+    }
+
+    /**
+     * Percorre por um cursor os ids atrasados da faixa e grava os avisos em pedaços de {@link #LATE_LOANS_CHUNK},
+     * em uma transação: em memória fica só o pedaço atual, qualquer que seja o número de atrasados.
+     */
+    @Override
+    public int markOverdueLoans(OverdueRange range) {
+        LocalDateTime now = LocalDateTime.now();
+        return transactions.execute(status -> {
+            int marked = 0;
+            List<Long> chunk = new ArrayList<>(LATE_LOANS_CHUNK);
+            try (Stream<Number> overdueIds = repository.streamOverdueIds(range.getLimit(), range.getFromId(), range.getToId())) {
+                Iterator<Number> iterator = overdueIds.iterator();
+                while (iterator.hasNext()) {
+                    chunk.add(iterator.next().longValue());
+                    if (chunk.size() == LATE_LOANS_CHUNK || !iterator.hasNext()) {
+                        marked += outboxRepository.insertOverdueByIds(chunk, now);
+                        chunk.clear();
+                    }
+                }
+            }
+            return marked;
+        });
+    }
+
+    /**
+     * Tira do índice os empréstimos vencidos e grava os avisos em lotes de {@link #DUE_LOANS_CHUNK}, em uma
+     * transação. Se ela falhar, os empréstimos voltam ao índice para a próxima chamada.
+     */
+    @Override
+    public int markDueLoans() {
+        LocalDate today = LocalDate.now();
+        long[] due = dueDates.pollDue(today);
+        if (due.length == 0) {
+            return 0;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            return transactions.execute(status -> {
+                int marked = 0;
+                for (int from = 0; from < due.length; from += DUE_LOANS_CHUNK) {
+                    List<Long> chunk = new ArrayList<>(DUE_LOANS_CHUNK);
+                    for (int i = from; i < Math.min(due.length, from + DUE_LOANS_CHUNK); i++) {
+                        chunk.add(due[i]);
+                    }
+                    marked += outboxRepository.insertOverdueByIds(chunk, now);
+                }
+                return marked;
+            });
+        } catch (RuntimeException e) {
+            for (long loanId : due) {
+                dueDates.schedule(loanId, today);
+            }
+            throw e;
+        }
+    }
+
+    private LocalDate lateLoanLimit() {
+        return dueDates.lateLimit(LocalDate.now());
+    }
+
+    //aberto entra (ou troca de data) no índice de vencimentos, devolvido sai
+    private void trackDueDate(Loan loan) {
+        if (loan == null || loan.getId() == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(loan.getReturned()) || loan.getLoanDate() == null) {
+            dueDates.remove(loan.getId());
+        } else {
+            dueDates.put(loan.getId(), loan.getLoanDate());
+        }
     }
 
     @Override
-    public Page<Loan> getLoansByBook(Book book, Pageable pageable) {
-        return repository.findByBook(book, pageable);
+    public Optional<BookAvailabilityDTO> getAvailability(Long bookId) {
+        return bookRepository.findAvailabilityById(bookId);
     }
 
+    //a versão sai da mesma fonte que a página de getLoanDTOsByBook; do primário ela podia ficar à frente da página
     @Override
-    public List<Loan> getAllLateLoans() {
-        final Integer loanDays = 4;
-        LocalDate threeDaysAgo = LocalDate.now().minusDays(loanDays);
-        return repository.findByLoanDateLessThanAndNotReturned(threeDaysAgo);
+    @ReplicaRead
+    public Optional<String> getLoansVersionByBook(Long bookId) {
+        return bookRepository.findLoansVersionById(bookId)
+                .stream()
+                .findFirst()
+                .map(row -> row[0] + "." + row[1] + "." + (row[2] == null ? 0 : row[2]) + "." + (row[3] == null ? 0 : row[3]));
+    }
+
+    private List<LoanCheckoutResultDTO> checkout(String customer, String email, List<String> isbns,
+                                                 Map<String, Book> booksByIsbn) {
+        List<Long> bookIds = booksByIsbn.values().stream().map(Book::getId).collect(Collectors.toList());
+        Set<Long> loanedBookIds = bookIds.isEmpty()
+                ? Collections.emptySet()
+                : new HashSet<>(bookRepository.findLoanedIdsIn(bookIds));
+
+        Set<String> seen = new HashSet<>();
+        List<LoanCheckoutResultDTO> results = new ArrayList<>(isbns.size());
+        List<LoanCheckoutResultDTO> createdResults = new ArrayList<>();
+        List<Loan> newLoans = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < isbns.size(); i++) {
+            String isbn = isbns.get(i);
+            Book book = booksByIsbn.get(isbn);
+            LoanCheckoutResultDTO result = LoanCheckoutResultDTO.builder().index(i).isbn(isbn).build();
+            if (!seen.add(isbn)) {
+                result.setStatus(LoanCheckoutResultDTO.Status.DUPLICATED);
+                result.setMessage("Isbn repeated in the request");
+            } else if (book == null) {
+                result.setStatus(LoanCheckoutResultDTO.Status.BOOK_NOT_FOUND);
+                result.setMessage("Book not found for passed isbn");
+            } else if (loanedBookIds.contains(book.getId())) {
+                result.setStatus(LoanCheckoutResultDTO.Status.ALREADY_LOANED);
+                result.setMessage("Book already loaned");
+            } else {
+                result.setStatus(LoanCheckoutResultDTO.Status.CREATED);
+                createdResults.add(result);
+                newLoans.add(Loan.builder().book(book).customer(customer).customerEmail(email).loanDate(today).build());
+            }
+            results.add(result);
+        }
+
+        //ids vêm da sequence, então o Hibernate agrupa os inserts em lotes de hibernate.jdbc.batch_size
+        repository.saveAll(newLoans);
+        List<Long[]> claims = new ArrayList<>(newLoans.size());
+        newLoans.forEach(loan -> claims.add(new Long[]{ loan.getBook().getId(), loan.getId() }));
+        for (int claimed : bookRepository.claimForLoans(claims)) {
+            if (claimed == 0) {
+                //outra instância emprestou o livro depois da verificação: desfaz o lote inteiro
+                throw new BusinessException("Book already loaned");
+            }
+        }
+        outboxRepository.saveAll(events(newLoans.stream().map(Loan::getId).collect(Collectors.toList()),
+                OutboxEvent.Type.CREATED));
+        for (int i = 0; i < newLoans.size(); i++) {
+            createdResults.get(i).setId(newLoans.get(i).getId());
+        }
+        return results;
+    }
+
+    private static OutboxEvent event(Long loanId, OutboxEvent.Type type) {
+        return OutboxEvent.builder().loanId(loanId).type(type).build();
+    }
+
+    private static List<OutboxEvent> events(List<Long> loanIds, OutboxEvent.Type type) {
+        return loanIds.stream().map(id -> event(id, type)).collect(Collectors.toList());
+    }
+
+    private Slice<Loan> toSlice(List<Loan> loans, int size) {
+        boolean hasNext = loans.size() > size;
+        return new SliceImpl<>(hasNext ? loans.subList(0, size) : loans, PageRequest.of(0, size), hasNext);
     }
 }
@@ -0,0 +1,52 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Um lock por chave (id do livro), distribuído em um número fixo de faixas: chaves diferentes quase sempre
+ * caem em locks diferentes e a memória não cresce com o acervo. Duas chaves na mesma faixa só se esperam
+ * uma à outra, nunca bloqueiam o restante.
+ */
+final class StripedLocks {
+
+    private final Lock[] stripes;
+    private final int mask;
+
+    StripedLocks(int minimumStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        this.stripes = new Lock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    Lock forKey(long key) {
+        return stripes[stripe(key)];
+    }
+
+    //locks das chaves sem repetição, sempre na ordem das faixas: quem precisa de vários os adquire nessa ordem
+    //e dois pedidos com livros em comum não ficam esperando um pelo outro (deadlock)
+    List<Lock> forKeys(Collection<Long> keys) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        keys.forEach(key -> indexes.add(stripe(key)));
+        List<Lock> locks = new ArrayList<>(indexes.size());
+        indexes.forEach(index -> locks.add(stripes[index]));
+        return locks;
+    }
+
+    int size() {
+        return stripes.length;
+    }
+
+    private int stripe(long key) {
+        // espalha ids sequenciais pelos bits baixos
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,41 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class BookIndexLoader {
+
+    private final BookRepository repository;
+    private final IsbnIndex isbnIndex;
+    private final BookSearchIndex searchIndex;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        isbnIndex.rebuild(repository::streamIdAndIsbn);
+        log.info(" isbn index loaded with {} books ({} bytes) ", isbnIndex.size(), isbnIndex.memoryFootprintBytes());
+
+        searchIndex.rebuild(repository::streamIdTitleAndAuthor);
+        log.info(" search index loaded with {} books ({} bytes) ", searchIndex.size(), searchIndex.memoryFootprintBytes());
+    }
+
+    //os índices só veem as escritas deste nó; livros incluídos, alterados ou removidos por outros nós e pelo
+    //módulo reativo entram aqui. O primeiro ciclo espera o intervalo inteiro, depois da carga do load()
+    @Scheduled(fixedDelayString = "${application.books.index.refresh:300000}",
+            initialDelayString = "${application.books.index.refresh:300000}")
+    @Transactional(readOnly = true)
+    public void refresh() {
+        isbnIndex.rebuild(repository::streamIdAndIsbn);
+        searchIndex.rebuild(repository::streamIdTitleAndAuthor);
+        log.debug(" book indexes refreshed with {} isbns and {} searchable books ", isbnIndex.size(), searchIndex.size());
+    }
+}
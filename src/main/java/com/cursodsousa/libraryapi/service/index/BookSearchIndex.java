@@ -0,0 +1,189 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Busca textual em memória por título e autor, sobre um {@link TrigramTable}.
+ *
+ * Textos e consultas são normalizados (minúsculas, sem acentos, espaços simples) e a consulta de cada campo
+ * é quebrada em termos: o livro precisa conter todos eles, em qualquer posição. Enquanto o índice não foi
+ * carregado ({@link #isReady()}), ou quando a consulta não tem termo com 3 ou mais caracteres
+ * ({@link #isSearchable(String, String)}), quem usa deve consultar o banco. Livros gravados por outros nós ou pelo
+ * módulo reativo só entram na próxima recarga periódica (ver BookIndexLoader).
+ */
+@Component
+public class BookSearchIndex implements MeterBinder {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final int MIN_TERM_LENGTH = 3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private TrigramTable table = new TrigramTable();
+    //escritas feitas durante um rebuild (texto nulo para remoção), aplicadas na tabela nova antes da troca
+    private Map<Long, String[]> pending;
+    private volatile boolean ready;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public static boolean isSearchable(String title, String author) {
+        String[] titleTerms = terms(title);
+        String[] authorTerms = terms(author);
+        if ((title != null && titleTerms.length == 0) || (author != null && authorTerms.length == 0)) {
+            return false;
+        }
+        return hasIndexableTerm(titleTerms) || hasIndexableTerm(authorTerms);
+    }
+
+    public void put(long id, String title, String author) {
+        String normalizedTitle = normalize(title);
+        String normalizedAuthor = normalize(author);
+        lock.writeLock().lock();
+        try {
+            table.put(id, normalizedTitle, normalizedAuthor);
+            if (pending != null) {
+                pending.put(id, new String[]{ normalizedTitle, normalizedAuthor });
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            table.remove(id);
+            if (pending != null) {
+                pending.put(id, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids dos livros que atendem à consulta, do mais relevante para o menos.
+     * Campos nulos não restringem a busca.
+     */
+    public long[] search(String title, String author) {
+        if (!isSearchable(title, author)) {
+            throw new IllegalArgumentException("Query needs a term with at least " + MIN_TERM_LENGTH + " characters");
+        }
+        String[][] terms = new String[TrigramTable.FIELDS][];
+        terms[TrigramTable.TITLE] = title == null ? null : terms(title);
+        terms[TrigramTable.AUTHOR] = author == null ? null : terms(author);
+        lock.readLock().lock();
+        try {
+            return table.search(terms);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recria o índice a partir de linhas (id, título, autor) e passa a responder pelas buscas.
+     * A tabela nova é montada fora do lock e trocada de uma vez; inclusões, alterações e remoções feitas enquanto
+     * as linhas são lidas são reaplicadas nela antes da troca.
+     */
+    public synchronized void rebuild(Supplier<Stream<Object[]>> idTitleAndAuthorRows) {
+        record(new HashMap<>());
+        try {
+            TrigramTable newTable = new TrigramTable();
+            try (Stream<Object[]> rows = idTitleAndAuthorRows.get()) {
+                rows.forEach(row ->
+                        newTable.put(((Number) row[0]).longValue(), normalize((String) row[1]), normalize((String) row[2])));
+            }
+
+            lock.writeLock().lock();
+            try {
+                pending.forEach((id, texts) -> {
+                    if (texts == null) {
+                        newTable.remove(id);
+                    } else {
+                        newTable.put(id, texts[TrigramTable.TITLE], texts[TrigramTable.AUTHOR]);
+                    }
+                });
+                table = newTable;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            record(null);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return table.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long memoryFootprintBytes() {
+        lock.readLock().lock();
+        try {
+            return table.memoryFootprintBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("books.search.index.entries", this, BookSearchIndex::size)
+                .description("Books in the in-memory title/author search index")
+                .register(registry);
+        Gauge.builder("books.search.index.memory", this, BookSearchIndex::memoryFootprintBytes)
+                .description("Estimated heap used by the in-memory title/author search index")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private void record(Map<Long, String[]> writes) {
+        lock.writeLock().lock();
+        try {
+            pending = writes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String withoutMarks = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SPACES.matcher(withoutMarks.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    static String[] terms(String query) {
+        String normalized = normalize(query);
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    private static boolean hasIndexableTerm(String[] terms) {
+        for (String term : terms) {
+            if (term.length() >= MIN_TERM_LENGTH) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
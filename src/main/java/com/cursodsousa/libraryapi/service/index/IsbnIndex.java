@@ -0,0 +1,221 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Índice em memória isbn -> id do livro.
+ *
+ * ISBNs formados só por dígitos (até 18, com 'X' opcional no fim) são codificados em um long e guardados
+ * em um {@link LongLongHashMap}, então consultas não alocam objetos. Os demais vão para um mapa auxiliar.
+ * Depois de carregado ({@link #isReady()}) uma ausência é tratada como resposta: livros incluídos por outro nó ou
+ * pelo módulo reativo só aparecem no próximo BookIndexLoader.refresh, e um isbn repetido nesse intervalo é
+ * recusado pelo índice único do banco. Antes da carga, quem usa deve consultar o banco.
+ */
+@Component
+public class IsbnIndex implements MeterBinder {
+
+    public static final long MISSING = -1L;
+
+    private static final int MAX_ENCODED_DIGITS = 18;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private LongLongHashMap table = new LongLongHashMap();
+    private Map<String, Long> irregular = new HashMap<>();
+    //escritas feitas durante um rebuild (MISSING para remoção), aplicadas nas tabelas novas antes da troca
+    private Map<String, Long> pending;
+    private volatile boolean ready;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean contains(String isbn) {
+        return get(isbn) != MISSING;
+    }
+
+    public long get(String isbn) {
+        if (isbn == null) {
+            return MISSING;
+        }
+        long key = encode(isbn);
+        lock.readLock().lock();
+        try {
+            if (key != 0L) {
+                return table.get(key, MISSING);
+            }
+            Long id = irregular.get(isbn);
+            return id == null ? MISSING : id;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(String isbn, long id) {
+        if (isbn == null) {
+            return;
+        }
+        long key = encode(isbn);
+        lock.writeLock().lock();
+        try {
+            if (key != 0L) {
+                table.put(key, id);
+            } else {
+                irregular.put(isbn, id);
+            }
+            if (pending != null) {
+                pending.put(isbn, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String isbn) {
+        if (isbn == null) {
+            return;
+        }
+        long key = encode(isbn);
+        lock.writeLock().lock();
+        try {
+            if (key != 0L) {
+                table.remove(key);
+            } else {
+                irregular.remove(isbn);
+            }
+            if (pending != null) {
+                pending.put(isbn, MISSING);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Recria o índice a partir de linhas (id, isbn) e passa a responder pelas consultas.
+     * As tabelas novas são montadas fora do lock e trocadas de uma vez. Inclusões e remoções feitas enquanto as
+     * linhas são lidas ficam registradas e são reaplicadas nas tabelas novas antes da troca; por isso a consulta
+     * só é aberta depois que o registro começa.
+     */
+    public synchronized void rebuild(Supplier<Stream<Object[]>> idAndIsbnRows) {
+        record(new HashMap<>());
+        try {
+            LongLongHashMap newTable = new LongLongHashMap();
+            Map<String, Long> newIrregular = new HashMap<>();
+            try (Stream<Object[]> rows = idAndIsbnRows.get()) {
+                rows.forEach(row -> {
+                    String isbn = (String) row[1];
+                    if (isbn != null) {
+                        put(newTable, newIrregular, isbn, ((Number) row[0]).longValue());
+                    }
+                });
+            }
+
+            lock.writeLock().lock();
+            try {
+                pending.forEach((isbn, id) -> put(newTable, newIrregular, isbn, id));
+                table = newTable;
+                irregular = newIrregular;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            record(null);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return table.size() + irregular.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long memoryFootprintBytes() {
+        lock.readLock().lock();
+        try {
+            // entrada de HashMap (32) + Long (16) + String com char[] de ~13 posições (72)
+            return table.memoryFootprintBytes() + irregular.size() * 120L;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Memória da tabela primitiva para um acervo com {@code books} ISBNs numéricos.
+     * Para 10.000.000 de livros: 16.777.216 posições, 268.435.488 bytes (~256 MiB).
+     */
+    public static long estimateFootprintBytes(long books) {
+        return LongLongHashMap.footprintForCapacity(LongLongHashMap.capacityFor(books));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("books.isbn.index.entries", this, IsbnIndex::size)
+                .description("ISBNs in the in-memory index")
+                .register(registry);
+        Gauge.builder("books.isbn.index.memory", this, IsbnIndex::memoryFootprintBytes)
+                .description("Estimated heap used by the in-memory ISBN index")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private void record(Map<String, Long> writes) {
+        lock.writeLock().lock();
+        try {
+            pending = writes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void put(LongLongHashMap table, Map<String, Long> irregular, String isbn, long id) {
+        long key = encode(isbn);
+        if (key == 0L) {
+            if (id == MISSING) {
+                irregular.remove(isbn);
+            } else {
+                irregular.put(isbn, id);
+            }
+        } else if (id == MISSING) {
+            table.remove(key);
+        } else {
+            table.put(key, id);
+        }
+    }
+
+    /**
+     * Codifica o isbn em um long sem alocar: "1" + dígitos, deslocado de 1 bit para o 'X' final.
+     * Retorna 0 quando o isbn não cabe nesse formato.
+     */
+    static long encode(String isbn) {
+        int length = isbn.length();
+        if (length == 0 || length > MAX_ENCODED_DIGITS) {
+            return 0L;
+        }
+        long value = 1L;
+        int checkX = 0;
+        for (int i = 0; i < length; i++) {
+            char c = isbn.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (c == 'X' && i == length - 1) {
+                checkX = 1;
+            } else {
+                return 0L;
+            }
+        }
+        return (value << 1) | checkX;
+    }
+}
@@ -0,0 +1,25 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LoanIndexLoader {
+
+    private final LoanRepository repository;
+    private final DueDateIndex dueDateIndex;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        dueDateIndex.rebuild(repository::streamOpenIdAndLoanDate);
+        log.info(" due date index loaded with {} open loans ({} bytes) ", dueDateIndex.size(), dueDateIndex.memoryFootprintBytes());
+    }
+}
@@ -0,0 +1,291 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Índice de trigramas sobre título e autor dos livros, com os textos já normalizados.
+ *
+ * Cada livro ocupa uma posição (slot) e, para cada trigrama de cada campo, existe uma lista ordenada dos
+ * slots que o contêm. Uma busca intersecta as listas dos trigramas dos termos, começando pela menor, e confere
+ * os candidatos no texto guardado; o custo acompanha a lista mais seletiva, não o tamanho do acervo.
+ * Não é thread-safe.
+ */
+class TrigramTable {
+
+    static final int TITLE = 0;
+    static final int AUTHOR = 1;
+    static final int FIELDS = 2;
+
+    private static final int INITIAL_SLOTS = 64;
+
+    private final LongLongHashMap slotsById = new LongLongHashMap();
+    private final LongLongHashMap postingsByTrigram = new LongLongHashMap();
+    private PostingList[] postings = new PostingList[INITIAL_SLOTS];
+    private int postingCount;
+
+    private long[] ids = new long[INITIAL_SLOTS];
+    private final String[][] texts = new String[FIELDS][INITIAL_SLOTS];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    //memória dos textos e das listas de slots, mantida a cada inclusão e remoção para não percorrer o índice
+    private long textBytes;
+    private long postingBytes;
+
+    void put(long id, String title, String author) {
+        remove(id);
+        int slot = newSlot();
+        ids[slot] = id;
+        texts[TITLE][slot] = title;
+        texts[AUTHOR][slot] = author;
+        slotsById.put(id, slot);
+        for (int field = 0; field < FIELDS; field++) {
+            textBytes += textBytes(texts[field][slot]);
+            for (long trigram : trigrams(field, texts[field][slot])) {
+                PostingList list = postingList(trigram, true);
+                int capacity = list.slots.length;
+                list.add(slot);
+                postingBytes += (list.slots.length - capacity) * 4L;
+            }
+        }
+    }
+
+    boolean remove(long id) {
+        int slot = (int) slotsById.get(id, -1L);
+        if (slot < 0) {
+            return false;
+        }
+        slotsById.remove(id);
+        for (int field = 0; field < FIELDS; field++) {
+            for (long trigram : trigrams(field, texts[field][slot])) {
+                postingList(trigram, false).remove(slot);
+            }
+            textBytes -= textBytes(texts[field][slot]);
+            texts[field][slot] = null;
+        }
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        return true;
+    }
+
+    /**
+     * Ids dos livros cujos campos contêm todos os termos pedidos, do mais relevante para o menos.
+     * {@code terms[field]} nulo não restringe o campo. Ao menos um termo precisa ter 3 ou mais caracteres.
+     */
+    long[] search(String[][] terms) {
+        List<PostingList> lists = new ArrayList<>();
+        for (int field = 0; field < FIELDS; field++) {
+            if (terms[field] == null) {
+                continue;
+            }
+            for (String term : terms[field]) {
+                for (long trigram : trigrams(field, term)) {
+                    PostingList list = postingList(trigram, false);
+                    if (list == null || list.size == 0) {
+                        return new long[0];
+                    }
+                    lists.add(list);
+                }
+            }
+        }
+        if (lists.isEmpty()) {
+            throw new IllegalArgumentException("At least one term must have 3 or more characters");
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        PostingList smallest = lists.get(0);
+        int[] candidates = Arrays.copyOf(smallest.slots, smallest.size);
+        int count = candidates.length;
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            PostingList list = lists.get(i);
+            int kept = 0;
+            for (int c = 0; c < count; c++) {
+                if (list.contains(candidates[c])) {
+                    candidates[kept++] = candidates[c];
+                }
+            }
+            count = kept;
+        }
+
+        // os trigramas só garantem candidatos; o termo inteiro precisa aparecer no texto
+        List<Hit> hits = new ArrayList<>(count);
+        for (int c = 0; c < count; c++) {
+            int slot = candidates[c];
+            int score = 0;
+            int length = 0;
+            for (int field = 0; field < FIELDS && score >= 0; field++) {
+                if (terms[field] != null) {
+                    int fieldScore = score(texts[field][slot], terms[field]);
+                    score = fieldScore < 0 ? -1 : score + fieldScore;
+                    length += texts[field][slot].length();
+                }
+            }
+            if (score >= 0) {
+                hits.add(new Hit(ids[slot], score, length));
+            }
+        }
+        hits.sort(Hit.RANKING);
+
+        long[] result = new long[hits.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = hits.get(i).id;
+        }
+        return result;
+    }
+
+    int size() {
+        return slotsById.size();
+    }
+
+    int trigramCount() {
+        return postingsByTrigram.size();
+    }
+
+    long memoryFootprintBytes() {
+        long bytes = slotsById.memoryFootprintBytes() + postingsByTrigram.memoryFootprintBytes();
+        bytes += 16 + postings.length * 4L + 16 + ids.length * 8L + 16 + freeSlots.length * 4L;
+        bytes += FIELDS * (16 + ids.length * 4L);
+        return bytes + postingBytes + textBytes;
+    }
+
+    // String (24) + char[] (16 + 2 por caractere)
+    private static long textBytes(String text) {
+        return text == null ? 0 : 40 + text.length() * 2L;
+    }
+
+    /**
+     * Pontuação do campo: 1 por termo encontrado, mais 2 quando ele começa uma palavra,
+     * 3 quando os termos aparecem juntos e na ordem e 5 quando o campo é exatamente a consulta.
+     * Retorna -1 quando algum termo não aparece.
+     */
+    static int score(String text, String[] terms) {
+        int score = 0;
+        for (String term : terms) {
+            int at = text.indexOf(term);
+            if (at < 0) {
+                return -1;
+            }
+            score += at == 0 || text.charAt(at - 1) == ' ' ? 3 : 1;
+        }
+        String phrase = String.join(" ", terms);
+        if (text.equals(phrase)) {
+            score += 5;
+        } else if (terms.length > 1 && text.contains(phrase)) {
+            score += 3;
+        }
+        return score;
+    }
+
+    // trigramas distintos do texto, sem os que atravessam espaços
+    private static long[] trigrams(int field, String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] trigrams = new long[text.length() - 2];
+        int count = 0;
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            char a = text.charAt(i);
+            char b = text.charAt(i + 1);
+            char c = text.charAt(i + 2);
+            if (a != ' ' && b != ' ' && c != ' ') {
+                trigrams[count++] = ((long) (field + 1) << 48) | ((long) a << 32) | ((long) b << 16) | c;
+            }
+        }
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[distinct - 1] != trigrams[i]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    private PostingList postingList(long trigram, boolean create) {
+        int index = (int) postingsByTrigram.get(trigram, -1L);
+        if (index >= 0) {
+            return postings[index];
+        }
+        if (!create) {
+            return null;
+        }
+        if (postingCount == postings.length) {
+            postings = Arrays.copyOf(postings, postingCount * 2);
+        }
+        PostingList list = new PostingList();
+        // objeto (24) + array (16 + 4 por slot)
+        postingBytes += 40 + list.slots.length * 4L;
+        postings[postingCount] = list;
+        postingsByTrigram.put(trigram, postingCount++);
+        return list;
+    }
+
+    private int newSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == ids.length) {
+            int capacity = slotCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            for (int field = 0; field < FIELDS; field++) {
+                texts[field] = Arrays.copyOf(texts[field], capacity);
+            }
+        }
+        return slotCount++;
+    }
+
+    private static final class Hit {
+
+        static final Comparator<Hit> RANKING = Comparator.comparingInt((Hit hit) -> -hit.score)
+                .thenComparingInt(hit -> hit.length)
+                .thenComparingLong(hit -> hit.id);
+
+        final long id;
+        final int score;
+        final int length;
+
+        Hit(long id, int score, int length) {
+            this.id = id;
+            this.score = score;
+            this.length = length;
+        }
+    }
+
+    // slots em ordem crescente
+    private static final class PostingList {
+
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size + (size >> 1));
+            }
+            System.arraycopy(slots, at, slots, at + 1, size - at);
+            slots[at] = slot;
+            size++;
+        }
+
+        void remove(int slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at >= 0) {
+                System.arraycopy(slots, at + 1, slots, at, size - at - 1);
+                size--;
+            }
+        }
+
+        boolean contains(int slot) {
+            return Arrays.binarySearch(slots, 0, size, slot) >= 0;
+        }
+    }
+}
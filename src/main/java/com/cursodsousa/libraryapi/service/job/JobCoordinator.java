@@ -0,0 +1,217 @@
+package com.cursodsousa.libraryapi.service.job;
+
+import com.cursodsousa.libraryapi.model.entity.ClusterNode;
+import com.cursodsousa.libraryapi.model.repository.ClusterNodeRepository;
+import com.cursodsousa.libraryapi.model.repository.JobLeaseRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Coordena jobs agendados entre as instâncias da aplicação pela tabela job_lease.
+ *
+ * Um job, ou uma partição dele, é de quem conseguir marcar a linha com o prazo anterior vencido. Ao terminar, o
+ * prazo passa a ser o início da execução mais {@code hold}: a instância cujo agendamento dispara um pouco depois
+ * encontra o job ainda ocupado e não o repete. Enquanto a tarefa roda, o lease é renovado a cada terço do prazo,
+ * então uma tarefa mais longa que {@code lease} não é assumida por outra instância no meio; se a instância cair, o
+ * job fica livre quando o último lease renovado vencer. Os prazos seguem o relógio do banco.
+ *
+ * As instâncias vivas (heartbeat em cluster_node) só espalham as partições: cada uma começa a pegá-las de um
+ * ponto diferente e segue pelas demais, então nenhuma partição fica sem dono mesmo que as instâncias não
+ * concordem sobre quem está vivo.
+ */
+@Component
+@Slf4j
+public class JobCoordinator {
+
+    private final JobLeaseRepository leases;
+    private final ClusterNodeRepository nodes;
+    private final TransactionOperations transactions;
+    private final String nodeId;
+    private final Duration nodeTtl;
+    private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "job-lease-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public JobCoordinator(JobLeaseRepository leases,
+                          ClusterNodeRepository nodes,
+                          TransactionOperations transactions,
+                          @Value("${application.cluster.node-id:}") String nodeId,
+                          @Value("${application.cluster.node-ttl:30000}") long nodeTtlMillis) {
+        this.leases = leases;
+        this.nodes = nodes;
+        this.transactions = transactions;
+        this.nodeId = StringUtils.hasText(nodeId) ? nodeId : defaultNodeId();
+        this.nodeTtl = Duration.ofMillis(nodeTtlMillis);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${application.cluster.heartbeat:10000}")
+    public void heartbeat() {
+        transactions.execute(status -> {
+            LocalDateTime now = leases.now().toLocalDateTime();
+            if (nodes.heartbeat(nodeId, now) == 0) {
+                nodes.save(new ClusterNode(nodeId, now));
+            }
+            return nodes.deleteDead(now.minus(nodeTtl.multipliedBy(10)));
+        });
+    }
+
+    //saída normal: as outras instâncias deixam de contar com esta na hora
+    @PreDestroy
+    public void leave() {
+        renewals.shutdownNow();
+        transactions.execute(status -> {
+            nodes.deleteById(nodeId);
+            return null;
+        });
+    }
+
+    public List<String> liveNodes() {
+        return transactions.execute(status -> nodes.findLiveIds(leases.now().toLocalDateTime().minus(nodeTtl)));
+    }
+
+    /**
+     * Executa a tarefa se nenhuma outra instância estiver com o job. Retorna se executou.
+     */
+    public boolean runExclusive(String job, Duration lease, Duration hold, Runnable task) {
+        LocalDateTime acquiredAt = acquire(job, lease);
+        if (acquiredAt == null) {
+            log.debug(" job {} is held by another node ", job);
+            return false;
+        }
+        run(job, acquiredAt, lease, hold, task);
+        return true;
+    }
+
+    /**
+     * Divide o job em {@code partitions} partições, cada uma com seu próprio lease, e executa aqui as que
+     * conseguir pegar. Retorna quantas partições foram executadas nesta instância.
+     */
+    public int runPartitioned(String job, int partitions, Duration lease, Duration hold, IntConsumer task) {
+        List<String> live = liveNodes();
+        int index = Math.max(0, live.indexOf(nodeId));
+        int first = live.isEmpty() ? 0 : index * partitions / live.size();
+
+        int executed = 0;
+        for (int i = 0; i < partitions; i++) {
+            int partition = (first + i) % partitions;
+            String name = job + "#" + partition;
+            LocalDateTime acquiredAt = acquire(name, lease);
+            if (acquiredAt != null) {
+                run(name, acquiredAt, lease, hold, () -> task.accept(partition));
+                executed++;
+            }
+        }
+        log.info(" job {}: {} of {} partitions executed by {} ({} live nodes) ", job, executed, partitions, nodeId, live.size());
+        return executed;
+    }
+
+    //data de início pelo relógio do banco ou nulo se outra instância está com o job
+    private LocalDateTime acquire(String job, Duration lease) {
+        try {
+            return transactions.execute(status -> {
+                LocalDateTime now = leases.now().toLocalDateTime();
+                if (leases.acquire(job, nodeId, now.plus(lease), now) == 1) {
+                    return now;
+                }
+                if (leases.existsById(job)) {
+                    return null;
+                }
+                leases.create(job, nodeId, now.plus(lease));
+                return now;
+            });
+        } catch (DataIntegrityViolationException e) {
+            //outra instância criou a linha do job primeiro
+            return null;
+        }
+    }
+
+    //com sucesso, o job fica ocupado até acquiredAt + hold; com erro, fica livre para outra tentativa
+    private void run(String job, LocalDateTime acquiredAt, Duration lease, Duration hold, Runnable task) {
+        Renewal renewal = new Renewal(job, lease);
+        long period = Math.max(1, lease.toMillis() / 3);
+        ScheduledFuture<?> renewing = renewals.scheduleWithFixedDelay(renewal, period, period, TimeUnit.MILLISECONDS);
+        boolean done = false;
+        try {
+            task.run();
+            done = true;
+        } finally {
+            renewal.stop();
+            renewing.cancel(false);
+            boolean held = done;
+            transactions.execute(status -> {
+                LocalDateTime now = leases.now().toLocalDateTime();
+                LocalDateTime until = held && acquiredAt.plus(hold).isAfter(now) ? acquiredAt.plus(hold) : now;
+                return leases.release(job, nodeId, until);
+            });
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    //estende o lease do job em andamento; depois de stop() não grava mais, para não passar por cima do release
+    private final class Renewal implements Runnable {
+
+        private final String job;
+        private final Duration lease;
+        private boolean stopped;
+
+        Renewal(String job, Duration lease) {
+            this.job = job;
+            this.lease = lease;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (stopped) {
+                return;
+            }
+            try {
+                Integer renewed = transactions.execute(status ->
+                        leases.renew(job, nodeId, leases.now().toLocalDateTime().plus(lease)));
+                if (renewed == null || renewed == 0) {
+                    log.warn(" job {} is no longer held by {} ", job, nodeId);
+                }
+            } catch (RuntimeException e) {
+                log.warn(" could not renew the lease of job {}: {} ", job, e.getMessage());
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.cursodsousa.libraryapi.service.mail;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Envio assíncrono de e-mails.
+ *
+ * {@link #submit(SimpleMailMessage)} só coloca a mensagem em uma fila limitada; quando ela está cheia, quem
+ * envia espera até {@code enqueue-timeout} e depois a mensagem é recusada. Os workers tiram da fila lotes de até
+ * {@code batch-size} mensagens e enviam cada lote em uma única conexão SMTP, respeitando o limite de
+ * {@code rate-per-second} mensagens. Uma mensagem que falha volta para a fila depois de {@code backoff}, que dobra
+ * a cada tentativa, até {@code max-attempts} tentativas; as demais mensagens do lote não são reenviadas.
+ */
+@Component
+@Slf4j
+public class MailDispatcher implements MeterBinder {
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final MailSender sender;
+    private final BlockingQueue<Envelope> queue;
+    private final int workers;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long enqueueTimeoutMillis;
+    private final RateLimiter rateLimiter;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchNanos = new AtomicLong();
+    //aceitas e ainda sem resultado: na fila, em envio ou esperando nova tentativa
+    private final AtomicLong pending = new AtomicLong();
+    //esperando o backoff no retryScheduler; quem tirar a mensagem daqui (a tentativa ou o stop) decide o destino dela
+    private final Set<Envelope> scheduledRetries = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService workerPool;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean stopped;
+
+    public MailDispatcher(MailSender sender,
+                          @Value("${application.mail.dispatch.queue-capacity:10000}") int queueCapacity,
+                          @Value("${application.mail.dispatch.workers:4}") int workers,
+                          @Value("${application.mail.dispatch.batch-size:50}") int batchSize,
+                          @Value("${application.mail.dispatch.max-attempts:5}") int maxAttempts,
+                          @Value("${application.mail.dispatch.backoff:500}") long backoffMillis,
+                          @Value("${application.mail.dispatch.enqueue-timeout:30000}") long enqueueTimeoutMillis,
+                          @Value("${application.mail.dispatch.rate-per-second:100}") double ratePerSecond) {
+        this.sender = sender;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.rateLimiter = new RateLimiter(ratePerSecond);
+    }
+
+    @PostConstruct
+    public void start() {
+        workerPool = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("mail-dispatch-"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("mail-retry-"));
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(this::work);
+        }
+    }
+
+    /**
+     * Para de aceitar mensagens e espera os workers esvaziarem a fila. Tentativas ainda agendadas e o que sobrar
+     * na fila são descartados como falha: contam em failed e {@code onResult} recebe false.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        stopped = true;
+        retryScheduler.shutdownNow();
+        //uma tentativa em andamento termina de devolver a mensagem à fila antes de os workers a esvaziarem
+        retryScheduler.awaitTermination(5, TimeUnit.SECONDS);
+        List<Envelope> retries = new ArrayList<>(scheduledRetries);
+        retries.removeIf(envelope -> !scheduledRetries.remove(envelope));
+        retries.forEach(this::drop);
+
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+            workerPool.shutdownNow();
+        }
+        List<Envelope> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        queued.forEach(this::drop);
+        if (!retries.isEmpty() || !queued.isEmpty()) {
+            log.warn(" mail dispatcher stopped with {} retries and {} queued messages not sent ", retries.size(), queued.size());
+        }
+    }
+
+    /**
+     * Coloca a mensagem na fila de envio, mesmo antes de {@link #start()}. Retorna false se a fila continuou
+     * cheia por todo o enqueue-timeout ou se o dispatcher já foi parado.
+     */
+    public boolean submit(SimpleMailMessage message) throws InterruptedException {
+        return submit(message, null);
+    }
+
+    /**
+     * Como {@link #submit(SimpleMailMessage)}; se a mensagem for aceita, {@code onResult} recebe true quando ela
+     * for entregue ou false quando for descartada, na thread do worker.
+     */
+    public boolean submit(SimpleMailMessage message, Consumer<Boolean> onResult) throws InterruptedException {
+        if (stopped) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        pending.incrementAndGet();
+        if (!queue.offer(new Envelope(message, onResult), enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Espera até que toda mensagem aceita tenha sido enviada ou descartada depois da última tentativa.
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending.get() > 0) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        return true;
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("mail.dispatch.sent", sent, AtomicLong::get)
+                .description("Messages delivered to the SMTP server")
+                .register(registry);
+        FunctionCounter.builder("mail.dispatch.failed", failed, AtomicLong::get)
+                .description("Messages dropped after the last attempt")
+                .register(registry);
+        FunctionCounter.builder("mail.dispatch.retried", retried, AtomicLong::get)
+                .description("Message attempts scheduled again after a failure")
+                .register(registry);
+        FunctionCounter.builder("mail.dispatch.rejected", rejected, AtomicLong::get)
+                .description("Messages refused because the queue stayed full")
+                .register(registry);
+        FunctionTimer.builder("mail.dispatch.batch", this, dispatcher -> dispatcher.batches.get(),
+                dispatcher -> dispatcher.batchNanos.get(), TimeUnit.NANOSECONDS)
+                .description("SMTP sessions, one per batch of messages")
+                .register(registry);
+        Gauge.builder("mail.dispatch.queue", queue, BlockingQueue::size)
+                .description("Messages waiting for a worker")
+                .register(registry);
+        Gauge.builder("mail.dispatch.pending", pending, AtomicLong::get)
+                .description("Accepted messages not yet delivered or dropped")
+                .register(registry);
+    }
+
+    private void work() {
+        List<Envelope> batch = new ArrayList<>(batchSize);
+        try {
+            while (!stopped || !queue.isEmpty()) {
+                Envelope first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                rateLimiter.acquire(batch.size());
+                send(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(List<Envelope> batch) {
+        SimpleMailMessage[] messages = new SimpleMailMessage[batch.size()];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = batch.get(i).message;
+        }
+        long start = System.nanoTime();
+        Map<Object, Exception> failures;
+        try {
+            //JavaMailSenderImpl envia o array inteiro em uma conexão
+            sender.send(messages);
+            failures = Collections.emptyMap();
+        } catch (MailSendException e) {
+            //falhas por mensagem; sem elas, o lote todo falhou (conexão, por exemplo)
+            failures = e.getFailedMessages().isEmpty() ? null : e.getFailedMessages();
+            log.debug(" mail batch of {} failed: {} ", batch.size(), e.getMessage());
+        } catch (RuntimeException e) {
+            //o worker não pode morrer por uma exceção do envio
+            failures = null;
+            log.debug(" mail batch of {} failed: {} ", batch.size(), e.getMessage());
+        }
+        batches.incrementAndGet();
+        batchNanos.addAndGet(System.nanoTime() - start);
+
+        for (Envelope envelope : batch) {
+            if (failures != null && !failures.containsKey(envelope.message)) {
+                sent.incrementAndGet();
+                pending.decrementAndGet();
+                envelope.done(true);
+            } else {
+                retryOrDrop(envelope);
+            }
+        }
+    }
+
+    private void retryOrDrop(Envelope envelope) {
+        if (envelope.attempts + 1 >= maxAttempts || stopped) {
+            drop(envelope);
+            log.warn(" giving up mail to {} after {} attempts ", StringUtils.arrayToCommaDelimitedString(envelope.message.getTo()), envelope.attempts + 1);
+            return;
+        }
+        Envelope next = new Envelope(envelope.message, envelope.onResult, envelope.attempts + 1);
+        retried.incrementAndGet();
+        scheduleRetry(next, Math.min(MAX_BACKOFF_MILLIS, backoffMillis << envelope.attempts));
+    }
+
+    //com a fila cheia, tenta de novo depois do mesmo intervalo em vez de bloquear o agendador
+    private void scheduleRetry(Envelope envelope, long delayMillis) {
+        scheduledRetries.add(envelope);
+        try {
+            retryScheduler.schedule(() -> {
+                if (scheduledRetries.remove(envelope) && !queue.offer(envelope)) {
+                    scheduleRetry(envelope, delayMillis);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //dispatcher parado
+            if (scheduledRetries.remove(envelope)) {
+                drop(envelope);
+            }
+        }
+    }
+
+    private void drop(Envelope envelope) {
+        failed.incrementAndGet();
+        pending.decrementAndGet();
+        envelope.done(false);
+    }
+
+    private static final class Envelope {
+
+        final SimpleMailMessage message;
+        final Consumer<Boolean> onResult;
+        final int attempts;
+
+        Envelope(SimpleMailMessage message, Consumer<Boolean> onResult) {
+            this(message, onResult, 0);
+        }
+
+        Envelope(SimpleMailMessage message, Consumer<Boolean> onResult, int attempts) {
+            this.message = message;
+            this.onResult = onResult;
+            this.attempts = attempts;
+        }
+
+        //o aviso de quem enviou não pode derrubar o worker
+        void done(boolean delivered) {
+            if (onResult == null) {
+                return;
+            }
+            try {
+                onResult.accept(delivered);
+            } catch (RuntimeException e) {
+                log.warn(" mail result listener failed: {} ", e.getMessage());
+            }
+        }
+    }
+}
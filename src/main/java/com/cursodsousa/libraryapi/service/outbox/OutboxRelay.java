@@ -0,0 +1,192 @@
+package com.cursodsousa.libraryapi.service.outbox;
+
+import com.cursodsousa.libraryapi.api.dto.LoanNotificationDTO;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.EmailService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Entrega os avisos da outbox em lotes.
+ *
+ * Cada lote é pego (claim) por {@code lease} com um token próprio, entregue ao {@link EmailService} e, quando
+ * todas as entregas terminam, confirmado (ack) ou devolvido em uma transação. Se a aplicação cair no meio do
+ * lote, os avisos continuam na tabela e voltam a ser pegos quando o prazo vence: a entrega é pelo menos uma vez.
+ * Um aviso que falha volta depois de {@code retry-delay}, até {@code max-attempts} lotes.
+ */
+@Component
+@ConditionalOnProperty(name = "application.outbox.relay.enabled", matchIfMissing = true)
+@Slf4j
+public class OutboxRelay {
+
+    private final OutboxEventRepository repository;
+    private final EmailService emailService;
+    private final TransactionOperations transactions;
+    private final int batchSize;
+    private final long leaseMillis;
+    private final long retryDelayMillis;
+    private final int maxAttempts;
+    private final Map<OutboxEvent.Type, String[]> notices = new EnumMap<>(OutboxEvent.Type.class);
+
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter retried;
+    private final Timer batchTimer;
+    private final Timer lag;
+
+    public OutboxRelay(OutboxEventRepository repository,
+                       EmailService emailService,
+                       TransactionOperations transactions,
+                       MeterRegistry registry,
+                       @Value("${application.outbox.relay.batch-size:500}") int batchSize,
+                       @Value("${application.outbox.relay.lease:300000}") long leaseMillis,
+                       @Value("${application.outbox.relay.retry-delay:60000}") long retryDelayMillis,
+                       @Value("${application.outbox.relay.max-attempts:10}") int maxAttempts,
+                       @Value("${application.mail.loan-created.message}") String createdMessage,
+                       @Value("${application.mail.loan-returned.message}") String returnedMessage,
+                       @Value("${application.mail.lateloans.message}") String overdueMessage) {
+        this.repository = repository;
+        this.emailService = emailService;
+        this.transactions = transactions;
+        this.batchSize = batchSize;
+        this.leaseMillis = leaseMillis;
+        this.retryDelayMillis = retryDelayMillis;
+        this.maxAttempts = maxAttempts;
+        notices.put(OutboxEvent.Type.CREATED, new String[]{ "Empréstimo de livro registrado", createdMessage });
+        notices.put(OutboxEvent.Type.RETURNED, new String[]{ "Devolução de livro registrada", returnedMessage });
+        notices.put(OutboxEvent.Type.OVERDUE, new String[]{ "Livro com empréstimo atrasado", overdueMessage });
+
+        sent = Counter.builder("outbox.relay.events").tag("result", "sent")
+                .description("Notifications delivered and acknowledged")
+                .register(registry);
+        failed = Counter.builder("outbox.relay.events").tag("result", "failed")
+                .description("Notifications dropped after the last attempt")
+                .register(registry);
+        retried = Counter.builder("outbox.relay.events").tag("result", "retried")
+                .description("Notifications released to be claimed again")
+                .register(registry);
+        batchTimer = Timer.builder("outbox.relay.batch")
+                .description("Claim, delivery and acknowledgement of one batch")
+                .register(registry);
+        lag = Timer.builder("outbox.relay.lag")
+                .description("Time from the loan change to the acknowledged delivery")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+
+    //esvazia a outbox: lotes cheios indicam que há mais avisos esperando
+    @Scheduled(fixedDelayString = "${application.outbox.relay.interval:1000}")
+    public void relay() {
+        while (relayBatch() == batchSize && !Thread.currentThread().isInterrupted()) {
+            log.debug(" outbox batch of {} relayed, claiming the next one ", batchSize);
+        }
+    }
+
+    /**
+     * Pega, entrega e confirma um lote. Retorna quantos avisos foram pegos.
+     */
+    public int relayBatch() {
+        long start = System.nanoTime();
+        String token = UUID.randomUUID().toString();
+        List<LoanNotificationDTO> claimed = transactions.execute(status -> claim(token));
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        Map<LoanNotificationDTO, CompletableFuture<Boolean>> deliveries = new LinkedHashMap<>();
+        for (LoanNotificationDTO notification : claimed) {
+            deliveries.put(notification, deliver(notification));
+        }
+        await(deliveries.values(), start);
+
+        List<Long> delivered = new ArrayList<>();
+        List<Long> undelivered = new ArrayList<>();
+        List<LoanNotificationDTO> acked = new ArrayList<>();
+        deliveries.forEach((notification, delivery) -> {
+            if (!delivery.isDone()) {
+                //sem resultado dentro do prazo: fica com o claim e volta quando o prazo vencer
+                return;
+            }
+            if (delivery.getNow(false)) {
+                delivered.add(notification.getId());
+                acked.add(notification);
+            } else {
+                undelivered.add(notification.getId());
+            }
+        });
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime retryAt = now.plus(Duration.ofMillis(retryDelayMillis));
+        int[] results = transactions.execute(status -> new int[]{
+                delivered.isEmpty() ? 0 : repository.ack(delivered, token, now),
+                undelivered.isEmpty() ? 0 : repository.release(undelivered, token, retryAt, maxAttempts),
+                undelivered.isEmpty() ? 0 : repository.fail(undelivered, token, maxAttempts) });
+
+        sent.increment(results[0]);
+        acked.forEach(notification -> lag.record(Duration.between(notification.getCreatedAt(), now)));
+        retried.increment(results[1]);
+        failed.increment(results[2]);
+        if (results[2] > 0) {
+            log.warn(" {} loan notifications dropped after {} attempts ", results[2], maxAttempts);
+        }
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return claimed.size();
+    }
+
+    private List<LoanNotificationDTO> claim(String token) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> ids = repository.findClaimable(now, PageRequest.of(0, batchSize));
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        //outro relay pode ter pego parte dos ids entre a leitura e a marcação: só vêm os marcados com este token
+        repository.claim(ids, token, now.plus(Duration.ofMillis(leaseMillis)), now);
+        return repository.findClaimed(ids, token);
+    }
+
+    //empréstimo sem e-mail não tem a quem avisar: conta como entregue para sair da fila
+    private CompletableFuture<Boolean> deliver(LoanNotificationDTO notification) {
+        if (notification.getEmail() == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        String[] notice = notices.get(notification.getType());
+        return emailService.sendMail(notice[0], notice[1], notification.getEmail());
+    }
+
+    //espera as entregas até o fim do prazo do claim, depois disso o lote pode estar com outro relay
+    private void await(Iterable<CompletableFuture<Boolean>> deliveries, long start) {
+        List<CompletableFuture<Boolean>> all = new ArrayList<>();
+        deliveries.forEach(all::add);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(leaseMillis) - (System.nanoTime() - start);
+        try {
+            CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn(" outbox batch not fully delivered within the lease: {} ", e.toString());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+-- isbn é a chave de negócio do livro: buscas por isbn e a verificação de duplicados
+create unique index ux_book_isbn on book (isbn);
+
+-- empréstimos do livro (listagem e existsByBookAndNotReturned)
+create index ix_loan_book_returned on loan (id_book, returned);
+
+-- empréstimos atrasados: loan_date <= ? and não devolvido
+create index ix_loan_date_returned on loan (loan_date, returned);
+
+-- filtro por cliente
+create index ix_loan_customer on loan (customer);
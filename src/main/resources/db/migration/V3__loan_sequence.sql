@@ -0,0 +1,6 @@
+-- ids de empréstimo vindos de sequence, como os de livro: com identity o Hibernate não agrupa inserts em lote
+create sequence loan_sequence start with 1 increment by 50;
+alter sequence loan_sequence restart with (select coalesce(max(id), 0) + 1 from loan);
+
+-- inserts sem id (fora do Hibernate) também passam a usar a sequence
+alter table loan alter column id set default next value for loan_sequence;
@@ -0,0 +1,21 @@
+-- avisos de empréstimo gravados na mesma transação da mudança do empréstimo e entregues depois pelo OutboxRelay
+create sequence outbox_sequence start with 1 increment by 50;
+
+create table outbox_event (
+    id bigint default next value for outbox_sequence not null,
+    loan_id bigint not null,
+    type varchar(20) not null,
+    status varchar(10) not null,
+    attempts int not null,
+    created_at timestamp not null,
+    claim_token varchar(36),
+    claimed_until timestamp,
+    sent_at timestamp,
+    constraint pk_outbox_event primary key (id)
+);
+
+-- próximos a entregar: pendentes em ordem de id
+create index ix_outbox_event_status on outbox_event (status, id);
+
+-- um aviso de atraso por empréstimo (not exists na marcação dos atrasados)
+create index ix_outbox_event_loan_type on outbox_event (loan_id, type);
@@ -0,0 +1,14 @@
+-- quem executa cada job (ou partição de job) agendado e até quando
+create table job_lease (
+    job_name varchar(100) not null,
+    owner varchar(100),
+    lease_until timestamp not null,
+    constraint pk_job_lease primary key (job_name)
+);
+
+-- instâncias vivas da aplicação, pelo último heartbeat
+create table cluster_node (
+    id varchar(100) not null,
+    heartbeat timestamp not null,
+    constraint pk_cluster_node primary key (id)
+);
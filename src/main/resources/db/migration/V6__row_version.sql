@@ -0,0 +1,4 @@
+-- versão de cada linha para o lock otimista do Hibernate e os ETags da API; as linhas existentes começam em 0
+alter table book add column version bigint default 0 not null;
+
+alter table loan add column version bigint default 0 not null;
@@ -0,0 +1,10 @@
+-- o V3 reiniciou a sequence em max(id) + 1, mas o Hibernate usa o otimizador pooled (allocationSize = 50): o valor
+-- lido é o fim do bloco e os ids começam 49 antes dele, em cima de empréstimos que já existem. Reinicia 50 depois
+-- do maior id (e nunca antes do valor atual, que pode ser o fim de um bloco em uso) para o bloco começar em max(id) + 1
+alter sequence loan_sequence restart with (
+    select greatest(coalesce(max(l.id), 0), s.current_value) + 50
+    from information_schema.sequences s
+    left join loan l on 1 = 1
+    where s.sequence_name = 'LOAN_SEQUENCE'
+    group by s.current_value
+);
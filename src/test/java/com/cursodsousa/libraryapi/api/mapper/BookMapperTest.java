@@ -0,0 +1,33 @@
+package com.cursodsousa.libraryapi.api.mapper;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookMapperTest {
+
+    ModelMapper modelMapper = new ModelMapper();
+    BookMapper bookMapper = new BookMapperImpl();
+
+    @Test
+    @DisplayName("Deve converter livro em dto igual ao ModelMapper")
+    public void bookToDTOTest(){
+        Book book = Book.builder().id(1L).title("As aventuras").author("Fulano").isbn("123").build();
+
+        assertThat(bookMapper.toDTO(book)).isEqualTo(modelMapper.map(book, BookDTO.class));
+        assertThat(bookMapper.toDTO(new Book())).isEqualTo(modelMapper.map(new Book(), BookDTO.class));
+    }
+
+    @Test
+    @DisplayName("Deve converter dto em livro igual ao ModelMapper")
+    public void bookToEntityTest(){
+        BookDTO dto = BookDTO.builder().id(1L).title("As aventuras").author("Fulano").isbn("123").build();
+
+        assertThat(bookMapper.toEntity(dto)).isEqualTo(modelMapper.map(dto, Book.class));
+        assertThat(bookMapper.toEntity(new BookDTO())).isEqualTo(modelMapper.map(new BookDTO(), Book.class));
+    }
+}
@@ -0,0 +1,40 @@
+package com.cursodsousa.libraryapi.api.mapper;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoanMapperTest {
+
+    ModelMapper modelMapper = new ModelMapper();
+    BookMapper bookMapper = new BookMapperImpl();
+    LoanMapper loanMapper = new LoanMapperImpl(bookMapper);
+
+    @Test
+    @DisplayName("Deve converter emprestimo com o livro aninhado igual ao ModelMapper")
+    public void loanToDTOTest(){
+        //cenário
+        Book book = Book.builder().id(1L).title("As aventuras").author("Fulano").isbn("123").build();
+        Loan loan = Loan.builder().id(2L).customer("Ciclano").customerEmail("ciclano@email.com")
+                .book(book).loanDate(LocalDate.now()).returned(false).build();
+
+        //execução
+        LoanDTO expected = modelMapper.map(loan, LoanDTO.class);
+        expected.setBook(modelMapper.map(book, BookDTO.class));
+        LoanDTO dto = loanMapper.toDTO(loan);
+
+        //verificação
+        assertThat(dto).isEqualTo(expected);
+        assertThat(dto.getIsbn()).isNull();
+        assertThat(dto.getEmail()).isEqualTo("ciclano@email.com");
+        assertThat(loanMapper.toDTO(new Loan())).isEqualTo(modelMapper.map(new Loan(), LoanDTO.class));
+    }
+}
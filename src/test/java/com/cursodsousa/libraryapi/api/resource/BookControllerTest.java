@@ -1,42 +1,63 @@
 package com.cursodsousa.libraryapi.api.resource;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
 import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.BookImportResultDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapperImpl;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapperImpl;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
+import com.cursodsousa.libraryapi.service.BookCount;
 import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.CountMode;
 import com.cursodsousa.libraryapi.service.LoanService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @WebMvcTest(controllers = BookController.class)
 @AutoConfigureMockMvc
+@Import({BookMapperImpl.class, LoanMapperImpl.class})
 public class BookControllerTest {
 
     static String BOOK_API = "/api/books";
@@ -145,6 +166,57 @@ public class BookControllerTest {
 
     }
 
+    @Test
+    @DisplayName("Deve responder 304 sem carregar o livro quando o If-None-Match tiver a versão atual")
+    public void getBookNotModifiedTest() throws Exception{
+        //cenário
+        BDDMockito.given(service.getVersion(1L)).willReturn(Optional.of(2L));
+
+        //execução
+        mvc
+            .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"2\""))
+            .andExpect(content().string(""));
+
+        //verificação
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyLong());
+    }
+
+    @Test
+    @DisplayName("Deve devolver o livro com o novo ETag quando o If-None-Match tiver uma versão antiga")
+    public void getBookModifiedTest() throws Exception{
+        //cenário
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").version(3L).build();
+        BDDMockito.given(service.getVersion(1L)).willReturn(Optional.of(3L));
+        BDDMockito.given(service.getById(1L)).willReturn(Optional.of(book));
+
+        //execução
+        mvc
+            .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+            .andExpect(jsonPath("title").value("As aventuras"));
+    }
+
+    @Test
+    @DisplayName("Deve recarregar do banco o livro do cache que está atrás da versão atual")
+    public void getBookStaleInCacheTest() throws Exception{
+        //cenário
+        Book cached = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").version(3L).build();
+        Book current = Book.builder().id(1L).title("Novas aventuras").author("Artur").isbn("001").version(4L).build();
+        BDDMockito.given(service.getVersion(1L)).willReturn(Optional.of(4L));
+        BDDMockito.given(service.getById(1L)).willReturn(Optional.of(cached));
+        BDDMockito.given(service.reload(1L)).willReturn(Optional.of(current));
+
+        //execução
+        mvc
+            .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+            .andExpect(jsonPath("title").value("Novas aventuras"));
+    }
+
     @Test
     @DisplayName("Deve retornar resource not found quando o livro procurado não existir")
     public void bookNotFoundTest() throws Exception{
@@ -199,7 +271,7 @@ public class BookControllerTest {
         BDDMockito.given(service.getById(id)).willReturn(Optional.of(updatingBook));
 
         Book updatedBook = Book.builder().id(id).author("Artur").title("As aventuras").isbn("321").build();
-        BDDMockito.given((service.update(updatingBook))).willReturn(updatedBook);
+        BDDMockito.given((service.update(Mockito.any(Book.class)))).willReturn(updatedBook);
 
         //execução
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
@@ -214,6 +286,53 @@ public class BookControllerTest {
                 .andExpect( jsonPath("title").value(createNewBook().getTitle()))
                 .andExpect( jsonPath("author").value(createNewBook().getAuthor()))
                 .andExpect( jsonPath("isbn").value("321"));
+
+        //verificação: a instância devolvida por getById (a do cache) não é alterada
+        assertThat(updatingBook.getTitle()).isEqualTo("some title");
+        assertThat(updatingBook.getAuthor()).isEqualTo("some author");
+    }
+
+    @Test
+    @DisplayName("Deve recusar com 412 a atualização cujo If-Match não tem a versão atual, sem carregar o livro")
+    public void updateBookWithStaleIfMatchTest() throws Exception{
+        //cenário
+        BDDMockito.given(service.getVersion(1L)).willReturn(Optional.of(3L));
+
+        //execução
+        mvc.perform( MockMvcRequestBuilders.put(BOOK_API.concat("/1"))
+                        .header(HttpHeaders.IF_MATCH, "\"2\"")
+                        .content(new ObjectMapper().writeValueAsString(createNewBook()))
+                        .contentType(MediaType.APPLICATION_JSON) )
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("errors[0]").value("Book was modified"));
+
+        //verificação
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyLong());
+        Mockito.verify(service, Mockito.never()).update(Mockito.any(Book.class));
+    }
+
+    @Test
+    @DisplayName("Deve atualizar o livro com a versão do If-Match, mesmo que a cópia do cache esteja atrasada")
+    public void updateBookWithCurrentIfMatchTest() throws Exception{
+        //cenário
+        BDDMockito.given(service.getVersion(1L)).willReturn(Optional.of(3L));
+        Book cached = Book.builder().id(1L).title("some title").author("some author").isbn("321").version(2L).build();
+        BDDMockito.given(service.getById(1L)).willReturn(Optional.of(cached));
+        BDDMockito.given(service.update(Mockito.any(Book.class))).willAnswer(invocation -> {
+            Book book = invocation.getArgument(0);
+            assertThat(book.getVersion()).isEqualTo(3L);
+            book.setVersion(4L);
+            return book;
+        });
+
+        //execução
+        mvc.perform( MockMvcRequestBuilders.put(BOOK_API.concat("/1"))
+                        .header(HttpHeaders.IF_MATCH, "\"3\"")
+                        .content(new ObjectMapper().writeValueAsString(createNewBook()))
+                        .contentType(MediaType.APPLICATION_JSON) )
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(jsonPath("title").value(createNewBook().getTitle()));
     }
 
     @Test
@@ -268,6 +387,314 @@ public class BookControllerTest {
                 .andExpect( jsonPath("pageable.pageNumber").value(0));
     }
 
+    @Test
+    @DisplayName("Deve filtrar livros sem contar o total quando count=none")
+    public void findBookWithoutCountTest() throws Exception {
+        //cenário
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").build();
+        BDDMockito.given( service.findSlice(Mockito.any(Book.class), Mockito.any(Pageable.class)) )
+                .willReturn(new SliceImpl<>(Arrays.asList(book), PageRequest.of(0, 1), true));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?title=aventuras&page=0&size=1&count=none"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("content", hasSize(1)))
+                .andExpect( jsonPath("last").value(false))
+                .andExpect( jsonPath("totalElements").doesNotExist());
+
+        Mockito.verify(service, Mockito.never()).find(Mockito.any(Book.class), Mockito.any(Pageable.class));
+        Mockito.verify(service, Mockito.never()).count(Mockito.any(Book.class), Mockito.any(CountMode.class));
+    }
+
+    @Test
+    @DisplayName("Deve filtrar livros com total estimado, informando que não é exato")
+    public void findBookWithEstimatedCountTest() throws Exception {
+        //cenário
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").build();
+        BDDMockito.given( service.findSlice(Mockito.any(Book.class), Mockito.any(Pageable.class)) )
+                .willReturn(new SliceImpl<>(Arrays.asList(book), PageRequest.of(0, 1), true));
+        BDDMockito.given( service.count(Mockito.any(Book.class), Mockito.eq(CountMode.ESTIMATE)) )
+                .willReturn(new BookCount(250_000, false));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?title=aventuras&page=0&size=1&count=estimate"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect( status().isOk())
+                .andExpect( header().string(BookController.TOTAL_COUNT_EXACT_HEADER, "false"))
+                .andExpect( jsonPath("content", hasSize(1)))
+                .andExpect( jsonPath("totalElements").value(250_000));
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro para um modo de contagem desconhecido")
+    public void findBookWithUnsupportedCountTest() throws Exception {
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("?count=talvez")).accept(MediaType.APPLICATION_JSON))
+                .andExpect( status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Deve informar a disponibilidade de um livro")
+    public void availabilityTest() throws Exception {
+        //cenário
+        BDDMockito.given( loanService.getAvailability(1L) ).willReturn( Optional.of(new BookAvailabilityDTO(1L, 10L)) );
+
+        //execução e verificação
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/availability")).accept(MediaType.APPLICATION_JSON))
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("bookId").value(1))
+                .andExpect( jsonPath("available").value(false))
+                .andExpect( jsonPath("activeLoanId").value(10));
+
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyLong());
+    }
+
+    @Test
+    @DisplayName("Deve retornar resource not found ao consultar a disponibilidade de um livro inexistente")
+    public void availabilityOfInexistentBookTest() throws Exception {
+        BDDMockito.given( loanService.getAvailability(Mockito.anyLong()) ).willReturn( Optional.empty() );
+
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/availability")).accept(MediaType.APPLICATION_JSON))
+                .andExpect( status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Deve listar os empréstimos de um livro")
+    public void loansByBookTest() throws Exception {
+        //cenário
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").build();
+        BDDMockito.given( service.getById(1L) ).willReturn( Optional.of(book) );
+        BDDMockito.given( loanService.getLoansVersionByBook(1L) ).willReturn( Optional.of("0.1.10.0") );
+        LoanDTO loan = new LoanDTO(10L, "Fulano", "fulano@email.com", 1L, "As aventuras", "Artur", "001");
+        BDDMockito.given( loanService.getLoanDTOsByBook(Mockito.eq(book), Mockito.any(Pageable.class)) )
+                .willReturn(new PageImpl<>(Arrays.asList(loan), PageRequest.of(0, 100), 1));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("/1/loans?page=0&size=100"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("content", hasSize(1)))
+                .andExpect( jsonPath("content[0].email").value("fulano@email.com"))
+                .andExpect( jsonPath("content[0].book.title").value("As aventuras"))
+                .andExpect( jsonPath("totalElements").value(1))
+                .andExpect( header().string(HttpHeaders.ETAG, "\"0.1.10.0\""));
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 para a lista de empréstimos de um livro que não mudou, sem ler a página")
+    public void loansByBookNotModifiedTest() throws Exception {
+        //cenário
+        BDDMockito.given( loanService.getLoansVersionByBook(1L) ).willReturn( Optional.of("0.1.10.0") );
+
+        //execução
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/loans?page=0&size=100"))
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"0.1.10.0\""))
+                .andExpect( status().isNotModified())
+                .andExpect( content().string(""));
+
+        //verificação
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyLong());
+        Mockito.verify(loanService, Mockito.never()).getLoanDTOsByBook(Mockito.any(Book.class), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve filtrar livros usando cursor, sem cursor de próxima página na última")
+    public void findBookByCursorTest() throws Exception {
+        //cenário
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").build();
+
+        BDDMockito.given( service.findAfter(Mockito.any(Book.class), Mockito.any(Keyset.class), Mockito.eq(1000)))
+                .willReturn(new SliceImpl<>(Arrays.asList(book), PageRequest.of(0, 1000), false));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?author=Artur&cursor=&size=5000&sort=title"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("content", hasSize(1)))
+                .andExpect( jsonPath("size").value(1))
+                .andExpect( jsonPath("nextCursor").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Deve distinguir no cursor o título nulo do título vazio")
+    public void nullValueCursorTest() throws Exception {
+        //cenário
+        Book untitled = Book.builder().id(1L).author("Artur").isbn("001").build();
+        Book emptyTitle = Book.builder().id(2L).title("").author("Artur").isbn("002").build();
+
+        BDDMockito.given( service.findAfter(Mockito.any(Book.class), Mockito.any(Keyset.class), Mockito.eq(1)))
+                .willReturn(new SliceImpl<>(Arrays.asList(untitled), PageRequest.of(0, 1), true))
+                .willReturn(new SliceImpl<>(Arrays.asList(emptyTitle), PageRequest.of(0, 1), true))
+                .willReturn(new SliceImpl<>(Arrays.asList(), PageRequest.of(0, 1), false));
+
+        //execução e verificação
+        String untitledCursor = Base64.getUrlEncoder().withoutPadding().encodeToString("title,ASC,1".getBytes());
+        String emptyTitleCursor = Base64.getUrlEncoder().withoutPadding().encodeToString("title,ASC,2,".getBytes());
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("?cursor=&size=1&sort=title")))
+                .andExpect( jsonPath("nextCursor").value(untitledCursor));
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("?size=1&cursor=" + untitledCursor)))
+                .andExpect( jsonPath("nextCursor").value(emptyTitleCursor));
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("?size=1&cursor=" + emptyTitleCursor)))
+                .andExpect( status().isOk());
+
+        ArgumentCaptor<Keyset> keysets = ArgumentCaptor.forClass(Keyset.class);
+        Mockito.verify(service, Mockito.times(3)).findAfter(Mockito.any(Book.class), keysets.capture(), Mockito.eq(1));
+        assertThat(keysets.getAllValues().get(1).getLastValue()).isNull();
+        assertThat(keysets.getAllValues().get(1).getLastId()).isEqualTo(1L);
+        assertThat(keysets.getAllValues().get(2).getLastValue()).isEqualTo("");
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro ao paginar por cursor com ordenação não suportada")
+    public void unsupportedCursorSortTest() throws Exception {
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?cursor=&sort=loans"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect( status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Deve importar livros em lote a partir de um array json")
+    public void createBatchTest() throws Exception {
+        //cenário
+        BookDTO valid = createNewBook();
+        BookDTO duplicated = BookDTO.builder().author("Artur").title("Outro").isbn("001").build();
+        BookDTO invalid = BookDTO.builder().author("Artur").build();
+        String json = new ObjectMapper().writeValueAsString(Arrays.asList(valid, invalid, duplicated));
+
+        BDDMockito.given(service.saveAll(Mockito.anyList())).willReturn(Arrays.asList(
+                BookImportResultDTO.builder().index(0).isbn("001").id(10L).status(BookImportResultDTO.Status.CREATED).build(),
+                BookImportResultDTO.builder().index(1).isbn("001").status(BookImportResultDTO.Status.DUPLICATED).message("Isbn já cadastrado.").build()
+        ));
+
+        //execução
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .post(BOOK_API.concat("/batch"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(json);
+
+        //verificação
+        mvc.perform(request)
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("created").value(1))
+                .andExpect( jsonPath("rejected").value(2))
+                .andExpect( jsonPath("items", hasSize(3)))
+                .andExpect( jsonPath("items[0].status").value("CREATED"))
+                .andExpect( jsonPath("items[0].id").value(10))
+                .andExpect( jsonPath("items[1].status").value("INVALID"))
+                .andExpect( jsonPath("items[1].message").value("isbn must not be empty, title must not be empty"))
+                .andExpect( jsonPath("items[2].index").value(2))
+                .andExpect( jsonPath("items[2].status").value("DUPLICATED"));
+    }
+
+    @Test
+    @DisplayName("Deve importar livros em lote a partir de json delimitado por linhas")
+    public void createBatchFromNdjsonTest() throws Exception {
+        //cenário
+        ObjectMapper mapper = new ObjectMapper();
+        String ndjson = mapper.writeValueAsString(createNewBook()) + "\n"
+                + mapper.writeValueAsString(BookDTO.builder().author("Beto").title("Outro").isbn("002").build()) + "\n";
+
+        BDDMockito.given(service.saveAll(Mockito.anyList())).willReturn(Arrays.asList(
+                BookImportResultDTO.builder().index(0).isbn("001").id(10L).status(BookImportResultDTO.Status.CREATED).build(),
+                BookImportResultDTO.builder().index(1).isbn("002").id(11L).status(BookImportResultDTO.Status.CREATED).build()
+        ));
+
+        //execução
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .post(BOOK_API.concat("/batch"))
+                .contentType("application/x-ndjson")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(ndjson);
+
+        //verificação
+        mvc.perform(request)
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("created").value(2))
+                .andExpect( jsonPath("rejected").value(0))
+                .andExpect( jsonPath("items[1].id").value(11));
+    }
+
+    @Test
+    @DisplayName("Deve exportar os livros filtrados como json delimitado por linhas")
+    public void exportNdjsonTest() throws Exception {
+        //cenário
+        mockExport(
+                Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").build(),
+                Book.builder().id(2L).title("Outras aventuras").author("Artur").isbn("002").build());
+
+        //execução
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export?author=Artur")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //verificação
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/x-ndjson"))
+                .andExpect(content().string(
+                        "{\"id\":1,\"title\":\"As aventuras\",\"author\":\"Artur\",\"isbn\":\"001\"}\n" +
+                        "{\"id\":2,\"title\":\"Outras aventuras\",\"author\":\"Artur\",\"isbn\":\"002\"}\n"));
+
+        Mockito.verify(service).export(Mockito.argThat(filter -> "Artur".equals(filter.getAuthor())), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve exportar os livros filtrados como csv")
+    public void exportCsvTest() throws Exception {
+        //cenário
+        mockExport(Book.builder().id(1L).title("Aventuras, volume \"1\"").author("Artur").isbn("001").build());
+
+        //execução
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export?format=csv")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //verificação
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "text/csv;charset=UTF-8"))
+                .andExpect(content().string("id,title,author,isbn\n1,\"Aventuras, volume \"\"1\"\"\",Artur,001\n"));
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro ao exportar em um formato não suportado")
+    public void exportUnsupportedFormatTest() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export?format=xml")))
+                .andExpect(status().isBadRequest());
+    }
+
+    private void mockExport(Book... books) {
+        Mockito.doAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(1);
+            Arrays.asList(books).forEach(consumer);
+            return null;
+        }).when(service).export(Mockito.any(Book.class), Mockito.any());
+    }
+
     private BookDTO createNewBook()
     {
         return BookDTO.builder().author("Artur").title("As aventuras").isbn("001").build();
@@ -1,11 +1,17 @@
 package com.cursodsousa.libraryapi.api.resource;
 
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutResultDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanReturnResultDTO;
 import com.cursodsousa.libraryapi.api.dto.ReturnedLoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapperImpl;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapperImpl;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
 import com.cursodsousa.libraryapi.service.BookService;
 import com.cursodsousa.libraryapi.service.LoanService;
 import com.cursodsousa.libraryapi.service.LoanServiceTest;
@@ -14,16 +20,22 @@ import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
@@ -32,7 +44,9 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Optional;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -41,6 +55,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ActiveProfiles("test")
 @WebMvcTest(controllers = LoanController.class)
 @AutoConfigureMockMvc
+@Import({BookMapperImpl.class, LoanMapperImpl.class})
 public class LoanControllerTest {
 
     static final String LOAN_API = "/api/loans";
@@ -75,6 +90,7 @@ public class LoanControllerTest {
 
         mvc.perform( request )
                 .andExpect( status().isCreated() )
+                .andExpect( header().string(HttpHeaders.ETAG, "\"0\""))
                 .andExpect( content().string("1"));
     }
 
@@ -126,6 +142,7 @@ public class LoanControllerTest {
         ReturnedLoanDTO dto = ReturnedLoanDTO.builder().returned(true).build();
         Loan loan = Loan.builder().id(1L).build();
         BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.of(loan));
+        BDDMockito.given(loanService.update(Mockito.any(Loan.class))).willAnswer(invocation -> invocation.getArgument(0));
         String json = new ObjectMapper().writeValueAsString(dto);
 
         mvc.perform(
@@ -138,6 +155,65 @@ public class LoanControllerTest {
         Mockito.verify(loanService, Mockito.times(1)).update(loan);
     }
 
+    @Test
+    @DisplayName("Deve devolver o livro quando o If-Match tiver a versão atual do empréstimo")
+    public void returnBookWithCurrentIfMatchTest() throws Exception {
+        Loan loan = Loan.builder().id(1L).version(3L).build();
+        BDDMockito.given(loanService.getById(1L)).willReturn(Optional.of(loan));
+        BDDMockito.given(loanService.update(Mockito.any(Loan.class)))
+                .willReturn(Loan.builder().id(1L).returned(true).version(4L).build());
+        String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(true).build());
+
+        mvc.perform(
+                patch(LOAN_API.concat("/1"))
+                        .header(HttpHeaders.IF_MATCH, "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json)
+        ).andExpect( status().isOk())
+         .andExpect( header().string(HttpHeaders.ETAG, "\"4\""));
+    }
+
+    @Test
+    @DisplayName("Deve recusar a devolução com 412 quando o If-Match não tiver a versão atual do empréstimo")
+    public void returnBookWithStaleIfMatchTest() throws Exception {
+        Loan loan = Loan.builder().id(1L).version(4L).build();
+        BDDMockito.given(loanService.getById(1L)).willReturn(Optional.of(loan));
+        String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(true).build());
+
+        mvc.perform(
+                patch(LOAN_API.concat("/1"))
+                        .header(HttpHeaders.IF_MATCH, "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json)
+        ).andExpect( status().isPreconditionFailed())
+         .andExpect( jsonPath("errors[0]").value("Loan was modified"));
+
+        Mockito.verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
+    }
+
+    @Test
+    @DisplayName("Deve recusar com 412 a devolução alterada por outra requisição depois da leitura")
+    public void returnBookModifiedConcurrentlyTest() throws Exception {
+        Loan loan = Loan.builder().id(1L).version(3L).build();
+        BDDMockito.given(loanService.getById(1L)).willReturn(Optional.of(loan));
+        BDDMockito.given(loanService.update(Mockito.any(Loan.class)))
+                .willThrow(new ObjectOptimisticLockingFailureException(Loan.class, 1L));
+        String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(true).build());
+
+        mvc.perform(
+                patch(LOAN_API.concat("/1"))
+                        .header(HttpHeaders.IF_MATCH, "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json)
+        ).andExpect( status().isPreconditionFailed());
+
+        mvc.perform(
+                patch(LOAN_API.concat("/1"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json)
+        ).andExpect( status().isConflict());
+    }
+
     @Test
     @DisplayName("Deve retornar 404 quando tentar devolver um livro inexistente")
     public void returnInexistentBookTest() throws Exception {
@@ -165,9 +241,11 @@ public class LoanControllerTest {
 
         Book book = Book.builder().id(1L).isbn("321").build();
         loan.setBook(book);
+        LoanDTO loanDTO = new LoanDTO(id, loan.getCustomer(), loan.getCustomerEmail(),
+                book.getId(), book.getTitle(), book.getAuthor(), book.getIsbn());
 
-        BDDMockito.given( loanService.find(Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)))
-                .willReturn(new PageImpl<>(Arrays.asList(loan), PageRequest.of(0, 10), 1));
+        BDDMockito.given( loanService.findDTOs(Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<>(Arrays.asList(loanDTO), PageRequest.of(0, 10), 1));
 
 
         String queryString = String.format("?isbn=%s&customer=%s&page=0&size=10",
@@ -183,6 +261,118 @@ public class LoanControllerTest {
                 .andExpect( jsonPath("content", hasSize(1)))
                 .andExpect( jsonPath("totalElements").value(1))
                 .andExpect( jsonPath("pageable.pageSize").value(10))
-                .andExpect( jsonPath("pageable.pageNumber").value(0));
+                .andExpect( jsonPath("pageable.pageNumber").value(0))
+                .andExpect( jsonPath("content[0].book.isbn").value("321"));
+    }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos usando cursor e devolver o cursor da próxima página")
+    public void findByCursorTest() throws Exception {
+        //cenário
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(7L);
+        loan.setLoanDate(LocalDate.of(2020, 1, 10));
+        loan.setBook(Book.builder().id(1L).isbn("321").build());
+
+        BDDMockito.given( loanService.findAfter(Mockito.any(LoanFilterDTO.class), Mockito.any(Keyset.class), Mockito.anyInt()))
+                .willReturn(new SliceImpl<>(Arrays.asList(loan), PageRequest.of(0, 1), true));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(LOAN_API.concat("?customer=Fulano&cursor=&size=1&sort=loanDate,desc"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        //execução e verificação
+        String expectedCursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("loanDate,DESC,7,2020-01-10".getBytes());
+        mvc
+                .perform(request)
+                .andExpect( status().isOk())
+                .andExpect( jsonPath("content", hasSize(1)))
+                .andExpect( jsonPath("size").value(1))
+                .andExpect( jsonPath("nextCursor").value(expectedCursor));
+
+        mvc
+                .perform(MockMvcRequestBuilders.get(LOAN_API.concat("?cursor=" + expectedCursor)))
+                .andExpect( status().isOk());
+
+        ArgumentCaptor<Keyset> keysets = ArgumentCaptor.forClass(Keyset.class);
+        Mockito.verify(loanService, Mockito.times(2))
+                .findAfter(Mockito.any(LoanFilterDTO.class), keysets.capture(), Mockito.anyInt());
+        assertThat(keysets.getAllValues().get(0).isFirstPage()).isTrue();
+        Keyset next = keysets.getAllValues().get(1);
+        assertThat(next.getDirection()).isEqualTo(Sort.Direction.DESC);
+        assertThat(next.getLastValue()).isEqualTo(LocalDate.of(2020, 1, 10));
+        assertThat(next.getLastId()).isEqualTo(7L);
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro quando o cursor for inválido")
+    public void invalidCursorTest() throws Exception {
+        mvc
+                .perform(MockMvcRequestBuilders.get(LOAN_API.concat("?cursor=invalido")))
+                .andExpect( status().isBadRequest());
+
+        Mockito.verify(loanService, Mockito.never())
+                .findAfter(Mockito.any(LoanFilterDTO.class), Mockito.any(Keyset.class), Mockito.anyInt());
+    }
+
+    @Test
+    @DisplayName("Deve emprestar vários livros em lote com o resultado de cada isbn")
+    public void createBatchTest() throws Exception {
+        //cenário
+        LoanCheckoutDTO dto = LoanCheckoutDTO.builder().customer("Fulano").email("fulano@email.com")
+                .isbns(Arrays.asList("001", "002", "999")).build();
+        BDDMockito.given(loanService.saveAll("Fulano", "fulano@email.com", dto.getIsbns())).willReturn(Arrays.asList(
+                LoanCheckoutResultDTO.builder().index(0).isbn("001").id(10L).status(LoanCheckoutResultDTO.Status.CREATED).build(),
+                LoanCheckoutResultDTO.builder().index(1).isbn("002").status(LoanCheckoutResultDTO.Status.ALREADY_LOANED).build(),
+                LoanCheckoutResultDTO.builder().index(2).isbn("999").status(LoanCheckoutResultDTO.Status.BOOK_NOT_FOUND).build()));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API.concat("/batch"))
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(dto));
+
+        //execução e verificação
+        mvc.perform( request )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("created").value(1))
+                .andExpect( jsonPath("rejected").value(2))
+                .andExpect( jsonPath("items[0].id").value(10))
+                .andExpect( jsonPath("items[1].status").value("ALREADY_LOANED"))
+                .andExpect( jsonPath("items[2].status").value("BOOK_NOT_FOUND"));
+    }
+
+    @Test
+    @DisplayName("Deve retornar erro ao emprestar em lote sem nenhum isbn")
+    public void createEmptyBatchTest() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(LoanCheckoutDTO.builder().customer("Fulano").build());
+
+        mvc.perform( MockMvcRequestBuilders.post(LOAN_API.concat("/batch"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json) )
+                .andExpect( status().isBadRequest() );
+
+        Mockito.verify(loanService, Mockito.never()).saveAll(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve devolver vários empréstimos em lote com o resultado de cada id")
+    public void returnBatchTest() throws Exception {
+        //cenário
+        BDDMockito.given(loanService.returnAll(Arrays.asList(1L, 2L))).willReturn(Arrays.asList(
+                LoanReturnResultDTO.builder().index(0).id(1L).status(LoanReturnResultDTO.Status.RETURNED).build(),
+                LoanReturnResultDTO.builder().index(1).id(2L).status(LoanReturnResultDTO.Status.NOT_FOUND).build()));
+
+        //execução e verificação
+        mvc.perform( patch(LOAN_API.concat("/batch"))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2]") )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("returned").value(1))
+                .andExpect( jsonPath("rejected").value(1))
+                .andExpect( jsonPath("items[1].status").value("NOT_FOUND"));
+
+        Mockito.verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
     }
 }
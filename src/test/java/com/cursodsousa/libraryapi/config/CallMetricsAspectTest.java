@@ -0,0 +1,131 @@
+package com.cursodsousa.libraryapi.config;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import com.cursodsousa.libraryapi.service.index.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.index.IsbnIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.BDDMockito;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import(CallMetricsAspectTest.MetricsTestConfig.class)
+public class CallMetricsAspectTest {
+
+    @TestConfiguration
+    @EnableAspectJAutoProxy(proxyTargetClass = true)
+    @Import({CallMetricsAspect.class, BookServiceImpl.class, IsbnIndex.class, BookSearchIndex.class})
+    static class MetricsTestConfig {
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    BookService service;
+
+    @Autowired
+    BookRepository repository;
+
+    @Autowired
+    MeterRegistry registry;
+
+    @Test
+    @DisplayName("Deve medir as chamadas do service e dos repositórios por classe e método, uma vez cada")
+    public void timesServiceAndRepositoryCallsTest() {
+        //cenário
+        Book book = service.save(Book.builder().title("Aventuras").author("Fulano").isbn("123").build());
+
+        //execução
+        service.getById(book.getId());
+        service.getById(book.getId());
+        repository.insertInBatches(Collections.singletonList(Book.builder().title("Memórias").isbn("321").build()));
+
+        //verificação
+        assertThat(calls(CallMetricsAspect.SERVICE, "BookServiceImpl", "getById")).isEqualTo(2);
+        assertThat(calls(CallMetricsAspect.REPOSITORY, "BookRepository", "findById")).isEqualTo(2);
+        assertThat(calls(CallMetricsAspect.REPOSITORY, "BookRepository", "save")).isEqualTo(1);
+        assertThat(calls(CallMetricsAspect.REPOSITORY, "BookRepository", "insertInBatches")).isEqualTo(1);
+        assertThat(registry.find(CallMetricsAspect.REPOSITORY + ".calls").tag("class", "BookRepositoryImpl").timer()).isNull();
+        assertThat(registry.get(CallMetricsAspect.SERVICE + ".active")
+                .tags("class", "BookServiceImpl", "method", "getById").gauge().value()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve contar as chamadas que terminam em exceção, com a exceção como tag")
+    public void countsErrorsTest() {
+        //execução
+        assertThatThrownBy(() -> service.update(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.update(new Book())).isInstanceOf(IllegalArgumentException.class);
+
+        //verificação
+        assertThat(registry.get(CallMetricsAspect.SERVICE + ".errors")
+                .tags("class", "BookServiceImpl", "method", "update", "exception", "IllegalArgumentException")
+                .counter().count()).isEqualTo(2);
+        assertThat(calls(CallMetricsAspect.SERVICE, "BookServiceImpl", "update")).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve contar no mesmo gauge as chamadas em andamento de métodos sobrecarregados")
+    public void overloadedMethodsShareActiveGaugeTest() throws Throwable {
+        //cenário: valueOf(int) chama valueOf(long), que lê o gauge no meio da chamada
+        MeterRegistry meters = new SimpleMeterRegistry();
+        CallMetricsAspect aspect = new CallMetricsAspect(meters);
+        ProceedingJoinPoint inner = call(String.class.getMethod("valueOf", long.class), invocation -> meters
+                .get(CallMetricsAspect.SERVICE + ".active").tags("class", "String", "method", "valueOf").gauge().value());
+        ProceedingJoinPoint outer = call(String.class.getMethod("valueOf", int.class),
+                invocation -> aspect.timeService(inner));
+
+        //execução
+        Object active = aspect.timeService(outer);
+
+        //verificação
+        assertThat(active).isEqualTo(2.0);
+        assertThat(calls(meters, CallMetricsAspect.SERVICE, "String", "valueOf")).isEqualTo(2);
+    }
+
+    private static ProceedingJoinPoint call(Method method, Answer<Object> body) throws Throwable {
+        MethodSignature signature = Mockito.mock(MethodSignature.class);
+        BDDMockito.given(signature.getMethod()).willReturn(method);
+        ProceedingJoinPoint call = Mockito.mock(ProceedingJoinPoint.class);
+        BDDMockito.given(call.getTarget()).willReturn("Aventuras");
+        BDDMockito.given(call.getSignature()).willReturn(signature);
+        BDDMockito.given(call.proceed()).willAnswer(body);
+        return call;
+    }
+
+    private static long calls(MeterRegistry registry, String layer, String className, String method) {
+        return registry.get(layer + ".calls").tags("class", className, "method", method).timer().count();
+    }
+
+    private long calls(String layer, String className, String method) {
+        return calls(registry, layer, className, method);
+    }
+}
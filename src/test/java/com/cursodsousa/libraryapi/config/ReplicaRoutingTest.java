@@ -0,0 +1,277 @@
+package com.cursodsousa.libraryapi.config;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapperImpl;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapperImpl;
+import com.cursodsousa.libraryapi.api.resource.BookController;
+import com.cursodsousa.libraryapi.api.resource.LoanController;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.Keyset;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import com.cursodsousa.libraryapi.service.impl.LoanServiceImpl;
+import com.cursodsousa.libraryapi.service.index.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.index.DueDateIndex;
+import com.cursodsousa.libraryapi.service.index.IsbnIndex;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheType;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Dois H2 em memória no papel de primário e réplica, mais uma réplica que não responde. A réplica tem o esquema,
+ * mas não replica nada: um livro que só existe nela mostra de onde veio a leitura.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@AutoConfigureCache(cacheProvider = CacheType.SIMPLE)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(ReplicaRoutingTest.ReplicaTestConfig.class)
+@TestPropertySource(properties = {
+        "spring.datasource.url=" + ReplicaRoutingTest.PRIMARY_URL,
+        "application.datasource.replicas.enabled=true",
+        "application.datasource.replicas.urls=" + ReplicaRoutingTest.REPLICA_URL + ",jdbc:h2:tcp://localhost:1/mem:down",
+        "application.datasource.replicas.connection-timeout=250",
+        "application.datasource.replicas.health-check=3600000",
+        "application.datasource.replicas.sticky-window=60000"
+})
+public class ReplicaRoutingTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:primary-routing;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:replica-routing;DB_CLOSE_DELAY=-1";
+
+    //o esquema da réplica vem da replicação; aqui, da mesma migração
+    static {
+        Flyway.configure().dataSource(REPLICA_URL, "sa", "").load().migrate();
+    }
+
+    @TestConfiguration
+    @EnableAspectJAutoProxy(proxyTargetClass = true)
+    @EnableCaching
+    @ImportAutoConfiguration({JacksonAutoConfiguration.class, ValidationAutoConfiguration.class})
+    @Import({ReplicaRouting.class, ReplicaReadAspect.class, BookServiceImpl.class, IsbnIndex.class, BookSearchIndex.class,
+            LoanServiceImpl.class, DueDateIndex.class, BookController.class, LoanController.class,
+            BookMapperImpl.class, LoanMapperImpl.class})
+    static class ReplicaTestConfig {
+    }
+
+    @Autowired
+    BookService service;
+
+    @Autowired
+    BookRepository repository;
+
+    @Autowired
+    ReplicaRouting routing;
+
+    @Autowired
+    TransactionTemplate transactions;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    BookController bookController;
+
+    @Autowired
+    LoanController loanController;
+
+    @AfterEach
+    public void clearThread() {
+        ReplicaRouting.clear();
+    }
+
+    @Test
+    @DisplayName("Deve ler da réplica nos métodos @ReplicaRead e do primário no resto")
+    public void readsFromReplicaTest() {
+        //cenário
+        Book book = saveOnReplica();
+
+        //execução e verificação
+        assertThat(service.getById(book.getId())).map(Book::getTitle).hasValue("Só na réplica");
+        assertThat(repository.findById(book.getId())).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve ler da réplica as listagens e a exportação de livros dos endpoints")
+    public void bookEndpointsReadFromReplicaTest() throws Exception {
+        //cenário
+        Book book = saveOnReplica();
+        BookDTO filter = BookDTO.builder().isbn(book.getIsbn()).build();
+
+        //execução
+        Slice<BookDTO> slice = bookController.find(filter, PageRequest.of(0, 10), "none").getBody();
+        Slice<BookDTO> estimated = bookController.find(filter, PageRequest.of(0, 10), "estimate").getBody();
+        CursorPageDTO<BookDTO> cursorPage = bookController.findByCursor(filter, "", 10, Sort.unsorted());
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        bookController.export(filter, "csv").getBody().writeTo(exported);
+
+        //verificação
+        assertThat(slice.getContent()).extracting(BookDTO::getId).containsExactly(book.getId());
+        assertThat(((Page<BookDTO>) estimated).getTotalElements()).isEqualTo(1);
+        assertThat(cursorPage.getContent()).extracting(BookDTO::getId).containsExactly(book.getId());
+        assertThat(new String(exported.toByteArray(), StandardCharsets.UTF_8)).contains(book.getIsbn());
+    }
+
+    @Test
+    @DisplayName("Deve ler da réplica as listagens de empréstimos dos endpoints")
+    public void loanEndpointsReadFromReplicaTest() {
+        //cenário
+        Book book = saveOnReplica();
+        String customer = saveLoanOnReplica(book);
+
+        //execução
+        Page<LoanDTO> page = loanController.find(new LoanFilterDTO(null, customer), PageRequest.of(0, 10));
+        CursorPageDTO<LoanDTO> cursorPage = loanController.findByCursor(new LoanFilterDTO(null, customer), "", 10,
+                Sort.unsorted());
+        Page<LoanDTO> byBook = bookController.loansByBook(book.getId(), PageRequest.of(0, 10),
+                new ServletWebRequest(new MockHttpServletRequest())).getBody();
+        CursorPageDTO<LoanDTO> byBookCursor = bookController.loansByBookByCursor(book.getId(), "", 10, Sort.unsorted());
+
+        //verificação
+        assertThat(page.getContent()).extracting(LoanDTO::getCustomer).containsExactly(customer);
+        assertThat(cursorPage.getContent()).extracting(LoanDTO::getCustomer).containsExactly(customer);
+        assertThat(byBook.getContent()).extracting(LoanDTO::getCustomer).containsExactly(customer);
+        assertThat(byBookCursor.getContent()).extracting(LoanDTO::getCustomer).containsExactly(customer);
+    }
+
+    @Test
+    @DisplayName("Deve ler do primário dentro de uma transação de escrita")
+    public void readsFromPrimaryInsideWriteTransactionTest() {
+        //cenário
+        Book book = saveOnReplica();
+
+        //execução
+        boolean found = transactions.execute(status -> service.getById(book.getId()).isPresent());
+
+        //verificação
+        assertThat(found).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve ler as próprias escritas no primário durante a janela depois de uma escrita")
+    public void readYourWritesTest() {
+        //cenário
+        Book book = service.save(Book.builder().title("Aventuras").author("Fulano").isbn(UUID.randomUUID().toString()).build());
+        Book filter = Book.builder().isbn(book.getIsbn()).build();
+
+        //execução e verificação
+        assertThat(service.findAfter(filter, Keyset.first("id", Sort.Direction.ASC), 10)).hasSize(1);
+
+        ReplicaRouting.pinToPrimaryUntil(0);
+        assertThat(service.findAfter(filter, Keyset.first("id", Sort.Direction.ASC), 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve continuar lendo da réplica depois de uma transação de escrita que só leu")
+    public void readOnlyWorkInWriteTransactionDoesNotPinTest() {
+        //cenário
+        Book book = saveOnReplica();
+
+        //execução
+        transactions.execute(status -> repository.count());
+
+        //verificação
+        assertThat(service.getById(book.getId())).isPresent();
+    }
+
+    @Test
+    @DisplayName("Não deve guardar no cache a leitura da réplica de um livro escrito há pouco, só a dele")
+    public void staleReplicaReadNotCachedTest() {
+        //cenário: o livro acabou de ser incluído no primário e a réplica ainda tem uma versão antiga dele
+        Book written = service.save(Book.builder().title("Aventuras").author("Fulano").isbn(UUID.randomUUID().toString()).build());
+        saveOnReplica(written.getId(), written.getIsbn());
+        Book other = saveOnReplica();
+        cacheManager.getCache(BookServiceImpl.BOOKS_CACHE).clear();
+        //outro cliente, sem janela de leitura das próprias escritas
+        ReplicaRouting.clear();
+
+        //execução
+        Book read = service.getById(written.getId()).get();
+        service.getById(other.getId());
+
+        //verificação
+        assertThat(read.getTitle()).isEqualTo("Só na réplica");
+        assertThat(cacheManager.getCache(BookServiceImpl.BOOKS_CACHE).get(written.getId())).isNull();
+        assertThat(cacheManager.getCache(BookServiceImpl.BOOKS_CACHE).get(other.getId())).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Deve tirar do rodízio a réplica que não entrega conexão e ler da outra")
+    public void failoverTest() {
+        //cenário
+        Book book = saveOnReplica();
+        Book filter = Book.builder().isbn(book.getIsbn()).build();
+
+        //execução
+        for (int i = 0; i < 4; i++) {
+            assertThat(service.findAfter(filter, Keyset.first("id", Sort.Direction.ASC), 10)).hasSize(1);
+        }
+        routing.checkHealth();
+
+        //verificação
+        assertThat(routing.getHealthyReplicas()).containsExactly("replica-1");
+    }
+
+    private static Book saveOnReplica() {
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        long id = 1_000_000 + replica.queryForObject("select count(*) from book", Long.class);
+        return saveOnReplica(id, UUID.randomUUID().toString());
+    }
+
+    private static Book saveOnReplica(long id, String isbn) {
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        replica.update("insert into book (id, title, author, isbn) values (?, ?, ?, ?)", id, "Só na réplica", "Fulano", isbn);
+        return Book.builder().id(id).title("Só na réplica").author("Fulano").isbn(isbn).build();
+    }
+
+    private static String saveLoanOnReplica(Book book) {
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        String customer = "Cliente " + book.getId();
+        replica.update("insert into loan (customer, customer_email, id_book, loan_date, returned) values (?, ?, ?, ?, ?)",
+                customer, "cliente@email.com", book.getId(), Date.valueOf(LocalDate.now()), false);
+        return customer;
+    }
+}
@@ -0,0 +1,117 @@
+package com.cursodsousa.libraryapi.config;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import(SlowStatementLogTest.SlowStatementTestConfig.class)
+@TestPropertySource(properties = {
+        "application.jdbc.slow-statements.enabled=true",
+        "application.jdbc.slow-statements.threshold=0",
+        "application.jdbc.slow-statements.capacity=3",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class SlowStatementLogTest {
+
+    @TestConfiguration
+    @Import({SlowStatementLog.class, HibernateStatisticsEndpoint.class})
+    static class SlowStatementTestConfig {
+
+        @Bean
+        public MeterRegistry slowStatementMeterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    SlowStatementLog slowStatements;
+
+    @Autowired
+    HibernateStatisticsEndpoint endpoint;
+
+    @Autowired
+    BookRepository repository;
+
+    @Test
+    @DisplayName("Deve registrar o SQL, o tipo dos parâmetros e a origem dos comandos acima do limite")
+    public void recordsStatementShapesTest() {
+        //cenário
+        slowStatements.clear();
+
+        //execução: isbn e o limit 1 do exists
+        repository.existsByIsbn("123");
+
+        //verificação
+        SlowStatementLog.SlowStatement statement = slowStatements.recent().get(0);
+        assertThat(statement.getSql()).startsWith("select").contains("isbn=?");
+        assertThat(statement.getParameters()).containsExactly("String", "Integer");
+        assertThat(statement.getOrigin()).isEqualTo("thread " + Thread.currentThread().getName());
+    }
+
+    @Test
+    @DisplayName("Deve guardar só os últimos comandos, do mais recente para o mais antigo")
+    public void keepsLatestStatementsTest() {
+        //cenário
+        long before = slowStatements.getRecorded();
+
+        //execução
+        for (int i = 0; i < 5; i++) {
+            repository.existsByIsbn(String.valueOf(i));
+        }
+        repository.findVersionById(1L);
+
+        //verificação
+        List<SlowStatementLog.SlowStatement> recent = slowStatements.recent();
+        assertThat(recent).hasSize(3);
+        assertThat(recent.get(0).getSql()).contains("version");
+        assertThat(recent.get(0).getParameters()).containsExactly("Long");
+        assertThat(slowStatements.getRecorded() - before).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Deve expor as estatísticas por consulta e os comandos lentos no endpoint")
+    @SuppressWarnings("unchecked")
+    public void endpointTest() {
+        //cenário
+        endpoint.reset();
+        repository.save(Book.builder().title("Aventuras").author("Fulano").isbn("123").build());
+        repository.flush();
+
+        //execução
+        repository.existsByIsbn("123");
+        repository.existsByIsbn("321");
+        Map<String, Object> statistics = endpoint.statistics(null);
+
+        //verificação
+        assertThat(statistics.get("enabled")).isEqualTo(true);
+        List<Map<String, Object>> queries = (List<Map<String, Object>>) statistics.get("queries");
+        assertThat(queries).anySatisfy(query -> {
+            assertThat((String) query.get("query")).contains("isbn");
+            assertThat(query.get("executions")).isEqualTo(2L);
+        });
+        Map<String, Object> slow = (Map<String, Object>) statistics.get("slowStatements");
+        assertThat(slow.get("thresholdMillis")).isEqualTo(0L);
+        assertThat((List<?>) slow.get("statements")).isNotEmpty();
+        assertThat((List<?>) endpoint.statistics(0).get("queries")).isEmpty();
+    }
+}
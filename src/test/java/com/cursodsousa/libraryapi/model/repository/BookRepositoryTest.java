@@ -1,15 +1,24 @@
 package com.cursodsousa.libraryapi.model.repository;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -102,4 +111,187 @@ public class BookRepositoryTest {
         Book deletedBook = entityManager.find(Book.class, book.getId());
         assertThat(deletedBook).isNull();
     }
+
+    @Test
+    @DisplayName("Deve inserir livros em lote")
+    public void insertInBatchesTest(){
+        //cenário
+        List<Book> books = Arrays.asList(createNewBook("1"), createNewBook("2"), createNewBook("3"));
+
+        //execução
+        repository.insertInBatches(books);
+
+        //verificação
+        assertThat(books).allMatch(book -> book.getId() != null);
+        assertThat(repository.count()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve retornar os isbns já cadastrados dentre os informados")
+    public void findIsbnsInTest(){
+        //cenário
+        entityManager.persist(createNewBook("1"));
+        entityManager.persist(createNewBook("2"));
+
+        //execução
+        List<String> isbns = repository.findIsbnsIn(Arrays.asList("2", "3"));
+
+        //verificação
+        assertThat(isbns).containsExactly("2");
+    }
+
+    @Test
+    @DisplayName("Deve percorrer os livros que contém os valores do filtro, ordenados por id")
+    public void forEachByFilterTest(){
+        //cenário
+        Book first = Book.builder().title("As Aventuras").author("Fulano").isbn("1").build();
+        Book other = Book.builder().title("Memórias").author("Fulano").isbn("2").build();
+        Book second = Book.builder().title("Novas aventuras").author("Ciclano").isbn("3").build();
+        entityManager.persist(first);
+        entityManager.persist(other);
+        entityManager.persist(second);
+
+        //execução
+        List<String> isbns = new ArrayList<>();
+        repository.forEachByFilter(Book.builder().title("AVENTURA").build(), book -> isbns.add(book.getIsbn()));
+
+        //verificação
+        assertThat(isbns).containsExactly("1", "3");
+    }
+
+    @Test
+    @DisplayName("Deve paginar os livros a partir da chave do último livro, desempatando pelo id")
+    public void findByFilterAfterTest(){
+        //cenário
+        Book first = Book.builder().title("A").author("Fulano").isbn("1").build();
+        Book second = Book.builder().title("B").author("Fulano").isbn("2").build();
+        Book third = Book.builder().title("B").author("Fulano").isbn("3").build();
+        Book fourth = Book.builder().title("C").author("Fulano").isbn("4").build();
+        Book other = Book.builder().title("D").author("Ciclano").isbn("5").build();
+        Arrays.asList(fourth, second, first, other, third).forEach(entityManager::persist);
+        Book filter = Book.builder().author("fulano").build();
+
+        //execução
+        List<Book> firstPage = repository.findByFilterAfter(filter, Keyset.first("title", Sort.Direction.ASC), 2);
+        Book last = firstPage.get(1);
+        List<Book> nextPage = repository.findByFilterAfter(filter,
+                new Keyset("title", Sort.Direction.ASC, last.getTitle(), last.getId()), 2);
+
+        //verificação
+        assertThat(firstPage).containsExactly(first, second.getId() < third.getId() ? second : third);
+        assertThat(nextPage).containsExactly(second.getId() < third.getId() ? third : second, fourth);
+    }
+
+    @Test
+    @DisplayName("Deve paginar por chave passando pelos livros sem título nas duas direções")
+    public void findByFilterAfterNullKeyTest(){
+        //cenário
+        Book firstUntitled = Book.builder().author("Fulano").isbn("1").build();
+        Book secondUntitled = Book.builder().author("Fulano").isbn("2").build();
+        Book titled = Book.builder().title("A").author("Fulano").isbn("3").build();
+        Arrays.asList(firstUntitled, secondUntitled, titled).forEach(entityManager::persist);
+        Book filter = Book.builder().author("fulano").build();
+
+        //execução
+        List<Book> ascending = pageByPage(filter, Sort.Direction.ASC);
+        List<Book> descending = pageByPage(filter, Sort.Direction.DESC);
+
+        //verificação
+        assertThat(ascending).containsExactly(firstUntitled, secondUntitled, titled);
+        assertThat(descending).containsExactly(titled, secondUntitled, firstUntitled);
+    }
+
+    //uma página de um livro por vez, como o cliente seguindo o cursor
+    private List<Book> pageByPage(Book filter, Sort.Direction direction) {
+        List<Book> books = new ArrayList<>();
+        Keyset keyset = Keyset.first("title", direction);
+        List<Book> page;
+        while (!(page = repository.findByFilterAfter(filter, keyset, 1)).isEmpty()) {
+            Book last = page.get(0);
+            books.add(last);
+            keyset = new Keyset("title", direction, last.getTitle(), last.getId());
+        }
+        return books;
+    }
+
+    @Test
+    @DisplayName("Deve obter uma fatia de livros filtrados sem contar o total")
+    public void findSliceByFilterTest(){
+        //cenário
+        Book first = Book.builder().title("As Aventuras").author("Fulano").isbn("1").build();
+        Book second = Book.builder().title("Novas aventuras").author("Ciclano").isbn("2").build();
+        Book third = Book.builder().title("Aventuras no mar").author("Beltrano").isbn("3").build();
+        Book other = Book.builder().title("Memórias").author("Fulano").isbn("4").build();
+        Arrays.asList(first, second, third, other).forEach(entityManager::persist);
+        Book filter = Book.builder().title("aventura").build();
+
+        //execução
+        Slice<Book> firstSlice = repository.findSliceByFilter(filter, PageRequest.of(0, 2, Sort.by("author")));
+        Slice<Book> lastSlice = repository.findSliceByFilter(filter, PageRequest.of(1, 2, Sort.by("author")));
+
+        //verificação
+        assertThat(firstSlice.getContent()).containsExactly(third, second);
+        assertThat(firstSlice.hasNext()).isTrue();
+        assertThat(lastSlice.getContent()).containsExactly(first);
+        assertThat(lastSlice.hasNext()).isFalse();
+        assertThat(repository.findIdsByFilter(filter, 2)).containsExactly(first.getId(), second.getId());
+    }
+
+    @Test
+    @DisplayName("Deve marcar e liberar o empréstimo aberto do livro somente quando estiver livre")
+    public void claimAndReleaseLoanTest(){
+        //cenário
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+
+        //execução e verificação
+        assertThat(repository.claimForLoan(book.getId(), 10L)).isEqualTo(1);
+        assertThat(repository.claimForLoan(book.getId(), 11L)).isZero();
+        assertThat(repository.existsByIdAndActiveLoanIdIsNotNull(book.getId())).isTrue();
+        assertThat(repository.findAvailabilityById(book.getId()))
+                .hasValueSatisfying(availability -> {
+                    assertThat(availability.isAvailable()).isFalse();
+                    assertThat(availability.getActiveLoanId()).isEqualTo(10L);
+                });
+
+        assertThat(repository.releaseLoan(book.getId(), 11L)).isZero();
+        assertThat(repository.releaseLoan(book.getId(), 10L)).isEqualTo(1);
+        assertThat(repository.existsByIdAndActiveLoanIdIsNotNull(book.getId())).isFalse();
+        assertThat(repository.findAvailabilityById(book.getId()).map(BookAvailabilityDTO::isAvailable)).contains(true);
+        assertThat(repository.findAvailabilityById(-1L)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve mudar a versão da lista de empréstimos do livro a cada empréstimo, devolução ou alteração do livro")
+    public void loansVersionTest(){
+        //cenário
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+        List<String> versions = new ArrayList<>();
+
+        //execução
+        versions.add(loansVersion(book));
+        Loan loan = entityManager.persistFlushFind(
+                Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build());
+        versions.add(loansVersion(book));
+        loan.setReturned(true);
+        entityManager.flush();
+        versions.add(loansVersion(book));
+        book.setTitle("Outras aventuras");
+        entityManager.flush();
+        versions.add(loansVersion(book));
+        repository.claimForLoan(book.getId(), loan.getId());
+        versions.add(loansVersion(book));
+
+        //verificação
+        assertThat(versions).containsExactly("0.0.null.null", "0.1." + loan.getId() + ".0",
+                "0.1." + loan.getId() + ".1", "1.1." + loan.getId() + ".1", "1.1." + loan.getId() + ".1");
+        assertThat(repository.findVersionById(book.getId())).contains(1L);
+        assertThat(repository.findLoansVersionById(-1L)).isEmpty();
+    }
+
+    private String loansVersion(Book book) {
+        Object[] row = repository.findLoansVersionById(book.getId()).get(0);
+        return row[0] + "." + row[1] + "." + row[2] + "." + row[3];
+    }
 }
@@ -1,32 +1,48 @@
 package com.cursodsousa.libraryapi.model.repository;
 
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
 public class LoanRepositoryTest {
 
     @Autowired
     private LoanRepository repository;
 
+    @Autowired
+    private BookRepository bookRepository;
+
     @Autowired
     private TestEntityManager entityManager;
 
@@ -46,6 +62,27 @@ public class LoanRepositoryTest {
         assertThat(exists).isTrue();
     }
 
+    @Test
+    @DisplayName("Deve recusar no banco um segundo empréstimo aberto para o mesmo livro")
+    public void activeLoanUniquePerBookTest(){
+        //cenário
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+        Loan returnedLoan = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).returned(true).build();
+        Loan openLoan = Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).build();
+        entityManager.persist(returnedLoan);
+        entityManager.persist(openLoan);
+
+        //execução
+        Throwable exception = catchThrowable(() -> repository.saveAndFlush(
+                Loan.builder().book(book).customer("Beltrano").loanDate(LocalDate.now()).build()));
+
+        //verificação
+        assertThat(returnedLoan.getActiveBookId()).isNull();
+        assertThat(openLoan.getActiveBookId()).isEqualTo(book.getId());
+        assertThat(exception).isInstanceOf(DataIntegrityViolationException.class);
+    }
+
     @Test
     @DisplayName("Deve buscar emprestimo pelo isbn do livro ou customer")
     public void findByBookIsbnOrCustomerTest(){
@@ -60,6 +97,51 @@ public class LoanRepositoryTest {
         assertThat(result.getTotalElements()).isEqualTo(1);
     }
 
+    @Test
+    @DisplayName("Deve paginar a união dos emprestimos do isbn e do customer sem repetir nem perder emprestimos")
+    public void findByBookIsbnOrCustomerMergedPagesTest(){
+        //cenário
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+        List<Loan> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            //histórico do livro, um deles do próprio Fulano
+            Loan loan = Loan.builder().book(book).customer(i == 2 ? "Fulano" : "Ciclano " + i)
+                    .loanDate(LocalDate.now().minusDays(i * 2)).returned(true).build();
+            expected.add(entityManager.persist(loan));
+        }
+        for (int i = 0; i < 4; i++) {
+            Loan loan = createAndPersistLoan("isbn-" + i, LocalDate.now().minusDays(i * 2 + 1));
+            expected.add(loan);
+        }
+        Loan other = Loan.builder().book(createNewBook("321")).customer("Beltrano").loanDate(LocalDate.now()).build();
+        entityManager.persist(other.getBook());
+        entityManager.persist(other);
+        expected.sort(Comparator.comparing(Loan::getLoanDate).reversed().thenComparing(Loan::getId));
+
+        //execução
+        List<Loan> paged = new ArrayList<>();
+        Page<Loan> page;
+        int number = 0;
+        do {
+            page = repository.findByBookIsbnOrCustomer("123", "Fulano",
+                    PageRequest.of(number++, 2, Sort.by(Sort.Direction.DESC, "loanDate")));
+            paged.addAll(page.getContent());
+        } while (page.hasNext());
+        Page<LoanDTO> dtos = repository.findDTOsByBookIsbnOrCustomer("123", "Fulano",
+                PageRequest.of(1, 3, Sort.by(Sort.Direction.DESC, "loanDate")));
+        List<Loan> seeked = repository.findByBookIsbnOrCustomerAfter(LoanFilterDTO.builder().isbn("123").customer("Fulano").build(),
+                new Keyset("loanDate", Sort.Direction.DESC, expected.get(2).getLoanDate(), expected.get(2).getId()), 3);
+
+        //verificação
+        assertThat(page.getTotalElements()).isEqualTo(9);
+        assertThat(paged).containsExactlyElementsOf(expected);
+        assertThat(dtos.getContent()).extracting(LoanDTO::getId)
+                .containsExactly(expected.get(3).getId(), expected.get(4).getId(), expected.get(5).getId());
+        assertThat(seeked).containsExactlyElementsOf(expected.subList(3, 6));
+        assertThat(repository.findByBookIsbnOrCustomer(null, null, PageRequest.of(0, 10))).isEmpty();
+    }
+
     @Test
     @DisplayName("Deve obter emprestimos cuja data de emprestimo for menor ou igual a tres dias e não retornados")
     public void findByLoanDateLessThanAndNotReturnedTest(){
@@ -78,9 +160,171 @@ public class LoanRepositoryTest {
         assertThat(result).isEmpty();
     }
 
-    public Loan createAndPersistLoan(LocalDate loanDate){
+    @Test
+    @DisplayName("Deve ler só os ids dos emprestimos atrasados da faixa que ainda não têm aviso")
+    public void streamOverdueIdsTest(){
+        //cenário
+        Loan late = createAndPersistLoan("1", LocalDate.now().minusDays(7));
+        Loan notified = createAndPersistLoan("2", LocalDate.now().minusDays(7));
+        entityManager.persist(OutboxEvent.builder().loanId(notified.getId()).type(OutboxEvent.Type.OVERDUE).build());
+        Loan recent = createAndPersistLoan("3", LocalDate.now());
+        Book book = createNewBook("4");
+        entityManager.persist(book);
+        entityManager.persist(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now().minusDays(8)).returned(true).build());
+        entityManager.flush();
+
+        //execução
+        List<Long> result;
+        try (Stream<Number> overdueIds = repository.streamOverdueIds(LocalDate.now().minusDays(4), late.getId(), recent.getId() + 1)) {
+            result = overdueIds.map(Number::longValue).collect(Collectors.toList());
+        }
+
+        //verificação
+        assertThat(result).containsExactly(late.getId());
+    }
+
+    @Test
+    @DisplayName("Deve paginar os emprestimos do livro a partir da data do último emprestimo")
+    public void findByBookAfterTest(){
+        //cenário
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+        Loan older = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now().minusDays(2)).returned(true).build();
+        Loan old = Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now().minusDays(1)).returned(true).build();
+        Loan recent = Loan.builder().book(book).customer("Beltrano").loanDate(LocalDate.now()).build();
+        entityManager.persist(old);
+        entityManager.persist(recent);
+        entityManager.persist(older);
+
+        //execução
+        List<Loan> firstPage = repository.findByBookAfter(book, Keyset.first("loanDate", Sort.Direction.DESC), 2);
+        List<Loan> nextPage = repository.findByBookAfter(book,
+                new Keyset("loanDate", Sort.Direction.DESC, old.getLoanDate(), old.getId()), 2);
+
+        //verificação
+        assertThat(firstPage).containsExactly(recent, old);
+        assertThat(nextPage).containsExactly(older);
+    }
+
+    @Test
+    @DisplayName("Deve paginar por id os emprestimos filtrados pelo isbn do livro ou customer")
+    public void findByBookIsbnOrCustomerAfterTest(){
+        //cenário
+        Loan first = createAndPersistLoan(LocalDate.now());
+        Loan second = createAndPersistLoan("321", LocalDate.now());
+        LoanFilterDTO filter = LoanFilterDTO.builder().customer("Fulano").build();
+
+        //execução
+        List<Loan> result = repository.findByBookIsbnOrCustomerAfter(filter,
+                new Keyset("id", Sort.Direction.ASC, first.getId(), first.getId()), 10);
+
+        //verificação
+        assertThat(result).containsExactly(second);
+    }
+
+    @Test
+    @DisplayName("Deve listar uma página de 100 emprestimos com seus livros em número constante de consultas")
+    public void loanPageStatementCountTest(){
+        //cenário
+        for (int i = 0; i < 100; i++) {
+            Book book = createNewBook("isbn-" + i);
+            entityManager.persist(book);
+            entityManager.persist(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now().minusDays(10)).build());
+        }
         Book book = createNewBook("123");
         entityManager.persist(book);
+        for (int i = 0; i < 100; i++) {
+            //histórico do livro: só o último empréstimo continua aberto
+            entityManager.persist(Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).returned(i < 99).build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+
+        //execução e verificação: select da página + count
+        statistics.clear();
+        Page<Loan> loans = repository.findByBookIsbnOrCustomer(null, "Fulano", PageRequest.of(0, 100));
+        loans.forEach(loan -> loan.getBook().getTitle());
+        assertThat(loans.getContent()).hasSize(100);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+        entityManager.clear();
+
+        statistics.clear();
+        Page<LoanDTO> dtos = repository.findDTOsByBookIsbnOrCustomer(null, "Fulano", PageRequest.of(0, 100));
+        assertThat(dtos.getContent()).hasSize(100).allMatch(dto -> dto.getBook().getIsbn().startsWith("isbn-"));
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+
+        //isbn e cliente: um select por lado + count de cada lado (a interseção só quando os dois têm linhas)
+        statistics.clear();
+        Page<Loan> merged = repository.findByBookIsbnOrCustomer("none", "Fulano", PageRequest.of(0, 100));
+        merged.forEach(loan -> loan.getBook().getTitle());
+        assertThat(merged.getContent()).hasSize(100);
+        assertThat(merged.getTotalElements()).isEqualTo(100);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(4);
+        entityManager.clear();
+
+        statistics.clear();
+        Page<Loan> byBook = repository.findByBook(book, PageRequest.of(0, 100));
+        byBook.forEach(loan -> loan.getBook().getTitle());
+        assertThat(byBook.getContent()).hasSize(100);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+        entityManager.clear();
+
+        statistics.clear();
+        Page<LoanDTO> dtosByBook = repository.findDTOsByBook(book, PageRequest.of(0, 100));
+        assertThat(dtosByBook.getContent()).hasSize(100).allMatch(dto -> "123".equals(dto.getBook().getIsbn()));
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+
+        statistics.clear();
+        List<Loan> late = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
+        late.forEach(loan -> loan.getBook().getTitle());
+        assertThat(late).hasSize(100);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve devolver empréstimos e liberar seus livros em lote")
+    public void markReturnedAndReleaseLoansTest(){
+        //cenário
+        Loan first = createAndPersistLoan("1", LocalDate.now());
+        Loan second = createAndPersistLoan("2", LocalDate.now());
+        Book firstBook = first.getBook();
+        Book secondBook = second.getBook();
+        int[] claimed = bookRepository.claimForLoans(Arrays.asList(
+                new Long[]{ firstBook.getId(), first.getId() }, new Long[]{ secondBook.getId(), second.getId() },
+                new Long[]{ secondBook.getId(), -1L }));
+
+        //execução
+        List<Object[]> states = repository.findReturnStateByIdIn(Arrays.asList(first.getId(), second.getId()));
+        int[] returned = repository.markReturned(Arrays.asList(first.getId(), -1L));
+        int[] released = bookRepository.releaseLoans(Arrays.asList(
+                new Long[]{ firstBook.getId(), first.getId() }, new Long[]{ secondBook.getId(), -1L }));
+        entityManager.clear();
+
+        //verificação
+        assertThat(claimed).containsExactly(1, 1, 0);
+        assertThat(states).hasSize(2).anySatisfy(state -> {
+            assertThat(state[0]).isEqualTo(first.getId());
+            assertThat(state[1]).isEqualTo(firstBook.getId());
+        });
+        assertThat(returned).containsExactly(1, 0);
+        assertThat(released).containsExactly(1, 0);
+        Loan reloaded = entityManager.find(Loan.class, first.getId());
+        assertThat(reloaded.getReturned()).isTrue();
+        assertThat(reloaded.getActiveBookId()).isNull();
+        assertThat(repository.existsByBookAndNotReturned(firstBook)).isFalse();
+        assertThat(bookRepository.existsByIdAndActiveLoanIdIsNotNull(firstBook.getId())).isFalse();
+        assertThat(bookRepository.existsByIdAndActiveLoanIdIsNotNull(secondBook.getId())).isTrue();
+    }
+
+    public Loan createAndPersistLoan(LocalDate loanDate){
+        return createAndPersistLoan("123", loanDate);
+    }
+
+    public Loan createAndPersistLoan(String isbn, LocalDate loanDate){
+        Book book = createNewBook(isbn);
+        entityManager.persist(book);
 
         Loan loan = Loan.builder().book(book).customer("Fulano").loanDate(loanDate).build();
         entityManager.persist(loan);
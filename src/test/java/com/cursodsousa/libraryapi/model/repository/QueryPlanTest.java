@@ -0,0 +1,170 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.hibernate.Session;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Roda EXPLAIN no H2 para cada SQL que as consultas dos repositórios geram e falha se algum
+ * plano percorrer uma tabela inteira (tableScan) em vez de usar um índice.
+ *
+ * Ficam de fora as leituras que percorrem a tabela de propósito: streamIdAndIsbn e streamIdTitleAndAuthor
+ * (carga dos índices em memória), os filtros por trecho de título/autor de BookRepositoryCustom
+ * (like '%...%', atendidos pelo BookSearchIndex).
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.cursodsousa.libraryapi.model.repository.QueryPlanTest$RecordingInspector")
+public class QueryPlanTest {
+
+    static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    public static class RecordingInspector implements StatementInspector {
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    TestEntityManager entityManager;
+
+    Book book;
+
+    @BeforeEach
+    public void setUp(){
+        book = createNewBook("123");
+        entityManager.persist(book);
+        entityManager.persist(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    @DisplayName("Deve usar índices em todas as consultas de livros por isbn e id")
+    public void bookQueriesUseIndexesTest(){
+        assertIndexed(() -> bookRepository.existsByIsbn("123"));
+        assertIndexed(() -> bookRepository.findByIsbn("123"));
+        assertIndexed(() -> bookRepository.findIsbnsIn(Arrays.asList("123", "321")));
+        assertIndexed(() -> bookRepository.findByIsbnIn(Arrays.asList("123", "321")));
+        assertIndexed(() -> bookRepository.findLoanedIdsIn(Arrays.asList(book.getId(), 2L)));
+        assertIndexed(() -> bookRepository.findById(book.getId()));
+        assertIndexed(() -> bookRepository.countByIdLessThanEqual(book.getId()));
+        assertIndexed(() -> bookRepository.existsByIdAndActiveLoanIdIsNotNull(book.getId()));
+        assertIndexed(() -> bookRepository.findAvailabilityById(book.getId()));
+        assertIndexed(() -> bookRepository.claimForLoan(book.getId(), 1L));
+        assertIndexed(() -> bookRepository.releaseLoan(book.getId(), 1L));
+    }
+
+    @Test
+    @DisplayName("Deve usar índices nas consultas de empréstimos por id, livro e data")
+    public void loanQueriesUseIndexesTest(){
+        assertIndexed(() -> loanRepository.existsByBookAndNotReturned(book));
+        assertIndexed(() -> loanRepository.findReturnStateByIdIn(Arrays.asList(1L, 2L)));
+        assertIndexed(() -> loanRepository.findByBook(book, PageRequest.of(0, 10)));
+        assertIndexed(() -> loanRepository.findDTOsByBook(book, PageRequest.of(0, 10)));
+        assertIndexed(() -> loanRepository.findByBookAfter(book, Keyset.first("loanDate", Sort.Direction.DESC), 10));
+        assertIndexed(() -> loanRepository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4)));
+        assertIndexed(() -> {
+            try (Stream<Number> overdueIds = loanRepository.streamOverdueIds(LocalDate.now().minusDays(4), 1L, 100L)) {
+                overdueIds.forEach(id -> { });
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Deve usar índices nos filtros de empréstimos por isbn, por customer e pelos dois")
+    public void loanFilterQueriesUseIndexesTest(){
+        PageRequest page = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "loanDate"));
+        Keyset keyset = new Keyset("loanDate", Sort.Direction.DESC, LocalDate.now(), 10L);
+        for (LoanFilterDTO filter : Arrays.asList(new LoanFilterDTO("123", null),
+                new LoanFilterDTO(null, "Fulano"), new LoanFilterDTO("123", "Fulano"))) {
+            assertIndexed(() -> loanRepository.findByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), page));
+            assertIndexed(() -> loanRepository.findDTOsByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), page));
+            assertIndexed(() -> loanRepository.findByBookIsbnOrCustomerAfter(filter, keyset, 10));
+        }
+    }
+
+    @Test
+    @DisplayName("Deve detectar uma consulta que percorre a tabela inteira")
+    public void detectsTableScanTest(){
+        List<String> plans = plansOf(() -> entityManager.getEntityManager()
+                .createQuery(" select l from Loan l where l.customerEmail = :email ")
+                .setParameter("email", "fulano@email.com")
+                .getResultList());
+
+        assertThat(plans).anyMatch(QueryPlanTest::isTableScan);
+    }
+
+    private void assertIndexed(Runnable queries) {
+        List<String> plans = plansOf(queries);
+        assertThat(plans).isNotEmpty();
+        assertThat(plans).noneMatch(QueryPlanTest::isTableScan);
+    }
+
+    private List<String> plansOf(Runnable queries) {
+        //sem entidades no contexto de persistência, toda consulta vai ao banco
+        entityManager.clear();
+        STATEMENTS.clear();
+        queries.run();
+        entityManager.flush();
+        return STATEMENTS.stream()
+                .filter(sql -> !sql.trim().toLowerCase(Locale.ROOT).startsWith("insert"))
+                .map(this::explain)
+                .collect(Collectors.toList());
+    }
+
+    private String explain(String sql) {
+        return entityManager.getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("explain " + sql)) {
+                // o plano não depende dos valores, só da forma da consulta
+                int parameters = statement.getParameterMetaData().getParameterCount();
+                for (int i = 1; i <= parameters; i++) {
+                    statement.setObject(i, null);
+                }
+                try (ResultSet plan = statement.executeQuery()) {
+                    plan.next();
+                    return plan.getString(1);
+                }
+            }
+        });
+    }
+
+    private static boolean isTableScan(String plan) {
+        return plan.contains(".tableScan");
+    }
+}
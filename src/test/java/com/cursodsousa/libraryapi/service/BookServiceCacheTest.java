@@ -0,0 +1,209 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import com.cursodsousa.libraryapi.service.index.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.index.IsbnIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@ContextConfiguration(classes = BookServiceCacheTest.CacheTestConfig.class)
+public class BookServiceCacheTest {
+
+    @Configuration
+    @EnableCaching
+    @Import({BookServiceImpl.class, IsbnIndex.class, BookSearchIndex.class})
+    static class CacheTestConfig {
+
+        @Bean
+        public CacheManager cacheManager() {
+            return new CaffeineCacheManager(BookServiceImpl.BOOKS_CACHE, BookServiceImpl.BOOKS_BY_ISBN_CACHE);
+        }
+    }
+
+    @Autowired
+    BookService service;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    IsbnIndex isbnIndex;
+
+    @MockBean
+    BookRepository repository;
+
+    @BeforeEach
+    public void setUp(){
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        isbnIndex.rebuild(Stream::empty);
+    }
+
+    @Test
+    @DisplayName("Deve obter um livro por id do cache a partir da segunda consulta")
+    public void getByIdFromCacheTest(){
+        //cenário
+        Book book = createBook();
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(book));
+
+        //execução
+        service.getById(1L);
+        Optional<Book> foundBook = service.getById(1L);
+
+        //verificação
+        assertThat(foundBook).contains(book);
+        verify(repository, times(1)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Deve obter um livro por isbn do cache a partir da segunda consulta")
+    public void getBookByIsbnFromCacheTest(){
+        //cenário
+        Book book = createBook();
+        isbnIndex.put("123", 1L);
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(book));
+
+        //execução
+        service.getBookByIsbn("123");
+        Optional<Book> foundBook = service.getBookByIsbn("123");
+
+        //verificação
+        assertThat(foundBook).contains(book);
+        verify(repository, times(1)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Deve colocar no cache o livro salvo")
+    public void saveBookPutsOnCacheTest(){
+        //cenário
+        Book book = createBook();
+        Mockito.when(repository.existsByIsbn("123")).thenReturn(false);
+        Mockito.when(repository.save(book)).thenReturn(book);
+
+        //execução
+        service.save(book);
+        Optional<Book> byId = service.getById(1L);
+        Optional<Book> byIsbn = service.getBookByIsbn("123");
+
+        //verificação
+        assertThat(byId).contains(book);
+        assertThat(byIsbn).contains(book);
+        verify(repository, never()).findById(1L);
+        verify(repository, never()).findByIsbn("123");
+    }
+
+    @Test
+    @DisplayName("Deve remover do cache o não encontrado dos livros importados em lote")
+    public void saveAllEvictsCacheTest(){
+        //cenário
+        Book book = Book.builder().isbn("456").author("Fulano").title("As aventuras").build();
+        Book imported = Book.builder().id(2L).isbn("456").author("Fulano").title("As aventuras").build();
+        Mockito.when(repository.findById(2L)).thenReturn(Optional.empty(), Optional.of(imported));
+        Mockito.when(repository.findByIsbn("456")).thenReturn(Optional.empty());
+        Mockito.doAnswer(invocation -> {
+            List<Book> books = invocation.getArgument(0);
+            books.forEach(newBook -> newBook.setId(2L));
+            return null;
+        }).when(repository).insertInBatches(Mockito.anyList());
+        service.getById(2L);
+        service.getBookByIsbn("456");
+
+        //execução
+        service.saveAll(Arrays.asList(book));
+        Optional<Book> byId = service.getById(2L);
+        Optional<Book> byIsbn = service.getBookByIsbn("456");
+
+        //verificação
+        assertThat(byId).contains(imported);
+        assertThat(byIsbn).contains(imported);
+    }
+
+    @Test
+    @DisplayName("Deve remover do cache o livro atualizado")
+    public void updateEvictsCacheTest(){
+        //cenário
+        Book book = createBook();
+        isbnIndex.put("123", 1L);
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(book));
+        Mockito.when(repository.save(book)).thenReturn(book);
+        service.getById(1L);
+        service.getBookByIsbn("123");
+
+        //execução
+        service.update(book);
+        service.getById(1L);
+        service.getBookByIsbn("123");
+
+        //verificação: duas leituras por id e duas pelo isbn, que acha o id no índice
+        verify(repository, times(4)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Deve trocar o livro do cache pelo recarregado do banco")
+    public void reloadPutsOnCacheTest(){
+        //cenário
+        Book book = createBook();
+        Book current = Book.builder().id(1L).isbn("123").author("Fulano").title("Novas aventuras").version(1L).build();
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(book), Optional.of(current));
+        service.getById(1L);
+
+        //execução
+        service.reload(1L);
+        Optional<Book> byId = service.getById(1L);
+        Optional<Book> byIsbn = service.getBookByIsbn("123");
+
+        //verificação
+        assertThat(byId).contains(current);
+        assertThat(byIsbn).contains(current);
+        verify(repository, times(2)).findById(1L);
+        verify(repository, never()).findByIsbn("123");
+    }
+
+    @Test
+    @DisplayName("Deve remover do cache o livro deletado")
+    public void deleteEvictsCacheTest(){
+        //cenário
+        Book book = createBook();
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(book), Optional.empty());
+        service.getById(1L);
+
+        //execução
+        service.delete(book);
+        Optional<Book> foundBook = service.getById(1L);
+
+        //verificação
+        assertThat(foundBook).isEmpty();
+        verify(repository, times(2)).findById(1L);
+    }
+
+    private Book createBook() {
+        return Book.builder().id(1L).isbn("123").author("Fulano").title("As aventuras").build();
+    }
+}
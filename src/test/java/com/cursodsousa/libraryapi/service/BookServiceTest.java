@@ -1,9 +1,12 @@
 package com.cursodsousa.libraryapi.service;
 
+import com.cursodsousa.libraryapi.api.dto.BookImportResultDTO;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.repository.BookRepository;
 import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import com.cursodsousa.libraryapi.service.index.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.index.IsbnIndex;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -11,16 +14,22 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.Mockito.times;
@@ -34,12 +43,17 @@ public class BookServiceTest {
 
     BookService service;
 
+    IsbnIndex isbnIndex;
+    BookSearchIndex searchIndex;
+
     @MockBean
     BookRepository repository;
 
     @BeforeEach
     public void setUp(){
-        this.service = new BookServiceImpl(repository);
+        this.isbnIndex = new IsbnIndex();
+        this.searchIndex = new BookSearchIndex();
+        this.service = new BookServiceImpl(repository, isbnIndex, searchIndex, new NoOpCacheManager());
     }
 
     @Test
@@ -205,6 +219,106 @@ public class BookServiceTest {
         assertThat(result.getPageable().getPageSize()).isEqualTo(10);
     }
 
+    @Test
+    @DisplayName("Deve filtrar livros pelo índice de busca, ordenados por relevância, sem consultar o banco com like")
+    public void findBookWithSearchIndexTest(){
+        //cenário
+        Book exact = Book.builder().id(1L).title("Aventuras").author("Fulano").isbn("1").build();
+        Book partial = Book.builder().id(2L).title("Novas aventuras").author("Fulano").isbn("2").build();
+        searchIndex.rebuild(() -> Stream.of(new Object[]{ 2L, partial.getTitle(), partial.getAuthor() },
+                new Object[]{ 1L, exact.getTitle(), exact.getAuthor() },
+                new Object[]{ 3L, "Memórias", "Fulano" }));
+        Mockito.when(repository.findAllById(Arrays.asList(2L))).thenReturn(Arrays.asList(partial));
+
+        //execução
+        Page<Book> result = service.find(Book.builder().title("AVENTURA").build(), PageRequest.of(1, 1));
+
+        //verificação
+        assertThat(result.getTotalElements()).isEqualTo(2);
+        Assertions.assertThat(result.getContent()).containsExactly(partial);
+        verify(repository, Mockito.never()).findAll(Mockito.any(Example.class), Mockito.any(PageRequest.class));
+    }
+
+    @Test
+    @DisplayName("Deve buscar no índice uma vez para a página, o total e a página seguinte do mesmo filtro")
+    public void searchIndexMatchesReusedTest(){
+        //cenário
+        BookSearchIndex spiedIndex = Mockito.spy(searchIndex);
+        BookService service = new BookServiceImpl(repository, isbnIndex, spiedIndex, new NoOpCacheManager());
+        spiedIndex.rebuild(() -> Stream.of(new Object[]{ 1L, "Aventuras", "Fulano" }, new Object[]{ 2L, "Novas aventuras", "Fulano" }));
+        Book filter = Book.builder().title("aventura").build();
+
+        //execução
+        service.findSlice(filter, PageRequest.of(0, 1));
+        BookCount count = service.count(filter, CountMode.EXACT);
+        service.findSlice(filter, PageRequest.of(1, 1));
+
+        //verificação
+        assertThat(count.getTotal()).isEqualTo(2);
+        verify(spiedIndex, times(1)).search("aventura", null);
+    }
+
+    @Test
+    @DisplayName("Deve reaproveitar o total do mesmo filtro até que um livro seja salvo")
+    public void cachedCountTest(){
+        //cenário
+        Mockito.when(repository.count(Mockito.any(Example.class))).thenReturn(42L, 43L);
+        Mockito.when(repository.existsByIsbn(Mockito.anyString())).thenReturn(false);
+        Book savedBook = createValidBook();
+        savedBook.setId(1L);
+        Mockito.when(repository.save(Mockito.any(Book.class))).thenReturn(savedBook);
+
+        //execução
+        BookCount first = service.count(Book.builder().title("Aventuras").build(), CountMode.CACHED);
+        BookCount second = service.count(Book.builder().title("AVENTURAS").build(), CountMode.CACHED);
+        service.save(createValidBook());
+        BookCount afterSave = service.count(Book.builder().title("aventuras").build(), CountMode.CACHED);
+
+        //verificação
+        assertThat(first.getTotal()).isEqualTo(42L);
+        assertThat(second.getTotal()).isEqualTo(42L);
+        assertThat(afterSave.getTotal()).isEqualTo(43L);
+        verify(repository, times(2)).count(Mockito.any(Example.class));
+    }
+
+    @Test
+    @DisplayName("Deve estimar o total a partir da fração da tabela percorrida quando passar do limite")
+    public void estimatedCountTest(){
+        //cenário
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 1001; id++) {
+            ids.add(id * 10);
+        }
+        Book filter = Book.builder().author("Fulano").build();
+        Mockito.when(repository.findIdsByFilter(filter, 1001)).thenReturn(ids);
+        Mockito.when(repository.countByIdLessThanEqual(10010L)).thenReturn(10_010L);
+        Mockito.when(repository.count()).thenReturn(1_000_000L);
+
+        //execução
+        BookCount count = service.count(filter, CountMode.ESTIMATE);
+
+        //verificação
+        assertThat(count.isExact()).isFalse();
+        assertThat(count.getTotal()).isEqualTo(100_000L);
+        verify(repository, Mockito.never()).count(Mockito.any(Example.class));
+    }
+
+    @Test
+    @DisplayName("Deve contar exato quando o filtro encontrar poucos livros no modo estimado")
+    public void estimatedCountBelowLimitTest(){
+        //cenário
+        Book filter = Book.builder().author("Fulano").build();
+        Mockito.when(repository.findIdsByFilter(filter, 1001)).thenReturn(Arrays.asList(1L, 2L, 3L));
+
+        //execução
+        BookCount count = service.count(filter, CountMode.ESTIMATE);
+
+        //verificação
+        assertThat(count.isExact()).isTrue();
+        assertThat(count.getTotal()).isEqualTo(3L);
+        verify(repository, Mockito.never()).count();
+    }
+
     @Test
     @DisplayName("Deve obter um livro peloi isbn")
     public void getBookByIsbnTest(){
@@ -219,4 +333,134 @@ public class BookServiceTest {
 
         verify(repository, times(1)).findByIsbn(isbn);
     }
+
+    @Test
+    @DisplayName("Deve usar o índice de isbn carregado para recusar um isbn duplicado sem consultar a base")
+    public void shouldNotSaveDuplicatedIsbnUsingIndex(){
+        //cenário
+        isbnIndex.rebuild(() -> Stream.<Object[]>of(new Object[]{ 1L, "123" }));
+        Book book = createValidBook();
+
+        //execução
+        Throwable exception = Assertions.catchThrowable( () -> service.save(book));
+
+        //verificação
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Isbn já cadastrado.");
+        verify(repository, Mockito.never()).existsByIsbn(Mockito.anyString());
+        verify(repository, Mockito.never()).save(book);
+    }
+
+    @Test
+    @DisplayName("Deve manter o índice de isbn atualizado ao salvar e deletar um livro")
+    public void saveAndDeleteKeepIndexInSync(){
+        //cenário
+        isbnIndex.rebuild(Stream::empty);
+        Book book = createValidBook();
+        Mockito.when(repository.save(book)).thenReturn(Book.builder().id(7L).isbn("123").build());
+
+        //execução
+        Book savedBook = service.save(book);
+
+        //verificação
+        assertThat(isbnIndex.get("123")).isEqualTo(7L);
+
+        //execução
+        service.delete(savedBook);
+
+        //verificação
+        assertThat(isbnIndex.contains("123")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve obter um livro pelo isbn usando o id do índice sem consultar a base pelo isbn")
+    public void getBookByIsbnUsingIndexTest(){
+        //cenário
+        isbnIndex.rebuild(() -> Stream.<Object[]>of(new Object[]{ 1L, "123" }));
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(Book.builder().id(1L).isbn("123").build()));
+
+        //execução
+        Optional<Book> book = service.getBookByIsbn("123");
+        Optional<Book> notFound = service.getBookByIsbn("999");
+
+        //verificação
+        assertThat(book.isPresent()).isTrue();
+        assertThat(notFound.isPresent()).isFalse();
+        verify(repository, times(1)).findById(1L);
+        verify(repository, Mockito.never()).findByIsbn(Mockito.anyString());
+    }
+
+    @Test
+    @DisplayName("Deve recusar pelo índice único da base o isbn que o índice carregado ainda não conhece")
+    public void shouldNotSaveIsbnMissingFromIndexButRegistered(){
+        //cenário
+        isbnIndex.rebuild(Stream::empty);
+        Book book = createValidBook();
+        Mockito.when(repository.save(book)).thenThrow(new DataIntegrityViolationException("ux_book_isbn"));
+
+        //execução
+        Throwable exception = Assertions.catchThrowable( () -> service.save(book));
+
+        //verificação
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Isbn já cadastrado.");
+        assertThat(isbnIndex.contains("123")).isFalse();
+        verify(repository, Mockito.never()).existsByIsbn(Mockito.anyString());
+    }
+
+    @Test
+    @DisplayName("Deve atualizar os índices só depois do commit da transação")
+    public void indexesUpdatedAfterCommitTest(){
+        //cenário
+        isbnIndex.rebuild(Stream::empty);
+        Book book = createValidBook();
+        Mockito.when(repository.save(book)).thenReturn(Book.builder().id(7L).isbn("123").title("As aventuras").author("Fulano").build());
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            //execução
+            service.save(book);
+
+            //verificação
+            assertThat(isbnIndex.contains("123")).isFalse();
+            assertThat(searchIndex.size()).isZero();
+
+            //execução
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+            //verificação
+            assertThat(isbnIndex.get("123")).isEqualTo(7L);
+            assertThat(searchIndex.size()).isEqualTo(1);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("Deve salvar em lote apenas os livros com isbn novo e não repetido")
+    public void saveAllTest(){
+        //cenário
+        Book first = Book.builder().isbn("1").title("Um").author("Fulano").build();
+        Book registered = Book.builder().isbn("2").title("Dois").author("Fulano").build();
+        Book repeated = Book.builder().isbn("1").title("Um de novo").author("Fulano").build();
+        Mockito.when(repository.findIsbnsIn(Mockito.anyCollection())).thenReturn(Arrays.asList("2"));
+        Mockito.doAnswer(invocation -> {
+            List<Book> books = invocation.getArgument(0);
+            books.forEach(book -> book.setId(100L));
+            return null;
+        }).when(repository).insertInBatches(Mockito.anyList());
+
+        //execução
+        List<BookImportResultDTO> results = service.saveAll(Arrays.asList(first, registered, repeated));
+
+        //verificação
+        Assertions.assertThat(results).extracting(BookImportResultDTO::getStatus).containsExactly(
+                BookImportResultDTO.Status.CREATED,
+                BookImportResultDTO.Status.DUPLICATED,
+                BookImportResultDTO.Status.DUPLICATED);
+        assertThat(results.get(0).getId()).isEqualTo(100L);
+        verify(repository).insertInBatches(Arrays.asList(first));
+        verify(repository, Mockito.never()).existsByIsbn(Mockito.anyString());
+    }
 }
@@ -0,0 +1,248 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutResultDTO;
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.impl.LoanServiceImpl;
+import com.cursodsousa.libraryapi.service.index.DueDateIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Muitas threads disputando poucos livros contra o H2 de verdade, sem a transação do teste:
+ * cada empréstimo é confirmado (commit) antes de o próximo pedido do mesmo livro ser avaliado.
+ */
+@Slf4j
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class LoanServiceConcurrencyTest {
+
+    static final int THREADS = 32;
+    static final int ATTEMPTS_PER_THREAD = 100;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    OutboxEventRepository outboxRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    public void tearDown(){
+        outboxRepository.deleteAllInBatch();
+        loanRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Não deve emprestar o mesmo livro duas vezes com muitas threads simultâneas")
+    public void noDoubleLoanUnderContentionTest() throws Exception {
+        //cenário
+        LoanService service = new LoanServiceImpl(loanRepository, bookRepository, outboxRepository, new DueDateIndex(4), new TransactionTemplate(transactionManager));
+        List<Book> books = createBooks(8);
+        AtomicIntegerArray openLoans = new AtomicIntegerArray(books.size());
+        AtomicInteger loaned = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        AtomicInteger doubleLoans = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        //execução
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+                    int index = ThreadLocalRandom.current().nextInt(books.size());
+                    Loan loan;
+                    try {
+                        loan = service.save(Loan.builder().book(books.get(index)).customer("Fulano")
+                                .loanDate(LocalDate.now()).build());
+                    } catch (BusinessException e) {
+                        refused.incrementAndGet();
+                        continue;
+                    }
+                    loaned.incrementAndGet();
+                    if (openLoans.incrementAndGet(index) > 1) {
+                        doubleLoans.incrementAndGet();
+                    }
+                    // sai da contagem antes da devolução ser confirmada, então nunca conta um empréstimo legítimo a mais
+                    openLoans.decrementAndGet(index);
+                    loan.setReturned(true);
+                    service.update(loan);
+                }
+                return null;
+            }));
+        }
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        executor.shutdown();
+
+        //verificação
+        int attempts = THREADS * ATTEMPTS_PER_THREAD;
+        log.info(" {} threads, {} books: {} loans, {} refused, {} attempts/s ", THREADS, books.size(), loaned.get(),
+                refused.get(), attempts * 1_000_000_000L / elapsedNanos);
+        assertThat(doubleLoans.get()).isZero();
+        assertThat(loaned.get() + refused.get()).isEqualTo(attempts);
+        assertThat(loaned.get()).isPositive();
+        for (Book book : books) {
+            assertThat(loanRepository.existsByBookAndNotReturned(book)).isFalse();
+            assertThat(bookRepository.existsByIdAndActiveLoanIdIsNotNull(book.getId())).isFalse();
+        }
+    }
+
+    @Test
+    @DisplayName("Deve aceitar exatamente um empréstimo por livro quando todas as threads pedem os mesmos livros")
+    public void oneLoanPerBookTest() throws Exception {
+        //cenário
+        LoanService service = new LoanServiceImpl(loanRepository, bookRepository, outboxRepository, new DueDateIndex(4), new TransactionTemplate(transactionManager));
+        List<Book> books = createBooks(4);
+        AtomicInteger loaned = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        //execução
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (Book book : books) {
+                    try {
+                        service.save(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build());
+                        loaned.incrementAndGet();
+                    } catch (BusinessException e) {
+                        // outro pedido levou o livro
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        //verificação
+        assertThat(loaned.get()).isEqualTo(books.size());
+        assertThat(loanRepository.count()).isEqualTo(books.size());
+        for (Book book : books) {
+            assertThat(bookRepository.existsByIdAndActiveLoanIdIsNotNull(book.getId())).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Não deve emprestar o mesmo livro duas vezes misturando empréstimos em lote e individuais")
+    public void noDoubleLoanWithBatchCheckoutsTest() throws Exception {
+        //cenário
+        LoanService service = new LoanServiceImpl(loanRepository, bookRepository, outboxRepository, new DueDateIndex(4), new TransactionTemplate(transactionManager));
+        List<Book> books = createBooks(10);
+        Map<String, Integer> indexByIsbn = new HashMap<>();
+        for (int i = 0; i < books.size(); i++) {
+            indexByIsbn.put(books.get(i).getIsbn(), i);
+        }
+        AtomicIntegerArray openLoans = new AtomicIntegerArray(books.size());
+        AtomicInteger loaned = new AtomicInteger();
+        AtomicInteger doubleLoans = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        //execução
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            boolean batch = t % 2 == 0;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ATTEMPTS_PER_THREAD / 4; i++) {
+                    List<String> isbns = new ArrayList<>();
+                    int size = batch ? 5 : 1;
+                    for (int b = 0; b < size; b++) {
+                        isbns.add(books.get(ThreadLocalRandom.current().nextInt(books.size())).getIsbn());
+                    }
+                    List<Long> created = new ArrayList<>();
+                    List<Integer> indexes = new ArrayList<>();
+                    for (LoanCheckoutResultDTO result : service.saveAll("Fulano", null, isbns)) {
+                        if (result.getStatus() == LoanCheckoutResultDTO.Status.CREATED) {
+                            int index = indexByIsbn.get(result.getIsbn());
+                            if (openLoans.incrementAndGet(index) > 1) {
+                                doubleLoans.incrementAndGet();
+                            }
+                            created.add(result.getId());
+                            indexes.add(index);
+                        }
+                    }
+                    loaned.addAndGet(created.size());
+                    indexes.forEach(openLoans::decrementAndGet);
+                    if (!created.isEmpty()) {
+                        service.returnAll(created);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        //verificação
+        assertThat(doubleLoans.get()).isZero();
+        assertThat(loaned.get()).isPositive();
+        assertThat(loanRepository.count()).isEqualTo(loaned.get());
+        for (Book book : books) {
+            assertThat(loanRepository.existsByBookAndNotReturned(book)).isFalse();
+            assertThat(bookRepository.existsByIdAndActiveLoanIdIsNotNull(book.getId())).isFalse();
+        }
+    }
+
+    private List<Book> createBooks(int count) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            books.add(Book.builder().isbn("isbn-" + i).title("Livro " + i).author("Fulano").build());
+        }
+        return bookRepository.saveAll(books);
+    }
+}
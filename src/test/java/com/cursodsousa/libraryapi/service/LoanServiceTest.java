@@ -1,20 +1,30 @@
 package com.cursodsousa.libraryapi.service;
 
+import com.cursodsousa.libraryapi.api.dto.BookAvailabilityDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanCheckoutResultDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanReturnResultDTO;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
 import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
 import com.cursodsousa.libraryapi.service.impl.LoanServiceImpl;
+import com.cursodsousa.libraryapi.service.index.DueDateIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.*;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionOperations;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
@@ -34,9 +44,18 @@ public class LoanServiceTest {
     @MockBean
     LoanRepository repository;
 
+    @MockBean
+    BookRepository bookRepository;
+
+    @MockBean
+    OutboxEventRepository outboxRepository;
+
+    DueDateIndex dueDates;
+
     @BeforeEach
     public void setUp(){
-        this.service = new LoanServiceImpl(repository);
+        this.dueDates = new DueDateIndex(4);
+        this.service = new LoanServiceImpl(repository, bookRepository, outboxRepository, dueDates, TransactionOperations.withoutTransaction());
     }
 
     @Test
@@ -58,8 +77,9 @@ public class LoanServiceTest {
                 .loanDate(LocalDate.now())
                 .build();
 
-        when(repository.existsByBookAndNotReturned(book)).thenReturn(false);
+        when(bookRepository.existsByIdAndActiveLoanIdIsNotNull(1L)).thenReturn(false);
         when( repository.save(savingLoan) ).thenReturn( savedLoan ) ;
+        when(bookRepository.claimForLoan(1L, 1L)).thenReturn(1);
 
         Loan loan = service.save(savingLoan);
 
@@ -67,6 +87,10 @@ public class LoanServiceTest {
         assertThat( loan.getBook().getId()).isEqualTo(savedLoan.getBook().getId() );
         assertThat( loan.getCustomer()).isEqualTo(savedLoan.getCustomer() );
         assertThat( loan.getLoanDate()).isEqualTo(savedLoan.getLoanDate() );
+        verify(outboxRepository).save(Mockito.argThat((OutboxEvent event) -> event.getLoanId() == 1L
+                && event.getType() == OutboxEvent.Type.CREATED && event.getStatus() == OutboxEvent.Status.PENDING));
+        assertThat(dueDates.size()).isEqualTo(1);
+        assertThat(dueDates.nextDueDate()).isEqualTo(LocalDate.now().plusDays(4));
     }
 
     @Test
@@ -81,7 +105,7 @@ public class LoanServiceTest {
                 .loanDate(LocalDate.now())
                 .build();
 
-        when(repository.existsByBookAndNotReturned(book)).thenReturn(true);
+        when(bookRepository.existsByIdAndActiveLoanIdIsNotNull(1L)).thenReturn(true);
 
         Throwable exception = catchThrowable( () -> service.save(savingLoan));
 
@@ -89,6 +113,94 @@ public class LoanServiceTest {
                 .hasMessage("Book already loaned");
 
         verify(repository, never()).save(savingLoan);
+        verify(outboxRepository, never()).save(Mockito.any(OutboxEvent.class));
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio quando o banco recusar um segundo empréstimo aberto para o livro")
+    public void concurrentlyLoanedBookSaveTest(){
+        Book book = Book.builder().id(1L).build();
+        Loan savingLoan = Loan.builder()
+                .book(book)
+                .customer("Fulano")
+                .loanDate(LocalDate.now())
+                .build();
+
+        when(bookRepository.existsByIdAndActiveLoanIdIsNotNull(1L)).thenReturn(false);
+        when(repository.save(savingLoan)).thenThrow(new DataIntegrityViolationException("active_book_id"));
+
+        Throwable exception = catchThrowable( () -> service.save(savingLoan));
+
+        assertThat( exception ).isInstanceOf(BusinessException.class)
+                .hasMessage("Book already loaned");
+    }
+
+    @Test
+    @DisplayName("Deve emprestar em lote os livros disponíveis e informar o motivo dos demais")
+    public void saveAllTest(){
+        //cenário
+        Book free = Book.builder().id(1L).isbn("001").build();
+        Book loaned = Book.builder().id(2L).isbn("002").build();
+        when(bookRepository.findByIsbnIn(Mockito.anyCollection())).thenReturn(Arrays.asList(free, loaned));
+        when(bookRepository.findLoanedIdsIn(Mockito.anyCollection())).thenReturn(Arrays.asList(2L));
+        when(repository.saveAll(Mockito.anyList())).thenAnswer(invocation -> {
+            List<Loan> loans = invocation.getArgument(0);
+            loans.forEach(loan -> loan.setId(100L + loan.getBook().getId()));
+            return loans;
+        });
+        when(bookRepository.claimForLoans(Mockito.anyList())).thenReturn(new int[]{ 1 });
+
+        //execução
+        List<LoanCheckoutResultDTO> results = service.saveAll("Fulano", "fulano@email.com",
+                Arrays.asList("001", "002", "999", "001"));
+
+        //verificação
+        assertThat(results).extracting(LoanCheckoutResultDTO::getStatus).containsExactly(
+                LoanCheckoutResultDTO.Status.CREATED, LoanCheckoutResultDTO.Status.ALREADY_LOANED,
+                LoanCheckoutResultDTO.Status.BOOK_NOT_FOUND, LoanCheckoutResultDTO.Status.DUPLICATED);
+        assertThat(results.get(0).getId()).isEqualTo(101L);
+        verify(bookRepository, times(1)).findByIsbnIn(Mockito.anyCollection());
+        verify(repository).saveAll(Mockito.argThat((List<Loan> loans) -> loans.size() == 1
+                && "fulano@email.com".equals(loans.get(0).getCustomerEmail())));
+        verify(outboxRepository).saveAll(Mockito.argThat((List<OutboxEvent> events) -> events.size() == 1
+                && events.get(0).getLoanId() == 101L && events.get(0).getType() == OutboxEvent.Type.CREATED));
+    }
+
+    @Test
+    @DisplayName("Deve desfazer o lote quando o banco recusar a marcação de um livro emprestado")
+    public void saveAllConcurrentlyLoanedTest(){
+        //cenário
+        Book book = Book.builder().id(1L).isbn("001").build();
+        when(bookRepository.findByIsbnIn(Mockito.anyCollection())).thenReturn(Arrays.asList(book));
+        when(repository.saveAll(Mockito.anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(bookRepository.claimForLoans(Mockito.anyList())).thenReturn(new int[]{ 0 });
+
+        //execução
+        Throwable exception = catchThrowable(() -> service.saveAll("Fulano", null, Arrays.asList("001")));
+
+        //verificação
+        assertThat(exception).isInstanceOf(BusinessException.class).hasMessage("Book already loaned");
+    }
+
+    @Test
+    @DisplayName("Deve devolver em lote os empréstimos abertos e informar o motivo dos demais")
+    public void returnAllTest(){
+        //cenário
+        when(repository.findReturnStateByIdIn(Mockito.anyCollection())).thenReturn(Arrays.asList(
+                new Object[]{ 1L, 10L, false }, new Object[]{ 2L, 20L, true }));
+
+        //execução
+        List<LoanReturnResultDTO> results = service.returnAll(Arrays.asList(1L, 2L, 3L, 1L));
+
+        //verificação
+        assertThat(results).extracting(LoanReturnResultDTO::getStatus).containsExactly(
+                LoanReturnResultDTO.Status.RETURNED, LoanReturnResultDTO.Status.ALREADY_RETURNED,
+                LoanReturnResultDTO.Status.NOT_FOUND, LoanReturnResultDTO.Status.ALREADY_RETURNED);
+        verify(repository).markReturned(Arrays.asList(1L));
+        verify(bookRepository).releaseLoans(Mockito.argThat((List<Long[]> pairs) -> pairs.size() == 1
+                && pairs.get(0)[0] == 10L && pairs.get(0)[1] == 1L));
+        verify(outboxRepository).saveAll(Mockito.argThat((List<OutboxEvent> events) -> events.size() == 1
+                && events.get(0).getLoanId() == 1L && events.get(0).getType() == OutboxEvent.Type.RETURNED));
     }
 
     @Test
@@ -120,13 +232,47 @@ public class LoanServiceTest {
         Loan loan = createLoan();
         loan.setId(1L);
         loan.setReturned(true);
+        dueDates.put(1L, loan.getLoanDate());
 
         when(repository.save(loan)).thenReturn(loan);
+        when(bookRepository.releaseLoan(loan.getBook().getId(), 1L)).thenReturn(1);
 
         Loan updateLoan = service.update(loan);
 
         assertThat(updateLoan.getReturned()).isTrue();
         verify(repository).save(loan);
+        verify(bookRepository).releaseLoan(loan.getBook().getId(), 1L);
+        verify(outboxRepository).save(Mockito.argThat((OutboxEvent event) -> event.getLoanId() == 1L
+                && event.getType() == OutboxEvent.Type.RETURNED));
+        assertThat(dueDates.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio ao reabrir um emprestimo de livro emprestado a outro cliente")
+    public void reopenLoanOfLoanedBookTest(){
+        Loan loan = createLoan();
+        loan.setId(1L);
+        loan.setReturned(false);
+
+        when(bookRepository.claimForLoan(loan.getBook().getId(), 1L)).thenReturn(0);
+
+        Throwable exception = catchThrowable( () -> service.update(loan));
+
+        assertThat( exception ).isInstanceOf(BusinessException.class)
+                .hasMessage("Book already loaned");
+        verify(repository, never()).save(loan);
+    }
+
+    @Test
+    @DisplayName("Deve obter a disponibilidade de um livro")
+    public void getAvailabilityTest(){
+        when(bookRepository.findAvailabilityById(1L)).thenReturn(Optional.of(new BookAvailabilityDTO(1L, 7L)));
+
+        Optional<BookAvailabilityDTO> availability = service.getAvailability(1L);
+
+        assertThat(availability).isPresent();
+        assertThat(availability.get().isAvailable()).isFalse();
+        assertThat(availability.get().getActiveLoanId()).isEqualTo(7L);
     }
 
     @Test
@@ -135,19 +281,18 @@ public class LoanServiceTest {
         //cenário
         LoanFilterDTO loanFilterDTO = LoanFilterDTO.builder().customer("Fulano").isbn("321").build();
 
-        Loan loan = createLoan();
-        loan.setId(1L);
+        LoanDTO loan = new LoanDTO(1L, "Fulano", "fulano@email.com", 1L, "Aventuras", "Artur", "321");
         PageRequest pageRequest = PageRequest.of(0,10);
-        List<Loan> lista = Arrays.asList(loan);
+        List<LoanDTO> lista = Arrays.asList(loan);
 
-        Page<Loan> page = new PageImpl<Loan>(lista, pageRequest, lista.size());
-        when( repository.findByBookIsbnOrCustomer(
+        Page<LoanDTO> page = new PageImpl<LoanDTO>(lista, pageRequest, lista.size());
+        when( repository.findDTOsByBookIsbnOrCustomer(
                 Mockito.anyString(),
                 Mockito.anyString(),
                 Mockito.any(PageRequest.class))).thenReturn(page);
 
         //execução
-        Page<Loan> result = service.find(loanFilterDTO, pageRequest);
+        Page<LoanDTO> result = service.findDTOs(loanFilterDTO, pageRequest);
 
         //verificações
         assertThat(result.getTotalElements()).isEqualTo(1);
@@ -0,0 +1,159 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookSearchIndexTest {
+
+    @Test
+    @DisplayName("Deve encontrar livros por parte do título ou autor, sem diferenciar maiúsculas e acentos")
+    public void substringSearchTest(){
+        BookSearchIndex index = new BookSearchIndex();
+        index.put(1L, "As Aventuras de Pi", "Yann Martel");
+        index.put(2L, "Memórias Póstumas", "Machado de Assis");
+        index.put(3L, "Dom Casmurro", "Machado de Assis");
+
+        assertThat(index.search("VENTURA", null)).containsExactly(1L);
+        assertThat(index.search("memorias", null)).containsExactly(2L);
+        assertThat(index.search(null, "machado")).containsExactly(2L, 3L);
+        assertThat(index.search("casm", "assis")).containsExactly(3L);
+        assertThat(index.search("casm", "martel")).isEmpty();
+        assertThat(index.search("xyz", null)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve exigir todos os termos e ordenar os livros por relevância")
+    public void multiTermRankingTest(){
+        BookSearchIndex index = new BookSearchIndex();
+        index.put(1L, "Aventuras de um programador java", "Fulano");
+        index.put(2L, "Java", "Fulano");
+        index.put(3L, "Programação em Java", "Fulano");
+        index.put(4L, "Programação em Kotlin", "Fulano");
+        index.put(5L, "Javascript", "Fulano");
+
+        assertThat(index.search("java", null)).containsExactly(2L, 5L, 3L, 1L);
+        assertThat(index.search("java program", null)).containsExactly(3L, 1L);
+        assertThat(index.search("em java", null)).containsExactly(3L);
+    }
+
+    @Test
+    @DisplayName("Deve atualizar o índice ao alterar e remover livros")
+    public void updateAndRemoveTest(){
+        BookSearchIndex index = new BookSearchIndex();
+        index.put(1L, "As aventuras", "Fulano");
+
+        index.put(1L, "Memórias", "Fulano");
+        assertThat(index.search("aventuras", null)).isEmpty();
+        assertThat(index.search("memo", null)).containsExactly(1L);
+
+        index.remove(1L);
+        index.put(2L, "Outras memórias", "Ciclano");
+        assertThat(index.search("memo", null)).containsExactly(2L);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve ficar pronto somente depois de carregado")
+    public void rebuildTest(){
+        BookSearchIndex index = new BookSearchIndex();
+        index.put(9L, "Antigo", "Fulano");
+        assertThat(index.isReady()).isFalse();
+
+        index.rebuild(() -> Stream.of(new Object[]{ 1L, "As aventuras", "Fulano" }, new Object[]{ 2L, null, "Ciclano" }));
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.search(null, "ciclano")).containsExactly(2L);
+        assertThat(index.search("antigo", null)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve manter as escritas feitas enquanto o índice é recarregado")
+    public void rebuildKeepsConcurrentWritesTest(){
+        BookSearchIndex index = new BookSearchIndex();
+
+        //a leitura das linhas já passou pelos livros 1 e 2 quando eles são alterados e removidos
+        index.rebuild(() -> Stream.of(new Object[]{ 1L, "As aventuras", "Fulano" }, new Object[]{ 2L, "Memórias", "Fulano" },
+                new Object[]{ 3L, "Dom Casmurro", "Machado" })
+                .peek(row -> {
+                    if (row[0].equals(3L)) {
+                        index.put(1L, "Novas aventuras", "Fulano");
+                        index.remove(2L);
+                        index.put(4L, "Quincas Borba", "Machado");
+                    }
+                }));
+
+        assertThat(index.search("novas", null)).containsExactly(1L);
+        assertThat(index.search("memo", null)).isEmpty();
+        assertThat(index.search(null, "machado")).containsExactly(3L, 4L);
+        assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve descontar da memória estimada os textos dos livros removidos")
+    public void memoryFootprintTest(){
+        BookSearchIndex index = new BookSearchIndex();
+        index.put(1L, "As aventuras", "Fulano");
+        long withOneBook = index.memoryFootprintBytes();
+
+        index.put(2L, "Memórias", "Ciclano");
+        long withTwoBooks = index.memoryFootprintBytes();
+        index.remove(2L);
+
+        //os arrays não encolhem; só os textos do livro 2 (String de 40 bytes + 2 por caractere) saem da conta
+        assertThat(withTwoBooks).isGreaterThan(withOneBook);
+        assertThat(index.memoryFootprintBytes()).isEqualTo(withTwoBooks - (40 + "memorias".length() * 2) - (40 + "ciclano".length() * 2));
+    }
+
+    @Test
+    @DisplayName("Deve aceitar somente consultas com ao menos um termo de 3 caracteres")
+    public void isSearchableTest(){
+        assertThat(BookSearchIndex.isSearchable("aventuras", null)).isTrue();
+        assertThat(BookSearchIndex.isSearchable("as", "ful")).isTrue();
+        assertThat(BookSearchIndex.isSearchable("as", "de")).isFalse();
+        assertThat(BookSearchIndex.isSearchable("   ", "fulano")).isFalse();
+        assertThat(BookSearchIndex.isSearchable(null, null)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve retornar os mesmos livros que uma busca por substring em todos os textos")
+    public void sameResultsAsScanTest(){
+        BookSearchIndex index = new BookSearchIndex();
+        Map<Long, String> titles = new HashMap<>();
+        Random random = new Random(42);
+        String[] words = { "java", "javali", "aventura", "ventura", "dom", "casmurro", "memorias", "de", "a" };
+
+        for (long id = 1; id <= 2_000; id++) {
+            StringBuilder title = new StringBuilder();
+            for (int w = 0; w < 1 + random.nextInt(4); w++) {
+                title.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            titles.put(id, title.toString().trim());
+            index.put(id, titles.get(id), "Fulano");
+            if (random.nextInt(10) == 0) {
+                long removed = 1 + random.nextInt((int) id);
+                titles.remove(removed);
+                index.remove(removed);
+            }
+        }
+
+        for (String query : new String[]{ "jav", "ventura", "java dom", "murro a", "rias de" }) {
+            List<Long> expected = new ArrayList<>();
+            titles.forEach((id, title) -> {
+                if (TrigramTable.score(title, query.split(" ")) >= 0) {
+                    expected.add(id);
+                }
+            });
+            assertThat(index.search(query, null)).containsExactlyInAnyOrder(expected.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DueDateIndexTest {
+
+    static final LocalDate TODAY = LocalDate.of(2020, 3, 10);
+
+    @Test
+    @DisplayName("Deve retirar os empréstimos vencidos em ordem de vencimento")
+    public void pollDueTest(){
+        DueDateIndex index = new DueDateIndex(4);
+        index.put(1L, TODAY.minusDays(2));
+        index.put(2L, TODAY.minusDays(6));
+        index.put(3L, TODAY);
+        index.put(4L, TODAY.minusDays(4));
+        index.put(5L, TODAY.minusDays(5));
+
+        assertThat(index.nextDueDate()).isEqualTo(TODAY.minusDays(2));
+        assertThat(index.pollDue(TODAY)).containsExactly(2L, 5L, 4L);
+        assertThat(index.pollDue(TODAY)).isEmpty();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.pollDue(TODAY.plusDays(4))).containsExactly(1L, 3L);
+        assertThat(index.nextDueDate()).isNull();
+    }
+
+    @Test
+    @DisplayName("Deve tirar o empréstimo devolvido e trocar a data do empréstimo reaberto")
+    public void removeAndUpdateTest(){
+        DueDateIndex index = new DueDateIndex(4);
+        index.put(1L, TODAY.minusDays(10));
+        index.put(2L, TODAY.minusDays(10));
+        index.put(3L, TODAY.minusDays(10));
+
+        assertThat(index.remove(2L)).isTrue();
+        assertThat(index.remove(2L)).isFalse();
+        index.put(3L, TODAY);
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.pollDue(TODAY)).containsExactly(1L);
+        assertThat(index.nextDueDate()).isEqualTo(TODAY.plusDays(4));
+    }
+
+    @Test
+    @DisplayName("Deve ficar pronto somente depois de carregado")
+    public void rebuildTest(){
+        DueDateIndex index = new DueDateIndex(4);
+        index.put(9L, TODAY.minusDays(10));
+        assertThat(index.isReady()).isFalse();
+
+        index.rebuild(() -> Stream.of(new Object[]{ 3L, TODAY }, new Object[]{ 1L, TODAY.minusDays(8) },
+                new Object[]{ 2L, TODAY.minusDays(5) }, new Object[]{ 4L, null }));
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.pollDue(TODAY)).containsExactly(1L, 2L);
+        assertThat(index.remove(9L)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve manter os empréstimos e devoluções feitos enquanto o índice é recarregado")
+    public void rebuildKeepsConcurrentWritesTest(){
+        DueDateIndex index = new DueDateIndex(4);
+        index.put(5L, TODAY.minusDays(9));
+
+        //a leitura das linhas já passou pelos empréstimos 1 e 2 quando um é devolvido, outro é feito e o 5 vence
+        index.rebuild(() -> Stream.of(new Object[]{ 1L, TODAY.minusDays(8) }, new Object[]{ 2L, TODAY.minusDays(6) },
+                new Object[]{ 3L, TODAY }, new Object[]{ 5L, TODAY.minusDays(9) })
+                .peek(row -> {
+                    if (row[0].equals(3L)) {
+                        index.remove(1L);
+                        index.put(4L, TODAY.minusDays(2));
+                        assertThat(index.pollDue(TODAY)).containsExactly(5L);
+                    }
+                }));
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.pollDue(TODAY)).containsExactly(2L);
+        assertThat(index.nextDueDate()).isEqualTo(TODAY.plusDays(2));
+    }
+
+    @Test
+    @DisplayName("Deve se comportar como uma varredura dos empréstimos abertos em operações aleatórias")
+    public void randomOperationsTest(){
+        DueDateIndex index = new DueDateIndex(4);
+        Map<Long, LocalDate> expected = new HashMap<>();
+        Random random = new Random(42);
+        LocalDate today = TODAY;
+
+        for (int i = 0; i < 200_000; i++) {
+            long loanId = 1 + random.nextInt(5_000);
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                LocalDate loanDate = today.minusDays(random.nextInt(8));
+                index.put(loanId, loanDate);
+                expected.put(loanId, loanDate);
+            } else if (operation < 9) {
+                assertThat(index.remove(loanId)).isEqualTo(expected.remove(loanId) != null);
+            } else {
+                today = today.plusDays(random.nextInt(2));
+                LocalDate limit = index.lateLimit(today);
+                List<Long> due = new ArrayList<>();
+                for (long id : index.pollDue(today)) {
+                    due.add(id);
+                }
+                assertThat(due).containsExactlyInAnyOrderElementsOf(lateLoans(expected, limit));
+                due.forEach(expected::remove);
+            }
+        }
+
+        assertThat(index.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    @DisplayName("Deve estimar a memória do índice para 1 e 10 milhões de empréstimos abertos")
+    public void footprintTest(){
+        DueDateIndex index = new DueDateIndex(4);
+        for (long id = 1; id <= 1_000_000; id++) {
+            index.put(id, TODAY.minusDays(id % 8));
+        }
+
+        assertThat(index.memoryFootprintBytes()).isEqualTo(DueDateIndex.estimateFootprintBytes(1_000_000));
+        assertThat(DueDateIndex.estimateFootprintBytes(1_000_000)).isEqualTo(46_137_408L);
+        assertThat(DueDateIndex.estimateFootprintBytes(10_000_000)).isEqualTo(469_762_112L);
+    }
+
+    private static List<Long> lateLoans(Map<Long, LocalDate> openLoans, LocalDate limit) {
+        List<Long> late = new ArrayList<>();
+        openLoans.forEach((id, loanDate) -> {
+            if (!loanDate.isAfter(limit)) {
+                late.add(id);
+            }
+        });
+        return late;
+    }
+}
@@ -0,0 +1,121 @@
+package com.cursodsousa.libraryapi.service.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IsbnIndexTest {
+
+    @Test
+    @DisplayName("Deve incluir, obter e remover isbns do índice")
+    public void putGetRemoveTest(){
+        IsbnIndex index = new IsbnIndex();
+
+        index.put("9788535902778", 1L);
+        index.put("001", 2L);
+        index.put("1", 3L);
+        index.put("080442957X", 4L);
+        index.put("978-85-359-0277-8", 5L);
+
+        assertThat(index.get("9788535902778")).isEqualTo(1L);
+        assertThat(index.get("001")).isEqualTo(2L);
+        assertThat(index.get("1")).isEqualTo(3L);
+        assertThat(index.get("080442957X")).isEqualTo(4L);
+        assertThat(index.get("978-85-359-0277-8")).isEqualTo(5L);
+        assertThat(index.get("0804429570")).isEqualTo(IsbnIndex.MISSING);
+        assertThat(index.size()).isEqualTo(5);
+
+        index.remove("001");
+        index.remove("978-85-359-0277-8");
+
+        assertThat(index.contains("001")).isFalse();
+        assertThat(index.contains("978-85-359-0277-8")).isFalse();
+        assertThat(index.contains("1")).isTrue();
+        assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve codificar isbns diferentes em chaves diferentes")
+    public void encodeTest(){
+        assertThat(IsbnIndex.encode("001")).isNotEqualTo(IsbnIndex.encode("01"));
+        assertThat(IsbnIndex.encode("12X")).isNotEqualTo(IsbnIndex.encode("12"));
+        assertThat(IsbnIndex.encode("999999999999999999")).isPositive();
+        assertThat(IsbnIndex.encode("1X2")).isZero();
+        assertThat(IsbnIndex.encode("")).isZero();
+        assertThat(IsbnIndex.encode("1234567890123456789")).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve ficar pronto somente depois de carregado")
+    public void rebuildTest(){
+        IsbnIndex index = new IsbnIndex();
+        index.put("999", 9L);
+        assertThat(index.isReady()).isFalse();
+
+        index.rebuild(() -> Stream.of(new Object[]{ 1L, "123" }, new Object[]{ 2L, "321" }, new Object[]{ 3L, null }));
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.get("321")).isEqualTo(2L);
+        assertThat(index.contains("999")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve manter as escritas feitas enquanto o índice é recarregado")
+    public void rebuildKeepsConcurrentWritesTest(){
+        IsbnIndex index = new IsbnIndex();
+
+        //a leitura das linhas já passou por 123 e 321 quando os livros são incluídos e removidos
+        index.rebuild(() -> Stream.of(new Object[]{ 1L, "123" }, new Object[]{ 2L, "321" }, new Object[]{ 3L, "abc" })
+                .peek(row -> {
+                    if (row[0].equals(3L)) {
+                        index.put("456", 4L);
+                        index.put("isbn-5", 5L);
+                        index.remove("321");
+                    }
+                }));
+
+        assertThat(index.get("123")).isEqualTo(1L);
+        assertThat(index.get("456")).isEqualTo(4L);
+        assertThat(index.get("isbn-5")).isEqualTo(5L);
+        assertThat(index.contains("321")).isFalse();
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Deve se comportar como um HashMap em operações aleatórias")
+    public void randomOperationsTest(){
+        LongLongHashMap map = new LongLongHashMap();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = 1 + random.nextInt(5_000);
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                map.put(key, i);
+                expected.put(key, (long) i);
+            } else if (operation == 1) {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key) != null);
+            } else {
+                assertThat(map.get(key, -1L)).isEqualTo(expected.getOrDefault(key, -1L));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key, -1L)).isEqualTo(value));
+    }
+
+    @Test
+    @DisplayName("Deve estimar a memória do índice para um acervo de 10 milhões de livros")
+    public void footprintFor10MillionBooksTest(){
+        assertThat(LongLongHashMap.capacityFor(10_000_000)).isEqualTo(1 << 24);
+        assertThat(IsbnIndex.estimateFootprintBytes(10_000_000)).isEqualTo(268_435_488L);
+    }
+}
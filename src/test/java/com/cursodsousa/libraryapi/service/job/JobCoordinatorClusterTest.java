@@ -0,0 +1,223 @@
+package com.cursodsousa.libraryapi.service.job;
+
+import com.cursodsousa.libraryapi.LibraryApiApplication;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.JobLease;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.JobLeaseRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.ScheduleService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Três instâncias da aplicação, cada uma com seu contexto Spring, sobre o mesmo H2 em memória:
+ * o mesmo arranjo de várias instâncias atrás do balanceador dividindo um banco.
+ */
+@Slf4j
+public class JobCoordinatorClusterTest {
+
+    static final int NODES = 3;
+
+    static final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    @BeforeAll
+    public static void startNodes() {
+        String url = "jdbc:h2:mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        for (int i = 1; i <= NODES; i++) {
+            //na frente do application.properties
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("spring.profiles.active", "test");
+            properties.put("spring.datasource.url", url);
+            properties.put("server.port", "0");
+            properties.put("spring.boot.admin.client.enabled", "false");
+            properties.put("application.outbox.relay.enabled", "false");
+            properties.put("application.cluster.node-id", "node-" + i);
+            properties.put("logging.file.name", "");
+            StandardEnvironment environment = new StandardEnvironment();
+            environment.getPropertySources().addFirst(new MapPropertySource("node-" + i, properties));
+            contexts.add(new SpringApplicationBuilder(LibraryApiApplication.class)
+                    .logStartupInfo(false)
+                    .environment(environment)
+                    .run());
+        }
+    }
+
+    @AfterAll
+    public static void stopNodes() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+        contexts.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ConfigurableApplicationContext node = contexts.get(0);
+        node.getBean(JobLeaseRepository.class).deleteAllInBatch();
+        node.getBean(OutboxEventRepository.class).deleteAllInBatch();
+        node.getBean(LoanRepository.class).deleteAllInBatch();
+        node.getBean(BookRepository.class).deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Cada instância deve ver as demais pelo heartbeat")
+    public void liveNodesTest() {
+        for (ConfigurableApplicationContext node : contexts) {
+            assertThat(node.getBean(JobCoordinator.class).liveNodes()).containsExactly("node-1", "node-2", "node-3");
+        }
+    }
+
+    @Test
+    @DisplayName("Deve executar o job exclusivo em uma única instância quando todas disparam juntas")
+    public void exclusiveJobRunsOnceTest() throws Exception {
+        //cenário
+        AtomicInteger runs = new AtomicInteger();
+
+        //execução
+        List<Boolean> executed = onEveryNode(node -> node.getBean(JobCoordinator.class)
+                .runExclusive("report", Duration.ofMinutes(1), Duration.ofMinutes(1), runs::incrementAndGet));
+
+        //verificação
+        assertThat(runs.get()).isEqualTo(1);
+        assertThat(executed).containsOnlyOnce(true);
+    }
+
+    @Test
+    @DisplayName("Deve marcar cada empréstimo atrasado uma única vez com as partições divididas entre as instâncias")
+    public void lateLoansSplitAcrossNodesTest() throws Exception {
+        //cenário
+        ConfigurableApplicationContext first = contexts.get(0);
+        int lateLoans = 300;
+        createLoans(first, lateLoans, LocalDate.now().minusDays(10));
+        createLoans(first, 50, LocalDate.now());
+
+        //execução
+        List<Integer> marked = onEveryNode(node -> node.getBean(ScheduleService.class).markLateLoans());
+        int markedAgain = contexts.get(1).getBean(ScheduleService.class).markLateLoans();
+
+        //verificação
+        assertThat(marked.stream().mapToInt(Integer::intValue).sum()).isEqualTo(lateLoans);
+        assertThat(markedAgain).isZero();
+        List<OutboxEvent> events = first.getBean(OutboxEventRepository.class).findAll();
+        assertThat(events).hasSize(lateLoans).allMatch(event -> event.getType() == OutboxEvent.Type.OVERDUE);
+        assertThat(events.stream().map(OutboxEvent::getLoanId).distinct().count()).isEqualTo(lateLoans);
+
+        List<JobLease> partitions = first.getBean(JobLeaseRepository.class).findAll();
+        assertThat(partitions).extracting(JobLease::getJobName).hasSize(8).allMatch(name -> name.startsWith("late-loans#"));
+        log.info(" partitions per node: {} ", partitions.stream()
+                .collect(Collectors.groupingBy(JobLease::getOwner, Collectors.counting())));
+    }
+
+    @Test
+    @DisplayName("Deve assumir o job de uma instância que caiu quando o lease dela vencer")
+    public void expiredLeaseIsTakenOverTest() throws Exception {
+        //cenário: a instância dona caiu com o job na mão
+        ConfigurableApplicationContext node = contexts.get(1);
+        JobLeaseRepository leases = node.getBean(JobLeaseRepository.class);
+        LocalDateTime now = leases.now().toLocalDateTime();
+        leases.save(new JobLease("report", "dead-node", now.plusNanos(Duration.ofMillis(300).toNanos())));
+        JobCoordinator coordinator = node.getBean(JobCoordinator.class);
+        AtomicInteger runs = new AtomicInteger();
+
+        //execução
+        boolean whileHeld = coordinator.runExclusive("report", Duration.ofMinutes(1), Duration.ZERO, runs::incrementAndGet);
+        Thread.sleep(400);
+        boolean afterExpiry = coordinator.runExclusive("report", Duration.ofMinutes(1), Duration.ZERO, runs::incrementAndGet);
+
+        //verificação
+        assertThat(whileHeld).isFalse();
+        assertThat(afterExpiry).isTrue();
+        assertThat(runs.get()).isEqualTo(1);
+        assertThat(leases.findById("report").get().getOwner()).isEqualTo("node-2");
+    }
+
+    @Test
+    @DisplayName("Deve renovar o lease enquanto a tarefa roda, sem que outra instância assuma o job no meio")
+    public void leaseRenewedWhileRunningTest() throws Exception {
+        //cenário
+        JobCoordinator owner = contexts.get(0).getBean(JobCoordinator.class);
+        JobCoordinator other = contexts.get(1).getBean(JobCoordinator.class);
+        Duration lease = Duration.ofMillis(300);
+        AtomicBoolean takenOver = new AtomicBoolean();
+
+        //execução: a tarefa dura mais que três leases e a outra instância tenta pegar o job no fim dela
+        boolean ran = owner.runExclusive("report", lease, Duration.ZERO, () -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            takenOver.set(other.runExclusive("report", lease, Duration.ZERO, () -> { }));
+        });
+
+        //verificação
+        assertThat(ran).isTrue();
+        assertThat(takenOver).isFalse();
+    }
+
+    //a mesma chamada em todas as instâncias ao mesmo tempo, como o cron disparando em cada uma
+    private static <T> List<T> onEveryNode(Function<ConfigurableApplicationContext, T> call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (ConfigurableApplicationContext node : contexts) {
+                Callable<T> task = () -> {
+                    start.await();
+                    return call.apply(node);
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void createLoans(ConfigurableApplicationContext node, int count, LocalDate loanDate) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            books.add(Book.builder().title("Aventuras").author("Fulano").isbn(UUID.randomUUID().toString()).build());
+        }
+        node.getBean(BookRepository.class).saveAll(books);
+        node.getBean(LoanRepository.class).saveAll(books.stream()
+                .map(book -> Loan.builder().book(book).customer("Fulano").customerEmail("fulano@email.com")
+                        .loanDate(loanDate).build())
+                .collect(Collectors.toList()));
+    }
+}
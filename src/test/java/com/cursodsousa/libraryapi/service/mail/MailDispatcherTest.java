@@ -0,0 +1,229 @@
+package com.cursodsousa.libraryapi.service.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+public class MailDispatcherTest {
+
+    private MailDispatcher dispatcher;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Deve entregar todas as mensagens a um servidor SMTP local")
+    public void deliversEveryMessageThroughSmtpTest() throws Exception {
+        //cenário
+        int messages = 2_000;
+        GreenMail smtp = new GreenMail(ServerSetupTest.SMTP);
+        smtp.start();
+        try {
+            JavaMailSenderImpl sender = new JavaMailSenderImpl();
+            sender.setHost(ServerSetupTest.SMTP.getBindAddress());
+            sender.setPort(ServerSetupTest.SMTP.getPort());
+            dispatcher = new MailDispatcher(sender, 1_000, 4, 50, 3, 10, 60_000, 0);
+            dispatcher.start();
+
+            //execução
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                assertThat(dispatcher.submit(message("customer" + i + "@email.com"))).isTrue();
+            }
+            boolean idle = dispatcher.awaitIdle(60, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+
+            //verificação
+            assertThat(idle).isTrue();
+            assertThat(dispatcher.getSent()).isEqualTo(messages);
+            assertThat(dispatcher.getFailed()).isZero();
+            assertThat(smtp.getReceivedMessages()).hasSize(messages);
+            log.info(" {} mails in {} ms ({} mails/s) ", messages, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    messages * TimeUnit.SECONDS.toNanos(1) / elapsed);
+        } finally {
+            smtp.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Deve reenviar somente as mensagens que falharam no lote")
+    public void retriesOnlyFailedMessagesTest() throws Exception {
+        //cenário
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        MailSender sender = sender(batch -> {
+            batchSizes.add(batch.length);
+            if (batchSizes.size() == 1) {
+                throw new MailSendException(Collections.singletonMap(batch[1], new RuntimeException("mailbox full")));
+            }
+        });
+        dispatcher = new MailDispatcher(sender, 10, 1, 10, 3, 10, 1_000, 0);
+
+        //execução: enfileiradas antes de o worker começar, as três vão no mesmo lote
+        for (int i = 0; i < 3; i++) {
+            dispatcher.submit(message("customer" + i + "@email.com"));
+        }
+        dispatcher.start();
+        boolean idle = dispatcher.awaitIdle(5, TimeUnit.SECONDS);
+
+        //verificação
+        assertThat(idle).isTrue();
+        assertThat(batchSizes).containsExactly(3, 1);
+        assertThat(dispatcher.getSent()).isEqualTo(3);
+        assertThat(dispatcher.getRetried()).isEqualTo(1);
+        assertThat(dispatcher.getFailed()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve desistir da mensagem depois do número máximo de tentativas")
+    public void givesUpAfterMaxAttemptsTest() throws Exception {
+        //cenário
+        AtomicInteger attempts = new AtomicInteger();
+        MailSender sender = sender(batch -> {
+            attempts.addAndGet(batch.length);
+            throw new MailSendException("Connection refused");
+        });
+        dispatcher = start(sender, 10, 2, 10, 3, 0);
+
+        //execução
+        dispatcher.submit(message("fulano@email.com"));
+        dispatcher.submit(message("ciclano@email.com"));
+        boolean idle = dispatcher.awaitIdle(5, TimeUnit.SECONDS);
+
+        //verificação
+        assertThat(idle).isTrue();
+        assertThat(attempts.get()).isEqualTo(6);
+        assertThat(dispatcher.getRetried()).isEqualTo(4);
+        assertThat(dispatcher.getFailed()).isEqualTo(2);
+        assertThat(dispatcher.getSent()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve descartar como falha as tentativas ainda agendadas quando o dispatcher parar")
+    public void stopFailsScheduledRetriesTest() throws Exception {
+        //cenário
+        MailSender sender = sender(batch -> {
+            throw new MailSendException("Connection refused");
+        });
+        dispatcher = new MailDispatcher(sender, 10, 1, 10, 3, 60_000, 1_000, 0);
+        dispatcher.start();
+        List<Boolean> results = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.submit(message("fulano@email.com"), results::add);
+        while (dispatcher.getRetried() == 0) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+
+        //execução
+        dispatcher.stop();
+
+        //verificação
+        assertThat(results).containsExactly(false);
+        assertThat(dispatcher.getFailed()).isEqualTo(1);
+        assertThat(dispatcher.awaitIdle(0, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Deve recusar mensagens quando a fila continuar cheia")
+    public void boundedQueueTest() throws Exception {
+        //cenário: o worker fica preso no envio da primeira mensagem
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MailSender sender = sender(batch -> {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher = new MailDispatcher(sender, 2, 1, 1, 3, 10, 50, 0);
+        dispatcher.start();
+        dispatcher.submit(message("first@email.com"));
+        sending.await();
+
+        //execução
+        boolean second = dispatcher.submit(message("second@email.com"));
+        boolean third = dispatcher.submit(message("third@email.com"));
+        boolean fourth = dispatcher.submit(message("fourth@email.com"));
+        release.countDown();
+        boolean idle = dispatcher.awaitIdle(5, TimeUnit.SECONDS);
+
+        //verificação
+        assertThat(second).isTrue();
+        assertThat(third).isTrue();
+        assertThat(fourth).isFalse();
+        assertThat(idle).isTrue();
+        assertThat(dispatcher.getRejected()).isEqualTo(1);
+        assertThat(dispatcher.getSent()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve liberar uma rajada de até um segundo e depois esperar pela taxa configurada")
+    public void rateLimiterTest() {
+        AtomicLong now = new AtomicLong();
+        RateLimiter limiter = new RateLimiter(100, now::get);
+
+        assertThat(limiter.reserve(100)).isZero();
+        assertThat(limiter.reserve(50)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.reserve(50)).isZero();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(limiter.reserve(100)).isZero();
+        assertThat(limiter.reserve(1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(new RateLimiter(0).reserve(1_000_000)).isZero();
+    }
+
+    //envio falso: cada chamada recebe o lote inteiro
+    private static MailSender sender(Consumer<SimpleMailMessage[]> send) {
+        return new MailSender() {
+            @Override
+            public void send(SimpleMailMessage simpleMessage) {
+                send.accept(new SimpleMailMessage[]{ simpleMessage });
+            }
+
+            @Override
+            public void send(SimpleMailMessage... simpleMessages) {
+                send.accept(simpleMessages);
+            }
+        };
+    }
+
+    private static MailDispatcher start(MailSender sender, int queueCapacity, int workers, int batchSize,
+                                        int maxAttempts, double ratePerSecond) {
+        MailDispatcher dispatcher = new MailDispatcher(sender, queueCapacity, workers, batchSize, maxAttempts,
+                10, 1_000, ratePerSecond);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    static SimpleMailMessage message(String to) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("mail@library-api.com");
+        message.setSubject("Livro com empréstimo atrasado");
+        message.setText("Favor devolver o livro.");
+        message.setTo(to);
+        return message;
+    }
+}
@@ -0,0 +1,221 @@
+package com.cursodsousa.libraryapi.service.outbox;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.EmailService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import com.cursodsousa.libraryapi.service.impl.LoanServiceImpl;
+import com.cursodsousa.libraryapi.service.index.DueDateIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Outbox e relay contra o H2 de verdade, sem a transação do teste: o relay confirma cada etapa.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class OutboxRelayTest {
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    OutboxEventRepository outboxRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    LoanService loanService;
+    DueDateIndex dueDates;
+    SimpleMeterRegistry registry;
+    List<String> mails;
+
+    @BeforeEach
+    public void setUp() {
+        dueDates = new DueDateIndex(4);
+        loanService = new LoanServiceImpl(loanRepository, bookRepository, outboxRepository, dueDates, new TransactionTemplate(transactionManager));
+        registry = new SimpleMeterRegistry();
+        mails = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        outboxRepository.deleteAllInBatch();
+        loanRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Deve entregar os avisos de empréstimo e devolução e confirmá-los")
+    public void relaysAndAcksTest() {
+        //cenário
+        Loan loan = loan("fulano@email.com", LocalDate.now());
+        loan("ciclano@email.com", LocalDate.now());
+        loan.setReturned(true);
+        loanService.update(loan);
+        OutboxRelay relay = relay(mail -> CompletableFuture.completedFuture(true), 10, 300_000, 2);
+
+        //execução
+        int relayed = relay.relayBatch();
+
+        //verificação
+        assertThat(relayed).isEqualTo(3);
+        assertThat(relay.relayBatch()).isZero();
+        assertThat(mails).containsExactlyInAnyOrder("fulano@email.com", "ciclano@email.com", "fulano@email.com");
+        assertThat(outboxRepository.findAll()).extracting(OutboxEvent::getType).containsExactlyInAnyOrder(
+                OutboxEvent.Type.CREATED, OutboxEvent.Type.CREATED, OutboxEvent.Type.RETURNED);
+        assertThat(outboxRepository.findAll()).allSatisfy(event -> {
+            assertThat(event.getStatus()).isEqualTo(OutboxEvent.Status.SENT);
+            assertThat(event.getSentAt()).isNotNull();
+            assertThat(event.getClaimToken()).isNull();
+        });
+        assertThat(registry.get("outbox.relay.events").tag("result", "sent").counter().count()).isEqualTo(3);
+        assertThat(registry.get("outbox.relay.lag").timer().count()).isEqualTo(3);
+        assertThat(registry.get("outbox.relay.batch").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve devolver o aviso que falhou e desistir dele depois do número máximo de tentativas")
+    public void retriesThenFailsTest() {
+        //cenário
+        loan("fulano@email.com", LocalDate.now());
+        OutboxRelay relay = relay(mail -> CompletableFuture.completedFuture(false), 10, 300_000, 2);
+
+        //execução
+        int first = relay.relayBatch();
+        int second = relay.relayBatch();
+        int third = relay.relayBatch();
+
+        //verificação
+        assertThat(first).isEqualTo(1);
+        assertThat(second).isEqualTo(1);
+        assertThat(third).isZero();
+        OutboxEvent event = outboxRepository.findAll().get(0);
+        assertThat(event.getStatus()).isEqualTo(OutboxEvent.Status.FAILED);
+        assertThat(event.getAttempts()).isEqualTo(2);
+        assertThat(registry.get("outbox.relay.events").tag("result", "retried").counter().count()).isEqualTo(1);
+        assertThat(registry.get("outbox.relay.events").tag("result", "failed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve entregar por outro relay o aviso cujo claim venceu sem confirmação")
+    public void expiredClaimIsReclaimedTest() throws InterruptedException {
+        //cenário: o primeiro relay nunca recebe o resultado da entrega, como se tivesse caído
+        loan("fulano@email.com", LocalDate.now());
+        OutboxRelay stuck = relay(mail -> new CompletableFuture<>(), 10, 50, 2);
+        OutboxRelay healthy = relay(mail -> CompletableFuture.completedFuture(true), 10, 300_000, 2);
+
+        //execução
+        int stuckClaimed = stuck.relayBatch();
+        Thread.sleep(50);
+        int reclaimed = healthy.relayBatch();
+
+        //verificação
+        assertThat(stuckClaimed).isEqualTo(1);
+        assertThat(reclaimed).isEqualTo(1);
+        OutboxEvent event = outboxRepository.findAll().get(0);
+        assertThat(event.getStatus()).isEqualTo(OutboxEvent.Status.SENT);
+        assertThat(event.getAttempts()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve gravar um único aviso por empréstimo atrasado, mesmo rodando a marcação de novo")
+    public void markOverdueLoansOnceTest() {
+        //cenário
+        Loan late = loan("fulano@email.com", LocalDate.now().minusDays(10));
+        loan("ciclano@email.com", LocalDate.now());
+        Loan returned = loan("beltrano@email.com", LocalDate.now().minusDays(10));
+        returned.setReturned(true);
+        loanService.update(returned);
+        outboxRepository.deleteAllInBatch();
+
+        //execução
+        int marked = loanService.markOverdueLoans();
+        int markedAgain = loanService.markOverdueLoans();
+
+        //verificação
+        assertThat(marked).isEqualTo(1);
+        assertThat(markedAgain).isZero();
+        OutboxEvent event = outboxRepository.findAll().get(0);
+        assertThat(event.getLoanId()).isEqualTo(late.getId());
+        assertThat(event.getType()).isEqualTo(OutboxEvent.Type.OVERDUE);
+        assertThat(event.getStatus()).isEqualTo(OutboxEvent.Status.PENDING);
+    }
+
+    @Test
+    @DisplayName("Deve gravar o aviso só dos empréstimos que venceram segundo o índice de vencimentos")
+    public void markDueLoansTest() {
+        //cenário
+        Loan late = loan("fulano@email.com", LocalDate.now().minusDays(4));
+        Loan open = loan("ciclano@email.com", LocalDate.now().minusDays(3));
+        Loan returned = loan("beltrano@email.com", LocalDate.now().minusDays(10));
+        returned.setReturned(true);
+        loanService.update(returned);
+        outboxRepository.deleteAllInBatch();
+
+        //execução
+        int marked = loanService.markDueLoans();
+        int markedAgain = loanService.markDueLoans();
+
+        //verificação
+        assertThat(marked).isEqualTo(1);
+        assertThat(markedAgain).isZero();
+        assertThat(outboxRepository.findAll()).extracting(OutboxEvent::getLoanId).containsExactly(late.getId());
+        assertThat(dueDates.size()).isEqualTo(1);
+        assertThat(dueDates.nextDueDate()).isEqualTo(LocalDate.now().plusDays(1));
+        assertThat(loanService.markOverdueLoans()).isZero();
+    }
+
+    private Loan loan(String email, LocalDate loanDate) {
+        Book book = bookRepository.save(Book.builder().title("Aventuras").author("Fulano").isbn(email).build());
+        return loanService.save(Loan.builder().book(book).customer(email).customerEmail(email).loanDate(loanDate).build());
+    }
+
+    private OutboxRelay relay(Function<String, CompletableFuture<Boolean>> delivery, int batchSize,
+                              long leaseMillis, int maxAttempts) {
+        EmailService emailService = new EmailService() {
+            @Override
+            public void sendMails(String message, List<String> mailsList) {
+                mailsList.forEach(mail -> sendMail("", message, mail));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> sendMail(String subject, String message, String mail) {
+                mails.add(mail);
+                return delivery.apply(mail);
+            }
+        };
+        return new OutboxRelay(outboxRepository, emailService, new TransactionTemplate(transactionManager), registry,
+                batchSize, leaseMillis, 0, maxAttempts, "criado", "devolvido", "atrasado");
+    }
+}